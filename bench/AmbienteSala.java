@@ -0,0 +1,100 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Prepara uma sala com jogadores falsos, ligados por canais descartáveis
+ * O registo é reduzido aos erros durante as medições para não dominar os tempos
+ */
+public class AmbienteSala {
+    private final Registo.Nivel nivelOriginal = Registo.obterNivel();
+
+    private final BingoServer servidor;
+    private final Sala sala;
+    private final ClientHandler[] jogadores;
+    private final CanalDescartavel[] canais;
+
+    /**
+     * Construtor - Cria a sala e liga os jogadores, opcionalmente já prontos (o jogo começa)
+     * @param numJogadores - Número de jogadores da sala (no máximo Sala.MAX_JOGADORES)
+     * @param prontos - Se os jogadores enviam PRONTO, o que inicia o jogo
+     */
+    public AmbienteSala(int numJogadores, boolean prontos) {
+        Registo.definirNivel(Registo.Nivel.ERRO);
+        servidor = new BingoServer(BingoServer.ModoTransporte.BLOQUEANTE, 0);
+        sala = new Sala("bench", servidor);
+        jogadores = new ClientHandler[numJogadores];
+        canais = new CanalDescartavel[numJogadores];
+        // A sala responde no seu escritor: espera que aceite todos os jogadores
+        CountDownLatch aceites = new CountDownLatch(numJogadores);
+        AtomicReference<String> recusa = new AtomicReference<>();
+        for (int i = 0; i < numJogadores; i++) {
+            canais[i] = new CanalDescartavel();
+            ClientHandler jogador = new ClientHandler(canais[i], servidor);
+            jogadores[i] = jogador;
+            sala.adicionarCliente(jogador, false, erro -> {
+                if (erro == null) {
+                    jogador.salaAtribuida(sala);
+                } else {
+                    recusa.compareAndSet(null, erro);
+                }
+                aceites.countDown();
+            });
+        }
+        aguardar(aceites);
+        if (recusa.get() != null) {
+            throw new IllegalStateException("A sala não aceitou um jogador: " + recusa.get());
+        }
+        if (prontos) {
+            for (int i = 0; i < numJogadores; i++) {
+                jogadores[i].receberMensagem("PRONTO:bench" + i);
+            }
+            // Cada jogador recebe o cartão, a sessão e o JOGO_INICIADO antes de as medições começarem
+            for (CanalDescartavel canal : canais) {
+                while (canal.obterEnviadas() < 3) {
+                    Thread.onSpinWait();
+                }
+            }
+        }
+    }
+
+    private static void aguardar(CountDownLatch trinco) {
+        try {
+            trinco.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrompido à espera da sala", e);
+        }
+    }
+
+    public Sala obterSala() {
+        return sala;
+    }
+
+    public ClientHandler obterJogador(int i) {
+        return jogadores[i];
+    }
+
+    public CanalDescartavel obterCanal(int i) {
+        return canais[i];
+    }
+
+    /**
+     * Soma dos bytes codificados por todos os canais
+     */
+    public long obterBytesEnviados() {
+        long total = 0;
+        for (CanalDescartavel canal : canais) {
+            total += canal.obterBytes();
+        }
+        return total;
+    }
+
+    /**
+     * Para a sala (e os seus sorteios) e repõe o nível do registo
+     */
+    public void terminar() {
+        sala.parar();
+        servidor.obterGeradorCartoes().parar();
+        Registo.definirNivel(nivelOriginal);
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks da emissão e validação de cartões
+ * A validação da Sala é privada; medem-se as mesmas operações do Cartao e dos PadroesVitoria
+ * (interseção marcados E sorteados, máscara de células e comparação com as máscaras dos padrões)
+ * e a procura de um padrão entre os cartões de um jogador com muitos cartões, guardados em colunas no IndiceCartoes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkCartoes {
+    private GeradorCartoes gerador;
+    private Cartao cartao;
+    private ConjuntoNumeros marcados;
+    private ConjuntoNumeros sorteados;
+    private final PadroesVitoria todosOsPadroes = PadroesVitoria.de("horizontal,vertical,diagonal,cantos,x,cheio");
+
+    @Param({"100"})
+    public int cartoesPorJogador;
+
+    private IndiceCartoes indice;
+    private int[] cartoesDoJogador;
+
+    @Setup
+    public void preparar() {
+        gerador = new GeradorCartoes(GeradorCartoes.CAPACIDADE_RESERVA);
+        cartao = GeradorCartoes.gerarCartao();
+        marcados = new ConjuntoNumeros();
+        sorteados = new ConjuntoNumeros();
+        // Meio jogo: metade dos números sorteados, marcados os do cartão que saíram
+        for (int numero = 1; numero <= ConjuntoNumeros.MAXIMO; numero++) {
+            if (ThreadLocalRandom.current().nextBoolean()) {
+                sorteados.adicionar(numero);
+                if (cartao.contem(numero)) {
+                    marcados.adicionar(numero);
+                }
+            }
+        }
+        // Um jogador com muitos cartões que marcou todos os números sorteados
+        indice = new IndiceCartoes();
+        cartoesDoJogador = new int[cartoesPorJogador];
+        for (int i = 0; i < cartoesPorJogador; i++) {
+            cartoesDoJogador[i] = indice.registar(GeradorCartoes.gerarCartao(), sorteados);
+        }
+    }
+
+    @TearDown
+    public void terminar() {
+        gerador.parar();
+    }
+
+    @Benchmark
+    public Cartao gerarCartao() {
+        return GeradorCartoes.gerarCartao();
+    }
+
+    @Benchmark
+    public Cartao obterCartaoDaReserva() {
+        return gerador.obterCartao();
+    }
+
+    @Benchmark
+    public String gerarIdCartao() {
+        return gerador.gerarId();
+    }
+
+    @Benchmark
+    public int validarLinha() {
+        return PadroesVitoria.LINHA_CLASSICA.primeiroCompleto(acertos());
+    }
+
+    @Benchmark
+    public int validarBingo() {
+        return PadroesVitoria.BINGO_CLASSICO.primeiroCompleto(acertos());
+    }
+
+    @Benchmark
+    public int validarCatalogoCompleto() {
+        return todosOsPadroes.primeiroCompleto(acertos());
+    }
+
+    /**
+     * Pedido de LINHA sem cartão indicado: percorre todos os cartões do jogador até encontrar um padrão
+     */
+    @Benchmark
+    public int procurarLinhaNosCartoesDoJogador() {
+        return indice.procurarPadrao(cartoesDoJogador, 0, cartoesPorJogador, false, sorteados.obterBaixo(), sorteados.obterAlto());
+    }
+
+    /**
+     * Pedido de BINGO sem cartão indicado: quase todos os cartões são rejeitados pela máscara de acertos
+     */
+    @Benchmark
+    public int procurarBingoNosCartoesDoJogador() {
+        return indice.procurarPadrao(cartoesDoJogador, 0, cartoesPorJogador, true, sorteados.obterBaixo(), sorteados.obterAlto());
+    }
+
+    private int acertos() {
+        return cartao.mascaraCelulas(marcados.obterBaixo() & sorteados.obterBaixo(),
+                marcados.obterAlto() & sorteados.obterAlto());
+    }
+}
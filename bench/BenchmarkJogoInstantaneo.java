@@ -0,0 +1,44 @@
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark dos jogos instantâneos: jogos decididos por segundo numa só thread
+ * Cada jogo regista os cartões num índice novo, baralha os números e sorteia até ao primeiro BINGO,
+ * tal como a sala instantânea faz (sem as mensagens para os jogadores)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkJogoInstantaneo {
+    private static final int CARTOES_DISPONIVEIS = 4096;
+
+    @Param({"10", "100"})
+    public int cartoesPorJogo;
+
+    private final ConjuntoNumeros nenhum = new ConjuntoNumeros();
+    private Cartao[] cartoes;
+    private int proximoCartao;
+    private long semente;
+
+    @Setup
+    public void preparar() {
+        cartoes = new Cartao[CARTOES_DISPONIVEIS];
+        for (int i = 0; i < cartoes.length; i++) {
+            cartoes[i] = GeradorCartoes.gerarCartao();
+        }
+    }
+
+    @Benchmark
+    public int jogarInstantaneo() {
+        IndiceCartoes indice = new IndiceCartoes();
+        for (int i = 0; i < cartoesPorJogo; i++) {
+            indice.registar(cartoes[proximoCartao++ & (CARTOES_DISPONIVEIS - 1)], nenhum);
+        }
+        JogoInstantaneo jogo = new JogoInstantaneo(indice);
+        jogo.jogar(new BaralhoSorteio(semente++));
+        return jogo.obterSorteiosAteBingo();
+    }
+}
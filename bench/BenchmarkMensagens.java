@@ -0,0 +1,105 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks do tratamento de mensagens numa sala com jogadores falsos
+ * Cobre a interpretação dos comandos de texto, a marcação de números e a difusão para toda a sala
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchmarkMensagens {
+    @Param({"2", "10"})
+    public int numJogadores;
+
+    private AmbienteSala ambiente;
+    private ClientHandler jogador;
+    private CanalDescartavel canal;
+    private String marcarNoCartao;
+    private String marcarForaDoCartao;
+    private Mensagem numeroSorteado;
+
+    @Setup
+    public void preparar() {
+        ambiente = new AmbienteSala(numJogadores, true);
+        jogador = ambiente.obterJogador(0);
+        canal = ambiente.obterCanal(0);
+        // Os cartões vivem na sala: os números do jogador vêm da mensagem CARTAO que recebeu
+        String cartao = canal.obterPrimeiroCartao();
+        List<String> numeros = Arrays.asList(cartao.substring(cartao.lastIndexOf(':') + 1).split(","));
+        marcarNoCartao = "MARCAR:" + numeros.get(0);
+        int fora = 1;
+        while (numeros.contains(String.valueOf(fora))) fora++;
+        marcarForaDoCartao = "MARCAR:" + fora;
+        numeroSorteado = Mensagem.numeroSorteado(42, 1);
+    }
+
+    @TearDown
+    public void terminar() {
+        ambiente.terminar();
+    }
+
+    /**
+     * Interpretação de um comando de texto até ao tratamento (número fora do cartão: só responde ERRO)
+     */
+    @Benchmark
+    public void interpretarMarcarForaDoCartao() {
+        jogador.receberMensagem(marcarForaDoCartao);
+    }
+
+    /**
+     * Marcação de um número do cartão, com a consulta aos números sorteados da sala
+     */
+    @Benchmark
+    public void marcarNumero() {
+        jogador.receberMensagem(marcarNoCartao);
+    }
+
+    @Benchmark
+    public void desmarcarNumero() {
+        jogador.receberMensagem("DESMARCAR:1");
+    }
+
+    /**
+     * Pedido de linha completo: interpretação, fila de comandos, escritor da sala, índice e validação
+     * Espera pela resposta do escritor, para medir o pedido até ao fim e não deixar a fila crescer
+     */
+    @Benchmark
+    public long pedidoLinha() {
+        long antes = canal.obterEnviadas();
+        jogador.receberMensagem("LINHA");
+        long depois;
+        while ((depois = canal.obterEnviadas()) == antes) {
+            Thread.onSpinWait();
+        }
+        return depois;
+    }
+
+    @Benchmark
+    public void interpretarComandoDesconhecido() {
+        jogador.receberMensagem("XYZ");
+    }
+
+    /**
+     * Difusão de um número sorteado já codificado a todos os jogadores da sala
+     */
+    @Benchmark
+    public long enviarMensagemTodos() {
+        ambiente.obterSala().enviarMensagemTodos(numeroSorteado);
+        return ambiente.obterBytesEnviados();
+    }
+
+    /**
+     * Difusão de uma mensagem de texto: inclui criar e codificar a Mensagem uma vez
+     */
+    @Benchmark
+    public long enviarMensagemTodosTexto() {
+        ambiente.obterSala().enviarMensagemTodos("LINHA_VALIDA:bench");
+        return ambiente.obterBytesEnviados();
+    }
+}
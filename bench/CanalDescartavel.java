@@ -0,0 +1,63 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Canal de cliente falso para os benchmarks: codifica as mensagens como um canal real,
+ * mas descarta os bytes em vez de os escrever num socket
+ * Os contadores são LongAdder porque as respostas da sala chegam pela thread do escritor da sala
+ */
+public class CanalDescartavel implements CanalCliente {
+    private volatile boolean binario;
+    private final LongAdder enviadas = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private volatile String primeiroCartao; // Texto do primeiro CARTAO enviado
+
+
+    @Override
+    public void enviar(Mensagem mensagem) {
+        enviadas.increment();
+        if (primeiroCartao == null && mensagem.texto().startsWith("CARTAO:")) {
+            primeiroCartao = mensagem.texto();
+        }
+        bytes.add(mensagem.bytes(binario).length);
+    }
+
+    @Override
+    public void ativarProtocoloBinario() {
+        binario = true;
+    }
+
+    @Override
+    public void fechar() {
+    }
+
+    @Override
+    public String obterEndereco() {
+        return "bench";
+    }
+
+    @Override
+    public int obterTamanhoFila() {
+        return 0;
+    }
+
+    /**
+     * Obtém o texto do primeiro cartão enviado por este canal (CARTAO:id:num1,...), ou null se ainda nenhum
+     */
+    public String obterPrimeiroCartao() {
+        return primeiroCartao;
+    }
+
+    /**
+     * Obtém o número de mensagens enviadas por este canal
+     */
+    public long obterEnviadas() {
+        return enviadas.sum();
+    }
+
+    /**
+     * Obtém o total de bytes codificados, para o JMH não eliminar o trabalho
+     */
+    public long obterBytes() {
+        return bytes.sum() + enviadas.sum();
+    }
+}
@@ -0,0 +1,65 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Anel de hashing consistente que decide o nó dono de cada sala
+ * Cada nó ocupa várias posições virtuais no anel, para que as salas se repartam de forma equilibrada;
+ * a sala pertence ao primeiro nó a seguir ao hash do seu identificador. Quando um nó entra ou sai
+ * só mudam de dono as salas do troço do anel que ele ganhou ou perdeu.
+ * É imutável: uma mudança de membros cria um anel novo
+ */
+public final class AnelConsistente {
+    public static final int POSICOES_POR_NO = 128;
+
+    private final TreeMap<Long, String> posicoes = new TreeMap<>();
+    private final int numNos;
+
+    /**
+     * Construtor - Cria o anel com os nós dados
+     * @param nos - Identificadores dos nós do cluster
+     */
+    public AnelConsistente(Collection<String> nos) {
+        for (String no : nos) {
+            for (int i = 0; i < POSICOES_POR_NO; i++) {
+                posicoes.put(hash(no + "#" + i), no);
+            }
+        }
+        this.numNos = nos.size();
+    }
+
+    /**
+     * Obtém o nó dono de uma sala
+     * @return identificador do nó, ou null se o anel estiver vazio
+     */
+    public String dono(String idSala) {
+        if (posicoes.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> entrada = posicoes.ceilingEntry(hash(idSala));
+        return entrada != null ? entrada.getValue() : posicoes.firstEntry().getValue();
+    }
+
+    public int obterNumNos() {
+        return numNos;
+    }
+
+    /**
+     * Hash de 64 bits de um texto: FNV-1a sobre os bytes UTF-8, seguido da mistura final do MurmurHash3
+     * (o FNV sozinho espalha mal identificadores que só diferem no fim, como sala-1 e sala-2)
+     */
+    static long hash(String texto) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : texto.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
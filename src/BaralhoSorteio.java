@@ -0,0 +1,112 @@
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * Fonte de sorteio baseada num baralho com todos os números, baralhado uma única vez no início do jogo
+ * Cada sorteio apenas avança uma posição, em vez de repetir tentativas até encontrar um número novo.
+ * Com um SplittableRandom semeado a partir da semente do servidor e do identificador do jogo,
+ * a ordem dos números pode ser repetida exatamente; com SecureRandom serve salas reguladas
+ */
+public final class BaralhoSorteio implements FonteSorteio {
+    private final byte[] baralho = new byte[ConjuntoNumeros.MAXIMO];
+    private Long semente;
+    private int posicao;
+
+    /**
+     * Construtor - Baralha os números com um gerador semeado (sorteio reprodutível)
+     * @param semente - Semente do jogo, normalmente obtida com sementeJogo
+     */
+    public BaralhoSorteio(long semente) {
+        this.semente = semente;
+        baralhar(new SplittableRandom(semente));
+    }
+
+    /**
+     * Construtor - Baralha os números com um gerador qualquer (por exemplo criptográfico)
+     * O sorteio não é reprodutível, pelo que não há semente
+     * @param gerador - Gerador usado apenas para baralhar
+     */
+    public BaralhoSorteio(Random gerador) {
+        this.semente = null;
+        baralhar(gerador);
+    }
+
+    /**
+     * Cria um baralho baralhado com SecureRandom, para salas reguladas
+     */
+    public static BaralhoSorteio criptografico() {
+        return new BaralhoSorteio(new SecureRandom());
+    }
+
+    /**
+     * Deriva a semente de um jogo a partir da semente do servidor e do identificador do jogo
+     * Usa FNV-1a de 64 bits sobre o identificador, que não depende da versão da JVM
+     */
+    public static long sementeJogo(long sementeServidor, String idJogo) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : idJogo.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return sementeServidor ^ hash;
+    }
+
+    /**
+     * Volta a baralhar todos os números para um jogo novo, sem criar objetos (usado pelo simulador)
+     * Depois disto o baralho não tem semente: a ordem depende do estado do gerador
+     */
+    public void rebaralhar(RandomGenerator gerador) {
+        semente = null;
+        baralhar(gerador);
+    }
+
+    @Override
+    public boolean temProximo() {
+        return posicao < baralho.length;
+    }
+
+    @Override
+    public int proximo() {
+        if (posicao >= baralho.length) {
+            throw new NoSuchElementException("Todos os números já foram sorteados");
+        }
+        return baralho[posicao++];
+    }
+
+    @Override
+    public void retomar(int numero) {
+        // Traz o número para a posição atual; num baralho com a mesma semente já lá está
+        for (int i = posicao; i < baralho.length; i++) {
+            if (baralho[i] == numero) {
+                trocar(posicao++, i);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Número " + numero + " já sorteado ou fora do baralho");
+    }
+
+    @Override
+    public Long obterSemente() {
+        return semente;
+    }
+
+    private void baralhar(RandomGenerator gerador) {
+        for (int i = 0; i < baralho.length; i++) {
+            baralho[i] = (byte) (i + 1); // Números de 1 a 99
+        }
+        for (int i = baralho.length - 1; i > 0; i--) {
+            trocar(i, gerador.nextInt(i + 1));
+        }
+        posicao = 0;
+    }
+
+    private void trocar(int i, int j) {
+        byte temporario = baralho[i];
+        baralho[i] = baralho[j];
+        baralho[j] = temporario;
+    }
+}
@@ -0,0 +1,188 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Benchmark que compara os modos de execução do servidor
+ * Para cada modo arranca um servidor no próprio processo, abre N ligações e mede:
+ * - capacidade de ligação (tempo de ligação, threads de plataforma e memória por cliente)
+ * - latência de difusão: tempo entre o último PRONTO de uma sala e a chegada do JOGO_INICIADO a cada jogador
+ *
+ * Uso: java BenchmarkModos [numLigacoes] [modo...]
+ */
+public class BenchmarkModos {
+    private static final String ANFITRIAO = "127.0.0.1";
+    private static final int PORTA_BASE = 23456;
+
+    public static void main(String[] args) throws Exception {
+        int numLigacoes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        // Cada sala tem exatamente MAX_JOGADORES para o jogo começar no último PRONTO
+        numLigacoes -= numLigacoes % Sala.MAX_JOGADORES;
+
+        List<BingoServer.ModoTransporte> modos = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            modos.add(BingoServer.ModoTransporte.valueOf(args[i].toUpperCase()));
+        }
+        if (modos.isEmpty()) {
+            modos.add(BingoServer.ModoTransporte.BLOQUEANTE);
+            modos.add(BingoServer.ModoTransporte.VIRTUAL);
+        }
+
+        PrintStream consola = System.out;
+        consola.println("Benchmark de modos de execução com " + numLigacoes + " ligações");
+        consola.printf("%-12s %12s %14s %14s %12s %12s %12s%n",
+                "modo", "ligação(ms)", "threads/cli", "KiB heap/cli", "p50(ms)", "p99(ms)", "max(ms)");
+
+        int porta = PORTA_BASE;
+        for (BingoServer.ModoTransporte modo : modos) {
+            // O registo do servidor é reduzido aos erros para não distorcer as medições
+            Registo.Nivel nivel = Registo.obterNivel();
+            Registo.definirNivel(Registo.Nivel.ERRO);
+            Resultado resultado;
+            try {
+                resultado = medir(modo, porta++, numLigacoes);
+            } finally {
+                Registo.definirNivel(nivel);
+            }
+            consola.printf("%-12s %12d %14.3f %14.2f %12.2f %12.2f %12.2f%n",
+                    modo.name().toLowerCase(), resultado.tempoLigacaoMs, resultado.threadsPorCliente,
+                    resultado.heapPorClienteKiB, resultado.percentil(0.50), resultado.percentil(0.99),
+                    resultado.percentil(1.0));
+        }
+    }
+
+    /**
+     * Executa a medição completa para um modo
+     */
+    private static Resultado medir(BingoServer.ModoTransporte modo, int porta, int numLigacoes) throws Exception {
+        BingoServer servidor = new BingoServer(modo, porta);
+        Thread threadServidor = new Thread(servidor::iniciar, "benchmark-servidor");
+        threadServidor.setDaemon(true);
+        threadServidor.start();
+        aguardarServidor(porta);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        int threadsAntes = threads.getThreadCount();
+        long heapAntes = runtime.totalMemory() - runtime.freeMemory();
+
+        // Capacidade de ligação
+        Resultado resultado = new Resultado(numLigacoes);
+        SocketChannel[] canais = new SocketChannel[numLigacoes];
+        long inicio = System.nanoTime();
+        for (int i = 0; i < numLigacoes; i++) {
+            canais[i] = SocketChannel.open(new InetSocketAddress(ANFITRIAO, porta));
+        }
+        resultado.tempoLigacaoMs = (System.nanoTime() - inicio) / 1_000_000;
+        Thread.sleep(500); // Dá tempo ao servidor para arrancar os gestores de todos os clientes
+
+        System.gc();
+        resultado.threadsPorCliente = (threads.getThreadCount() - threadsAntes) / (double) numLigacoes;
+        resultado.heapPorClienteKiB = (runtime.totalMemory() - runtime.freeMemory() - heapAntes) / 1024.0 / numLigacoes;
+
+        // Latência de difusão: todos menos o último de cada sala ficam prontos primeiro
+        Selector seletor = Selector.open();
+        for (int i = 0; i < numLigacoes; i++) {
+            canais[i].configureBlocking(false);
+            canais[i].register(seletor, SelectionKey.OP_READ, i);
+        }
+        for (int i = 0; i < numLigacoes; i++) {
+            if (i % Sala.MAX_JOGADORES != Sala.MAX_JOGADORES - 1) {
+                escrever(canais[i], "PRONTO:bot" + i);
+            }
+        }
+        Thread.sleep(500);
+
+        long[] inicioSala = new long[numLigacoes / Sala.MAX_JOGADORES];
+        for (int sala = 0; sala < inicioSala.length; sala++) {
+            inicioSala[sala] = System.nanoTime();
+            escrever(canais[sala * Sala.MAX_JOGADORES + Sala.MAX_JOGADORES - 1], "PRONTO:bot" + sala);
+        }
+
+        // Recolhe a chegada do JOGO_INICIADO em cada cliente
+        StringBuilder[] pendente = new StringBuilder[numLigacoes];
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long limite = System.nanoTime() + 30_000_000_000L;
+        while (resultado.amostras < numLigacoes && System.nanoTime() < limite) {
+            seletor.select(100);
+            Iterator<SelectionKey> chaves = seletor.selectedKeys().iterator();
+            while (chaves.hasNext()) {
+                SelectionKey chave = chaves.next();
+                chaves.remove();
+                int indice = (Integer) chave.attachment();
+                buffer.clear();
+                if (canais[indice].read(buffer) <= 0) continue;
+                long chegada = System.nanoTime();
+                if (pendente[indice] == null) pendente[indice] = new StringBuilder();
+                pendente[indice].append(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+                if (pendente[indice].indexOf("JOGO_INICIADO:") >= 0) {
+                    resultado.registar(chegada - inicioSala[indice / Sala.MAX_JOGADORES]);
+                    chave.cancel();
+                }
+            }
+        }
+
+        seletor.close();
+        for (SocketChannel canal : canais) {
+            canal.close();
+        }
+        servidor.pararServidor();
+        threadServidor.join(2000);
+        return resultado;
+    }
+
+    private static void escrever(SocketChannel canal, String linha) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((linha + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+    }
+
+    private static void aguardarServidor(int porta) throws InterruptedException {
+        for (int tentativa = 0; tentativa < 100; tentativa++) {
+            try (Socket teste = new Socket()) {
+                teste.connect(new InetSocketAddress(ANFITRIAO, porta), 100);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("O servidor não arrancou na porta " + porta);
+    }
+
+    /**
+     * Resultados de um modo: capacidade de ligação e amostras de latência
+     */
+    private static class Resultado {
+        long tempoLigacaoMs;
+        double threadsPorCliente;
+        double heapPorClienteKiB;
+        final long[] latencias;
+        int amostras;
+
+        Resultado(int capacidade) {
+            latencias = new long[capacidade];
+        }
+
+        void registar(long nanos) {
+            latencias[amostras++] = nanos;
+        }
+
+        double percentil(double p) {
+            if (amostras == 0) return Double.NaN;
+            long[] ordenadas = Arrays.copyOf(latencias, amostras);
+            Arrays.sort(ordenadas);
+            int indice = (int) Math.min(amostras - 1, Math.ceil(p * amostras) - 1);
+            return ordenadas[Math.max(0, indice)] / 1_000_000.0;
+        }
+    }
+}
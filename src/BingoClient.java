@@ -9,8 +9,12 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.Timer;
 
 /**
  * Cliente de Bingo com interface gráfica e comunicação por sockets
@@ -21,30 +25,41 @@ public class BingoClient extends JFrame {
     // Configurações de ligação ao servidor
     private static final String SERVIDOR_ANFITRIAO = "localhost";
     private static final int SERVIDOR_PORTA = 12345;
+    private static final int TENTATIVAS_RECONEXAO = 5;
+    private static final int JANELA_MARCACOES_MS = 150; // Cliques dentro desta janela seguem numa só mensagem
+    private static final int INTERVALO_QUADRO_MS = 16;  // Mensagens chegadas dentro de um quadro (~60 por segundo) são aplicadas juntas
 
     // Componentes da interface gráfica
     private JTextField campoNome;
     private JLabel rotuloNome;
     private JButton botaoPronto, botaoLinha, botaoBingo;
     private JLabel rotuloEstado, rotuloIdCartao;
-    private JPanel painelCartao, painelNumerosSorteados;
+    private JPanel painelCartao;
     private JButton[] botoesCartao = new JButton[25];
-    private List<JLabel> rotulosNumerosSorteados = new ArrayList<>();
+    private QuadroNumeros quadroNumeros;
     private JPanel painelSuperior;
     private JPanel painelNome;
-    private JScrollPane painelDeslizante;
+
+    // Atualizações da interface vindas da thread de rede, aplicadas no EDT uma vez por quadro
+    private final Queue<Runnable> atualizacoesPendentes = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean atualizacaoAgendada = new AtomicBoolean();
+    private Timer temporizadorQuadro;
 
     // Componentes de comunicação de rede
     private Socket socket;
-    private BufferedReader entrada;
-    private PrintWriter saida;
-    private boolean ligado = false;
+    private InputStream entrada;
+    private OutputStream saida;
+    private volatile boolean ligado = false;
+    private volatile String tokenSessao; // Recebido com o cartão; permite voltar ao jogo se a ligação cair
+    private final boolean binario = Boolean.getBoolean("bingo.binario"); // Protocolo binário opcional
 
     // Estado do jogo
     private String idCartao;
     private int[] cartao = new int[25];
-    private Set<Integer> numerosMarcados = new HashSet<>();
-    private Set<Integer> numerosSorteados = new HashSet<>();
+    private ConjuntoNumeros numerosMarcados = new ConjuntoNumeros();
+    private ConjuntoNumeros numerosSorteados = new ConjuntoNumeros();
+    private ConjuntoNumeros marcacoesEnviadas = new ConjuntoNumeros(); // Últimas marcações enviadas ao servidor
+    private Timer temporizadorMarcacoes; // Junta os cliques seguidos num único MARCAR_LOTE
     private boolean jogoIniciado = false;
 
     /**
@@ -116,15 +131,12 @@ public class BingoClient extends JFrame {
         painelCentral.add(painelBotoes, BorderLayout.SOUTH);
         add(painelCentral, BorderLayout.CENTER);
 
-        // Painel lateral com histórico de números sorteados
-        painelNumerosSorteados = new JPanel();
-        painelNumerosSorteados.setLayout(new BoxLayout(painelNumerosSorteados, BoxLayout.Y_AXIS));
+        // Painel lateral com o quadro dos 99 números (tamanho fixo, sem deslizar)
+        quadroNumeros = new QuadroNumeros();
+        JPanel painelNumerosSorteados = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 5));
         painelNumerosSorteados.setBorder(BorderFactory.createTitledBorder("Números Sorteados"));
-        painelDeslizante = new JScrollPane(painelNumerosSorteados);
-        painelDeslizante.setPreferredSize(new Dimension(150, 0));
-        painelDeslizante.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
-        painelDeslizante.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
-        add(painelDeslizante, BorderLayout.EAST);
+        painelNumerosSorteados.add(quadroNumeros);
+        add(painelNumerosSorteados, BorderLayout.EAST);
 
         // Rótulo de estado na parte inferior
         rotuloEstado = new JLabel("A ligar ao servidor...", SwingConstants.CENTER);
@@ -155,9 +167,18 @@ public class BingoClient extends JFrame {
             }
         });
 
+        // As marcações pendentes seguem quando a janela fecha (sem repetição)
+        temporizadorMarcacoes = new Timer(JANELA_MARCACOES_MS, e -> enviarMarcacoesPendentes());
+        temporizadorMarcacoes.setRepeats(false);
+
+        // Uma rajada de mensagens do servidor é aplicada num só evento do EDT, no fim do quadro
+        temporizadorQuadro = new Timer(INTERVALO_QUADRO_MS, e -> aplicarAtualizacoes());
+        temporizadorQuadro.setRepeats(false);
+
         // Evento do botão "Linha"
         botaoLinha.addActionListener(e -> {
             if (jogoIniciado) {
+                enviarMarcacoesPendentes(); // O servidor tem de ver as marcações antes do pedido
                 enviarMensagem("LINHA");
             } else {
                 rotuloEstado.setText("Aguarde o jogo começar!");
@@ -167,6 +188,7 @@ public class BingoClient extends JFrame {
         // Evento do botão "Bingo"
         botaoBingo.addActionListener(e -> {
             if (jogoIniciado) {
+                enviarMarcacoesPendentes();
                 enviarMensagem("BINGO");
             } else {
                 rotuloEstado.setText("Aguarde o jogo começar!");
@@ -190,10 +212,7 @@ public class BingoClient extends JFrame {
      */
     private void ligarAoServidor() {
         try {
-            socket = new Socket(SERVIDOR_ANFITRIAO, SERVIDOR_PORTA);
-            entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            saida = new PrintWriter(socket.getOutputStream(), true);
-            ligado = true;
+            abrirLigacao();
             rotuloEstado.setText("Ligado! Introduza o seu nome e clique em 'Pronto para iniciar'.");
             botaoPronto.setEnabled(!campoNome.getText().trim().isEmpty());
 
@@ -206,26 +225,90 @@ public class BingoClient extends JFrame {
         }
     }
 
+    /**
+     * Abre o socket e os streams e, se for o caso, negoceia o protocolo binário
+     */
+    private void abrirLigacao() throws IOException {
+        socket = new Socket(SERVIDOR_ANFITRIAO, SERVIDOR_PORTA);
+        entrada = new BufferedInputStream(socket.getInputStream());
+        saida = new BufferedOutputStream(socket.getOutputStream());
+        if (binario) {
+            // O primeiro byte da ligação pede ao servidor o protocolo binário
+            saida.write(ProtocoloBinario.MAGIA);
+            saida.flush();
+        }
+        ligado = true;
+    }
+
     /**
      * Thread que escuta continuamente mensagens do servidor
-     * Processa cada mensagem recebida
+     * Se a ligação cair a meio de um jogo, tenta voltar ao mesmo cartão com o token da sessão
      */
     private void escutarServidor() {
-        try {
-            String mensagem;
-            while (ligado && (mensagem = entrada.readLine()) != null) {
-                System.out.println("Recebido do servidor: " + mensagem);
-                processarMensagemServidor(mensagem);
+        while (true) {
+            boolean perdida = lerMensagensServidor();
+            if (!perdida || !ligado) {
+                return;
             }
-        } catch (IOException e) {
-            if (ligado) {
+            if (tokenSessao == null || !tentarReconectar()) {
                 SwingUtilities.invokeLater(() -> {
                     rotuloEstado.setText("Ligação perdida com o servidor");
-                    JOptionPane.showMessageDialog(this, "Ligação perdida com o servidor!", 
+                    JOptionPane.showMessageDialog(this, "Ligação perdida com o servidor!",
                                                 "Erro", JOptionPane.ERROR_MESSAGE);
                 });
+                return;
+            }
+        }
+    }
+
+    /**
+     * Tenta abrir uma nova ligação e pedir o cartão da sessão, com esperas crescentes
+     * O servidor responde com o cartão e o estado do jogo, sem repetir os números já sorteados
+     */
+    private boolean tentarReconectar() {
+        for (int tentativa = 1; tentativa <= TENTATIVAS_RECONEXAO; tentativa++) {
+            int numero = tentativa;
+            SwingUtilities.invokeLater(() -> rotuloEstado.setText("Ligação perdida. A tentar voltar ao jogo ("
+                    + numero + "/" + TENTATIVAS_RECONEXAO + ")..."));
+            try {
+                Thread.sleep(1000L * tentativa);
+                abrirLigacao();
+                enviarMensagem("RECONECTAR:" + tokenSessao);
+                return true;
+            } catch (IOException e) {
+                System.err.println("Reconexão falhou: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lê e processa as mensagens do servidor até a ligação terminar
+     * @return true se a ligação caiu sem o cliente a ter fechado
+     */
+    private boolean lerMensagensServidor() {
+        try {
+            if (binario) {
+                DataInputStream leitor = new DataInputStream(entrada);
+                byte[] trama;
+                while (ligado && (trama = ProtocoloBinario.lerTrama(leitor)) != null) {
+                    processarTramaServidor(trama);
+                }
+            } else {
+                BufferedReader leitor = new BufferedReader(new InputStreamReader(entrada, StandardCharsets.UTF_8));
+                String mensagem;
+                while (ligado && (mensagem = leitor.readLine()) != null) {
+                    System.out.println("Recebido do servidor: " + mensagem);
+                    processarMensagemServidor(mensagem);
+                }
             }
+        } catch (IOException e) {
+            System.err.println("Erro na ligação: " + e.getMessage());
         }
+        return ligado;
     }
 
     /**
@@ -233,27 +316,124 @@ public class BingoClient extends JFrame {
      * Actualiza a interface gráfica conforme o tipo de mensagem
      */
     private void processarMensagemServidor(String mensagem) {
-        SwingUtilities.invokeLater(() -> {
+        agendarAtualizacao(() -> {
             if (mensagem.startsWith("CARTAO:")) {
                 processarCartaoRecebido(mensagem);
+            } else if (mensagem.startsWith("SESSAO:")) {
+                tokenSessao = mensagem.substring("SESSAO:".length());
+            } else if (mensagem.startsWith("ESTADO:")) {
+                processarEstadoRecebido(mensagem);
             } else if (mensagem.startsWith("JOGO_INICIADO:")) {
                 iniciarJogo();
             } else if (mensagem.startsWith("NUMERO_SORTEADO:")) {
-                processarNumeroSorteado(mensagem);
+                try {
+                    processarNumeroSorteado(Integer.parseInt(mensagem.substring("NUMERO_SORTEADO:".length())));
+                } catch (NumberFormatException e) {
+                    System.err.println("Erro ao analisar número sorteado: " + mensagem);
+                }
             } else if (mensagem.startsWith("LINHA_VALIDA:")) {
-                processarLinhaValida(mensagem);
+                processarLinhaValida(mensagem.substring("LINHA_VALIDA:".length()));
             } else if (mensagem.equals("LINHA_INVALIDA")) {
                 processarLinhaInvalida();
             } else if (mensagem.equals("BINGO_VALIDO")) {
                 processarBingoValido();
             } else if (mensagem.startsWith("BINGO_OUTROS:")) {
-                processarBingoOutros(mensagem);
+                processarBingoOutros(mensagem.substring("BINGO_OUTROS:".length()));
             } else if (mensagem.equals("BINGO_INVALIDO")) {
                 processarBingoInvalido();
             } else if (mensagem.startsWith("FIM_DE_JOGO:")) {
-                processarFimDeJogo(mensagem);
+                processarFimDeJogo(mensagem.substring("FIM_DE_JOGO:".length()));
             } else if (mensagem.startsWith("ERRO:")) {
-                processarErro(mensagem);
+                processarErro(mensagem.substring("ERRO:".length()));
+            }
+        });
+    }
+
+    /**
+     * Junta uma atualização da interface às pendentes (chamado pela thread de rede)
+     * Só a primeira de uma rajada arranca o temporizador do quadro; as outras seguem no mesmo evento do EDT
+     */
+    private void agendarAtualizacao(Runnable atualizacao) {
+        atualizacoesPendentes.add(atualizacao);
+        if (atualizacaoAgendada.compareAndSet(false, true)) {
+            temporizadorQuadro.start();
+        }
+    }
+
+    /**
+     * Aplica no EDT, por ordem, todas as atualizações pendentes
+     * Retira uma de cada vez da fila partilhada: se uma delas abrir um diálogo, o ciclo de eventos
+     * do diálogo continua as restantes pela mesma ordem
+     */
+    private void aplicarAtualizacoes() {
+        atualizacaoAgendada.set(false); // Antes de esvaziar: o que chegar a partir daqui agenda outro quadro
+        Runnable atualizacao;
+        while ((atualizacao = atualizacoesPendentes.poll()) != null) {
+            atualizacao.run();
+        }
+    }
+
+    /**
+     * Processa as tramas recebidas do servidor no protocolo binário
+     * Os dados são lidos diretamente dos bytes, sem construir nem dividir texto
+     */
+    private void processarTramaServidor(byte[] trama) {
+        int codigo = trama[0] & 0xFF;
+        System.out.println("Recebido do servidor: trama 0x" + Integer.toHexString(codigo));
+        String dados = codigo == ProtocoloBinario.CARTAO || codigo == ProtocoloBinario.NUMERO_SORTEADO
+                || codigo == ProtocoloBinario.ESTADO ? null : ProtocoloBinario.texto(trama, 1, trama.length);
+        agendarAtualizacao(() -> {
+            switch (codigo) {
+                case ProtocoloBinario.CARTAO: {
+                    // Dados: tamanho do id, id, 25 números de um byte
+                    int tamanhoId = trama[1] & 0xFF;
+                    int[] numeros = new int[25];
+                    for (int i = 0; i < 25; i++) {
+                        numeros[i] = trama[2 + tamanhoId + i] & 0xFF;
+                    }
+                    aplicarCartao(ProtocoloBinario.texto(trama, 2, 2 + tamanhoId), numeros);
+                    break;
+                }
+                case ProtocoloBinario.NUMERO_SORTEADO:
+                    processarNumeroSorteado(trama[1] & 0xFF);
+                    break;
+                case ProtocoloBinario.SESSAO:
+                    tokenSessao = dados;
+                    break;
+                case ProtocoloBinario.ESTADO: {
+                    // Dados: sequência (u16), sorteados e marcados como dois longs cada
+                    ByteBuffer estado = ByteBuffer.wrap(trama, 1, trama.length - 1);
+                    estado.getShort();
+                    aplicarEstado(new ConjuntoNumeros(estado.getLong(), estado.getLong()),
+                                  new ConjuntoNumeros(estado.getLong(), estado.getLong()));
+                    break;
+                }
+                case ProtocoloBinario.JOGO_INICIADO:
+                    iniciarJogo();
+                    break;
+                case ProtocoloBinario.LINHA_VALIDA:
+                    processarLinhaValida(dados);
+                    break;
+                case ProtocoloBinario.LINHA_INVALIDA:
+                    processarLinhaInvalida();
+                    break;
+                case ProtocoloBinario.BINGO_VALIDO:
+                    processarBingoValido();
+                    break;
+                case ProtocoloBinario.BINGO_OUTROS:
+                    processarBingoOutros(dados);
+                    break;
+                case ProtocoloBinario.BINGO_INVALIDO:
+                    processarBingoInvalido();
+                    break;
+                case ProtocoloBinario.FIM_DE_JOGO:
+                    processarFimDeJogo(dados);
+                    break;
+                case ProtocoloBinario.ERRO:
+                    processarErro(dados);
+                    break;
+                default:
+                    break;
             }
         });
     }
@@ -266,25 +446,79 @@ public class BingoClient extends JFrame {
         // Formato: CARTAO:ID:num1,num2,num3,...
         String[] partes = mensagem.split(":", 3);
         if (partes.length >= 3) {
-            idCartao = partes[1];
-            String[] numeros = partes[2].split(",");
+            String[] textoNumeros = partes[2].split(",");
             
-            if (numeros.length == 25) {
+            if (textoNumeros.length == 25) {
+                int[] numeros = new int[25];
                 for (int i = 0; i < 25; i++) {
                     try {
-                        cartao[i] = Integer.parseInt(numeros[i].trim());
-                        botoesCartao[i].setText(String.valueOf(cartao[i]));
-                        botoesCartao[i].setEnabled(true);
+                        numeros[i] = Integer.parseInt(textoNumeros[i].trim());
                     } catch (NumberFormatException e) {
-                        System.err.println("Erro ao analisar número do cartão: " + numeros[i]);
+                        System.err.println("Erro ao analisar número do cartão: " + textoNumeros[i]);
+                        return;
                     }
                 }
-                rotuloIdCartao.setText("ID do Cartão: " + idCartao);
-                rotuloEstado.setText("Cartão recebido! A aguardar outros jogadores...");
+                aplicarCartao(partes[1], numeros);
             }
         }
     }
 
+    /**
+     * Processa o estado de um jogo em curso, recebido ao entrar ou voltar a meio do jogo
+     */
+    private void processarEstadoRecebido(String mensagem) {
+        // Formato: ESTADO:sequência:sorteadosBaixo,sorteadosAlto:marcadosBaixo,marcadosAlto (hexadecimal)
+        String[] partes = mensagem.split(":");
+        if (partes.length != 4) return;
+        try {
+            String[] sorteados = partes[2].split(",");
+            String[] marcados = partes[3].split(",");
+            aplicarEstado(new ConjuntoNumeros(Long.parseUnsignedLong(sorteados[0], 16), Long.parseUnsignedLong(sorteados[1], 16)),
+                          new ConjuntoNumeros(Long.parseUnsignedLong(marcados[0], 16), Long.parseUnsignedLong(marcados[1], 16)));
+        } catch (RuntimeException e) {
+            System.err.println("Erro ao analisar estado do jogo: " + mensagem);
+        }
+    }
+
+    /**
+     * Acrescenta os números sorteados que faltam e repõe as marcações do cartão
+     * Pode chegar antes ou depois de alguns NUMERO_SORTEADO: só junta o que ainda não se conhecia
+     */
+    private void aplicarEstado(ConjuntoNumeros sorteados, ConjuntoNumeros marcados) {
+        if (!jogoIniciado) {
+            iniciarJogo();
+        }
+        numerosSorteados = new ConjuntoNumeros(numerosSorteados.obterBaixo() | sorteados.obterBaixo(),
+                                               numerosSorteados.obterAlto() | sorteados.obterAlto());
+        quadroNumeros.adicionarSorteados(sorteados);
+        numerosMarcados = marcados.copia();
+        marcacoesEnviadas = marcados.copia(); // O servidor já tem estas marcações
+        for (int i = 0; i < 25; i++) {
+            if (numerosMarcados.contem(cartao[i])) {
+                botoesCartao[i].setBackground(Color.GREEN);
+                botoesCartao[i].setOpaque(true);
+                botoesCartao[i].setBorderPainted(false);
+            } else {
+                destacarSeNoCartao(cartao[i]);
+            }
+        }
+        rotuloEstado.setText("Jogo em curso! " + numerosSorteados.tamanho() + " números já sorteados.");
+    }
+
+    /**
+     * Mostra o cartão recebido na interface
+     */
+    private void aplicarCartao(String id, int[] numeros) {
+        idCartao = id;
+        for (int i = 0; i < 25; i++) {
+            cartao[i] = numeros[i];
+            botoesCartao[i].setText(String.valueOf(cartao[i]));
+            botoesCartao[i].setEnabled(true);
+        }
+        rotuloIdCartao.setText("ID do Cartão: " + idCartao);
+        rotuloEstado.setText("Cartão recebido! A aguardar outros jogadores...");
+    }
+
     /**
      * Inicia o jogo quando todos os jogadores estão prontos
      */
@@ -297,25 +531,19 @@ public class BingoClient extends JFrame {
 
     /**
      * Processa um número sorteado pelo servidor
-     * Adiciona à lista visual e destaca no cartão se existir
+     * Acende-o no quadro e destaca-o no cartão se existir
      */
-    private void processarNumeroSorteado(String mensagem) {
-        try {
-            int numero = Integer.parseInt(mensagem.substring("NUMERO_SORTEADO:".length()));
-            numerosSorteados.add(numero);
-            adicionarNumeroSorteado(numero);
-            destacarSeNoCartao(numero);
-            rotuloEstado.setText("Último número sorteado: " + numero);
-        } catch (NumberFormatException e) {
-            System.err.println("Erro ao analisar número sorteado: " + mensagem);
-        }
+    private void processarNumeroSorteado(int numero) {
+        numerosSorteados.adicionar(numero);
+        quadroNumeros.adicionarSorteado(numero);
+        destacarSeNoCartao(numero);
+        rotuloEstado.setText("Último número sorteado: " + numero);
     }
 
     /**
      * Processa linha válida de outro jogador
      */
-    private void processarLinhaValida(String mensagem) {
-        String jogador = mensagem.substring("LINHA_VALIDA:".length());
+    private void processarLinhaValida(String jogador) {
         rotuloEstado.setText("LINHA VÁLIDA feita por: " + jogador);
         JOptionPane.showMessageDialog(this, jogador + " fez uma linha válida!", 
                                     "Linha!", JOptionPane.INFORMATION_MESSAGE);
@@ -343,8 +571,7 @@ public class BingoClient extends JFrame {
     /**
      * Processa bingo válido de outro jogador
      */
-    private void processarBingoOutros(String mensagem) {
-        String vencedor = mensagem.substring("BINGO_OUTROS:".length());
+    private void processarBingoOutros(String vencedor) {
         rotuloEstado.setText("Jogo terminado. Vencedor: " + vencedor);
         JOptionPane.showMessageDialog(this, vencedor + " fez BINGO e ganhou o jogo!", 
                                     "Jogo Terminado", JOptionPane.INFORMATION_MESSAGE);
@@ -363,8 +590,7 @@ public class BingoClient extends JFrame {
     /**
      * Processa fim de jogo por outras razões
      */
-    private void processarFimDeJogo(String mensagem) {
-        String razao = mensagem.substring("FIM_DE_JOGO:".length());
+    private void processarFimDeJogo(String razao) {
         rotuloEstado.setText("Jogo terminado: " + razao);
         JOptionPane.showMessageDialog(this, "Jogo terminado: " + razao, 
                                     "Fim de Jogo", JOptionPane.INFORMATION_MESSAGE);
@@ -374,13 +600,13 @@ public class BingoClient extends JFrame {
     /**
      * Processa mensagens de erro do servidor
      */
-    private void processarErro(String mensagem) {
-        String erro = mensagem.substring("ERRO:".length());
+    private void processarErro(String erro) {
         rotuloEstado.setText("Erro: " + erro);
         JOptionPane.showMessageDialog(this, erro, "Erro", JOptionPane.ERROR_MESSAGE);
         
-        if (erro.contains("Servidor lotado") || erro.contains("Jogo já em andamento") || 
-            erro.contains("Servidor está a parar")) {
+        // Com uma sessão ativa, a paragem do servidor não desliga: o jogo pode ser retomado no arranque seguinte
+        if (erro.contains("Servidor lotado") || erro.contains("Jogo já em andamento") ||
+            (erro.contains("Servidor está a parar") && tokenSessao == null)) {
             desligar();
         }
     }
@@ -397,22 +623,22 @@ public class BingoClient extends JFrame {
 
         int numero = cartao[indice];
         
-        if (numerosMarcados.contains(numero)) {
+        if (numerosMarcados.contem(numero)) {
             // Desmarcar número
-            numerosMarcados.remove(numero);
-            botoesCartao[indice].setBackground(numerosSorteados.contains(numero) ? Color.YELLOW : Color.WHITE);
+            numerosMarcados.remover(numero);
+            botoesCartao[indice].setBackground(numerosSorteados.contem(numero) ? Color.YELLOW : Color.WHITE);
             botoesCartao[indice].setBorderPainted(true);
             botoesCartao[indice].repaint();
-            enviarMensagem("DESMARCAR:" + numero);
+            agendarEnvioMarcacoes();
         } else {
             // Marcar número apenas se foi sorteado
-            if (numerosSorteados.contains(numero)) {
-                numerosMarcados.add(numero);
+            if (numerosSorteados.contem(numero)) {
+                numerosMarcados.adicionar(numero);
                 botoesCartao[indice].setBackground(Color.GREEN);
                 botoesCartao[indice].setOpaque(true);
                 botoesCartao[indice].setBorderPainted(false);
                 botoesCartao[indice].repaint();
-                enviarMensagem("MARCAR:" + numero);
+                agendarEnvioMarcacoes();
             } else {
                 rotuloEstado.setText("Só pode marcar números que já foram sorteados!");
                 JOptionPane.showMessageDialog(this, 
@@ -422,6 +648,31 @@ public class BingoClient extends JFrame {
         }
     }
 
+    /**
+     * Abre a janela de junção de marcações, se ainda não estiver aberta
+     * Os cliques seguintes dentro da janela apenas alteram o conjunto local
+     */
+    private void agendarEnvioMarcacoes() {
+        if (!temporizadorMarcacoes.isRunning()) {
+            temporizadorMarcacoes.start();
+        }
+    }
+
+    /**
+     * Envia todas as marcações do cartão numa só mensagem, se mudaram desde o último envio
+     * Marcar e desmarcar o mesmo número dentro da janela não gera tráfego nenhum
+     */
+    private void enviarMarcacoesPendentes() {
+        temporizadorMarcacoes.stop();
+        if (numerosMarcados.obterBaixo() == marcacoesEnviadas.obterBaixo()
+                && numerosMarcados.obterAlto() == marcacoesEnviadas.obterAlto()) {
+            return;
+        }
+        marcacoesEnviadas = numerosMarcados.copia();
+        enviarMensagem("MARCAR_LOTE:" + Long.toHexString(marcacoesEnviadas.obterBaixo())
+                + "," + Long.toHexString(marcacoesEnviadas.obterAlto()));
+    }
+
     /**
      * Destaca um número no cartão quando é sorteado
      * Amarelo para sorteado mas não marcado, verde para marcado
@@ -429,7 +680,7 @@ public class BingoClient extends JFrame {
     private void destacarSeNoCartao(int numero) {
         for (int i = 0; i < 25; i++) {
             if (cartao[i] == numero) {
-                if (!numerosMarcados.contains(numero)) {
+                if (!numerosMarcados.contem(numero)) {
                     botoesCartao[i].setBackground(Color.YELLOW);
                     botoesCartao[i].setOpaque(true);
                     botoesCartao[i].setBorderPainted(true);
@@ -439,42 +690,11 @@ public class BingoClient extends JFrame {
         }
     }
 
-    /**
-     * Adiciona um número sorteado à lista visual
-     * O último número aparece em destaque (negrito)
-     */
-    private void adicionarNumeroSorteado(int numero) {
-        // Remove destaque do número anterior
-        if (!rotulosNumerosSorteados.isEmpty()) {
-            JLabel ultimoRotulo = rotulosNumerosSorteados.get(rotulosNumerosSorteados.size() - 1);
-            ultimoRotulo.setFont(new Font("Arial", Font.PLAIN, 14));
-        }
-        
-        // Criar novo rótulo para o número actual
-        JLabel rotuloNumero = new JLabel(String.valueOf(numero));
-        rotuloNumero.setFont(new Font("Arial", Font.BOLD, 16));
-        rotuloNumero.setHorizontalAlignment(SwingConstants.CENTER);
-        rotuloNumero.setBorder(BorderFactory.createEmptyBorder(3, 8, 3, 8));
-        
-        rotulosNumerosSorteados.add(rotuloNumero);
-        painelNumerosSorteados.add(rotuloNumero);
-        
-        SwingUtilities.invokeLater(() -> {
-            painelNumerosSorteados.revalidate();
-            painelNumerosSorteados.repaint();
-            
-            // Garantir que o scroll vai para o final
-            JScrollBar vertical = painelDeslizante.getVerticalScrollBar();
-            vertical.setValue(vertical.getMaximum());
-            
-            rotuloNumero.scrollRectToVisible(rotuloNumero.getBounds());
-        });
-    }
-
     /**
      * Desactiva todos os botões quando o jogo termina
      */
     private void desactivarBotoes() {
+        tokenSessao = null; // Jogo acabado: já não há cartão a que voltar
         botaoLinha.setEnabled(false);
         botaoBingo.setEnabled(false);
         for (JButton botao : botoesCartao) {
@@ -483,12 +703,18 @@ public class BingoClient extends JFrame {
     }
 
     /**
-     * Envia uma mensagem para o servidor
+     * Envia uma mensagem para o servidor, no protocolo negociado
      */
     private void enviarMensagem(String mensagem) {
         if (saida != null && ligado) {
-            saida.println(mensagem);
-            System.out.println("Enviado para servidor: " + mensagem);
+            try {
+                saida.write(binario ? ProtocoloBinario.codificarPedido(mensagem)
+                                    : (mensagem + "\n").getBytes(StandardCharsets.UTF_8));
+                saida.flush();
+                System.out.println("Enviado para servidor: " + mensagem);
+            } catch (IOException e) {
+                System.err.println("Erro ao enviar mensagem: " + e.getMessage());
+            }
         }
     }
 
@@ -514,8 +740,12 @@ public class BingoClient extends JFrame {
 
     /**
      * Método principal - inicia a aplicação cliente
+     * Com o argumento --binario usa o protocolo binário (equivalente a -Dbingo.binario=true)
      */
     public static void main(String[] args) {
+        if (Arrays.asList(args).contains("--binario")) {
+            System.setProperty("bingo.binario", "true");
+        }
         SwingUtilities.invokeLater(() -> {
             try {
                 UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
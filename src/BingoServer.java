@@ -4,431 +4,673 @@
  */
 import java.io.*;
 import java.net.*;
+import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
- * Servidor de Bingo que gere múltiplos clientes e coordena o jogo
- * Implementa as funcionalidades principais do jogo de bingo multijogador
+ * Servidor de Bingo que gere múltiplas salas de jogo em simultâneo
+ * Cada sala tem o seu próprio estado e trinco; o servidor apenas aceita ligações
+ * e distribui os clientes pelas salas
  */
 public class BingoServer {
     // Constantes de configuração do servidor
     private static final int PORTA = 12345;
-    private static final int MAX_JOGADORES = 10;
-    private static final int MIN_JOGADORES = 2;
-    private static final int INTERVALO_SORTEIO = 10000; // 10 segundos conforme solicitado
+    private static final int MAX_SALAS = 10000;
+    private static final int TICK_RODA_MS = 10;       // Resolução dos sorteios agendados
+    private static final int POSICOES_RODA = 1024;    // Com ticks de 10 ms a roda cobre 10,24 s, o intervalo de sorteio por omissão
+    private static final String ERRO_SEM_ESPECTADORES = "ERRO:Este servidor não tem espectadores.";
+
+    /**
+     * Modos de transporte disponíveis para as ligações dos clientes
+     */
+    public enum ModoTransporte {
+        BLOQUEANTE, // Uma thread por cliente com sockets bloqueantes
+        NIO,        // Poucos ciclos de eventos com selectores não bloqueantes
+        VIRTUAL     // Uma thread virtual por cliente com sockets bloqueantes
+    }
 
     // Componentes principais do servidor
+    private final ModoTransporte modo;
+    private final int porta;
     private ServerSocket socketServidor;
-    private List<ClientHandler> clientes;
-    private Set<Integer> numerosSorteados;
-    private List<Integer> historicoPorNum;
-    private boolean jogoIniciado;
-    private boolean jogoTerminado;
-    private Timer temporizadorSorteio;
-    private Random aleatorio;
+    private TransporteNio transporteNio;
+    private final ConcurrentHashMap<String, Sala> salas;
+    private final AtomicLong contadorSalas;
+    private final AtomicLong contadorJogos; // Numera os jogos deste servidor (um identificador de sala pode voltar a ser usado)
+    private volatile Sala salaEmEspera; // Sala que recebe os novos clientes
+    private final ReentrantLock trincoSalaEmEspera = new ReentrantLock(); // Só para abrir a sala em espera seguinte
+    private final ConcurrentHashMap<String, Sala> sessoes; // Token de sessão -> sala do cartão
+    private final SecureRandom geradorTokens;
+    private final ThreadFactory fabricaThreadsClientes; // Threads de leitura e escrita de cada cliente
+
+    // Configuração do sorteio: -Dbingo.semente=N repete os jogos, -Dbingo.sorteio.seguro=true usa SecureRandom
+    private final long sementeSorteio;
+    private final boolean sorteioSeguro;
+    private final GeradorCartoes geradorCartoes; // Reserva de cartões partilhada por todas as salas
+
+    // Padrões de vitória: -Dbingo.padroes.linha=... e -Dbingo.padroes.bingo=..., ou por sala com o sufixo .idSala
+    private final PadroesVitoria padroesLinha;
+    private final PadroesVitoria padroesBingo;
+
+    // Ritmo do sorteio em milissegundos: -Dbingo.sorteio.intervalo=... e -Dbingo.sorteio.atraso=..., ou por sala com o sufixo .idSala
+    private final long intervaloSorteio;
+    private final long atrasoPrimeiroSorteio;
+    private final long intervaloSorteioTurbo;   // Por omissão das salas turbo
+    private final long atrasoPrimeiroSorteioTurbo;
+    private final Metricas metricas;
+    private final DiarioJogos diario; // Diário dos jogos em curso (-Dbingo.diario=ficheiro)
+    private final DifusaoEspectadores espectadores; // null sem espectadores (-Dbingo.espectadores=grupoBase:porta)
+    private final NoCluster cluster; // null fora de um cluster (-Dbingo.cluster.dir=diretoria)
+    private final String prefixoSalas; // Prefixo das salas abertas por este servidor (inclui o nó num cluster)
+
+    // Sorteios de todas as salas: uma roda de temporizadores entrega-os a um executor
+    // (threads virtuais no modo VIRTUAL, um pequeno conjunto de threads de plataforma nos outros)
+    private final ExecutorService executorTarefas;
+    private final RodaTemporizadores rodaSorteios;
 
     /**
-     * Construtor - Inicializa todas as estruturas de dados do servidor
+     * Construtor - Inicializa o servidor no modo bloqueante clássico
      */
     public BingoServer() {
-        clientes = Collections.synchronizedList(new ArrayList<>());
-        numerosSorteados = Collections.synchronizedSet(new HashSet<>());
-        historicoPorNum = Collections.synchronizedList(new ArrayList<>());
-        jogoIniciado = false;
-        jogoTerminado = false;
-        aleatorio = new Random();
+        this(ModoTransporte.BLOQUEANTE);
     }
 
     /**
-     * Retorna uma cópia dos números sorteados para evitar modificações externas
+     * Construtor - Inicializa todas as estruturas de dados do servidor
+     * @param modo - Modo de transporte usado para as ligações dos clientes
      */
-    public Set<Integer> obterNumerosSorteados() {
-        return new HashSet<>(numerosSorteados);
+    public BingoServer(ModoTransporte modo) {
+        this(modo, Integer.getInteger("bingo.porta", PORTA));
+    }
+
+    /**
+     * Construtor - Inicializa todas as estruturas de dados do servidor
+     * @param modo - Modo de transporte usado para as ligações dos clientes
+     * @param porta - Porta TCP onde aceitar ligações
+     */
+    public BingoServer(ModoTransporte modo, int porta) {
+        this.modo = modo;
+        this.porta = porta;
+        salas = new ConcurrentHashMap<>();
+        contadorSalas = new AtomicLong();
+        contadorJogos = new AtomicLong();
+        sessoes = new ConcurrentHashMap<>();
+        geradorTokens = new SecureRandom();
+        sementeSorteio = Long.getLong("bingo.semente", new SecureRandom().nextLong());
+        sorteioSeguro = Boolean.getBoolean("bingo.sorteio.seguro");
+        padroesLinha = PadroesVitoria.de(System.getProperty("bingo.padroes.linha", PadroesVitoria.LINHA_CLASSICA.toString()));
+        padroesBingo = PadroesVitoria.de(System.getProperty("bingo.padroes.bingo", PadroesVitoria.BINGO_CLASSICO.toString()));
+        intervaloSorteio = milissegundosDaSala("bingo.sorteio.intervalo", Sala.INTERVALO_SORTEIO);
+        atrasoPrimeiroSorteio = milissegundosDaSala("bingo.sorteio.atraso", Sala.ATRASO_PRIMEIRO_SORTEIO);
+        intervaloSorteioTurbo = milissegundosDaSala("bingo.sorteio.intervalo.turbo", Sala.INTERVALO_SORTEIO_TURBO);
+        atrasoPrimeiroSorteioTurbo = milissegundosDaSala("bingo.sorteio.atraso.turbo", Sala.ATRASO_PRIMEIRO_SORTEIO_TURBO);
+        geradorCartoes = new GeradorCartoes(GeradorCartoes.CAPACIDADE_RESERVA);
+        metricas = new Metricas(this);
+        diario = abrirDiario();
+        espectadores = abrirDifusaoEspectadores(metricas);
+        cluster = entrarNoCluster(porta);
+        prefixoSalas = cluster != null ? cluster.obterIdNo() + "-sala-" : "sala-";
+        fabricaThreadsClientes = modo == ModoTransporte.VIRTUAL
+                ? Thread.ofVirtual().name("cliente-", 1).factory()
+                : Thread.ofPlatform().name("cliente-", 1).daemon(true).factory();
+
+        // Uma única thread dispara os sorteios de todas as salas; o trabalho corre no executor
+        executorTarefas = modo == ModoTransporte.VIRTUAL
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                        Thread.ofPlatform().name("sorteio-", 1).daemon(true).factory());
+        rodaSorteios = new RodaTemporizadores("roda-sorteios", TICK_RODA_MS, POSICOES_RODA, executorTarefas);
     }
 
     /**
      * Método principal que inicia o servidor e aceita ligações de clientes
      */
     public void iniciar() {
+        if (modo == ModoTransporte.NIO) {
+            iniciarNio();
+            return;
+        }
         try {
-            socketServidor = new ServerSocket(PORTA);
-            System.out.println("Servidor de Bingo iniciado na porta " + PORTA);
-            System.out.println("À espera de jogadores... (mínimo: " + MIN_JOGADORES + ", máximo: " + MAX_JOGADORES + ")");
+            socketServidor = new ServerSocket(porta);
+            metricas.publicar(porta);
+            Registo.info("Servidor de Bingo iniciado na porta " + porta + " (modo " + modo.name().toLowerCase() + ")");
+            Registo.info(descreverSorteio());
+            retomarJogos();
+            if (cluster != null) cluster.iniciar();
+            Registo.info("À espera de jogadores... (por sala: mínimo " + Sala.MIN_JOGADORES
+                    + ", máximo " + Sala.MAX_JOGADORES + "; até " + MAX_SALAS + " salas)");
 
             // Loop principal para aceitar ligações
             while (!socketServidor.isClosed()) {
                 try {
                     Socket socketCliente = socketServidor.accept();
-                    System.out.println("Novo cliente ligado: " + socketCliente.getInetAddress());
-
-                    // Verificações de segurança antes de aceitar o cliente
-                    synchronized (this) {
-                        // Verifica se o servidor não está lotado
-                        if (clientes.size() >= MAX_JOGADORES) {
-                            System.out.println("Servidor lotado. A rejeitar ligação de " + socketCliente.getInetAddress());
-                            PrintWriter saida = new PrintWriter(socketCliente.getOutputStream(), true);
-                            saida.println("ERRO:Servidor lotado. Tente novamente mais tarde.");
-                            socketCliente.close();
-                            continue;
-                        }
-
-                        // Verifica se o jogo já não começou
-                        if (jogoIniciado) {
-                            System.out.println("Jogo já iniciado. A rejeitar ligação de " + socketCliente.getInetAddress());
-                            PrintWriter saida = new PrintWriter(socketCliente.getOutputStream(), true);
-                            saida.println("ERRO:Jogo já em andamento. Tente novamente mais tarde.");
-                            socketCliente.close();
-                            continue;
-                        }
-                    }
+                    Registo.depuracao(() -> "Novo cliente ligado: " + socketCliente.getInetAddress());
 
-                    // Cria e inicia um gestor para o novo cliente
+                    // Cria um gestor para o novo cliente; só ocupa um lugar numa sala com a primeira
+                    // mensagem de jogador (as ligações de espectadores nunca ocupam)
                     ClientHandler gestorCliente = new ClientHandler(socketCliente, this);
-                    synchronized (this) {
-                        clientes.add(gestorCliente);
-                    }
-                    new Thread(gestorCliente).start();
+                    iniciarThreadCliente(gestorCliente);
                 } catch (IOException e) {
                     if (!socketServidor.isClosed()) {
-                        System.err.println("Erro ao aceitar ligação: " + e.getMessage());
+                        Registo.erro("Erro ao aceitar ligação: " + e.getMessage());
                     }
                 }
             }
         } catch (IOException e) {
-            System.err.println("Erro ao iniciar servidor: " + e.getMessage());
+            Registo.erro("Erro ao iniciar servidor: " + e.getMessage());
         } finally {
             pararServidor();
         }
     }
 
     /**
-     * Gera um cartão de bingo com 25 números únicos entre 1 e 99
+     * Inicia o servidor com o transporte NIO (ciclos de eventos em vez de uma thread por cliente)
      */
-    public synchronized int[] gerarCartao() {
-        Set<Integer> numerosCartao = new LinkedHashSet<>();
-        while (numerosCartao.size() < 25) {
-            numerosCartao.add(aleatorio.nextInt(99) + 1); // Números de 1 a 99
+    private void iniciarNio() {
+        int numCiclos = Runtime.getRuntime().availableProcessors();
+        transporteNio = new TransporteNio(this, porta, numCiclos);
+        try {
+            metricas.publicar(porta);
+            Registo.info("Servidor de Bingo iniciado na porta " + porta + " (modo nio)");
+            Registo.info(descreverSorteio());
+            retomarJogos();
+            if (cluster != null) cluster.iniciar();
+            Registo.info("À espera de jogadores... (por sala: mínimo " + Sala.MIN_JOGADORES
+                    + ", máximo " + Sala.MAX_JOGADORES + "; até " + MAX_SALAS + " salas)");
+            transporteNio.executar();
+        } catch (IOException e) {
+            Registo.erro("Erro ao iniciar servidor: " + e.getMessage());
+        } finally {
+            pararServidor();
         }
-        return numerosCartao.stream().mapToInt(Integer::intValue).toArray();
     }
 
     /**
-     * Gera um identificador único para cada cartão
+     * Inicia a thread que lê as mensagens de um cliente no modo bloqueante
+     * No modo de threads virtuais cada cliente custa apenas uma thread virtual
      */
-    public synchronized String gerarIdCartao() {
-        return UUID.randomUUID().toString().substring(0, 8);
+    private void iniciarThreadCliente(ClientHandler gestorCliente) {
+        fabricaThreadsClientes.newThread(gestorCliente).start();
     }
 
     /**
-     * Regista um cliente no servidor (já foi adicionado à lista anteriormente)
+     * Obtém as métricas do servidor
      */
-    public synchronized void registarCliente(ClientHandler cliente) {
-        System.out.println("Cliente " + cliente.obterNome() + " registado. Total de clientes: " + clientes.size());
+    public Metricas obterMetricas() {
+        return metricas;
     }
 
     /**
-     * Verifica se todos os jogadores estão prontos para iniciar o jogo
-     * Esta é uma das funções mais importantes do servidor
+     * Obtém o diário onde as salas registam os eventos dos jogos
      */
-    public synchronized void verificarTodosProntos() {
-        // Não faz nada se o jogo já iniciou ou terminou
-        if (jogoIniciado || jogoTerminado) {
-            return;
-        }
+    public DiarioJogos obterDiario() {
+        return diario;
+    }
 
-        // Verifica se temos jogadores suficientes
-        if (clientes.size() < MIN_JOGADORES) {
-            System.out.println("A aguardar mais jogadores. Atual: " + clientes.size() + "/" + MIN_JOGADORES);
-            return;
-        }
+    /**
+     * Obtém as salas abertas (vista viva, percorrível sem trinco)
+     */
+    public Collection<Sala> obterSalas() {
+        return salas.values();
+    }
 
-        // Conta quantos jogadores estão prontos
-        int jogadoresProntos = 0;
-        for (ClientHandler cliente : clientes) {
-            if (cliente.estaPronto()) {
-                jogadoresProntos++;
-            }
-        }
+    /**
+     * Obtém o gerador de cartões e identificadores partilhado pelas salas
+     */
+    public GeradorCartoes obterGeradorCartoes() {
+        return geradorCartoes;
+    }
 
-        System.out.println("Jogadores prontos: " + jogadoresProntos + "/" + clientes.size());
+    /**
+     * Obtém a fábrica das threads de cada cliente (virtuais no modo VIRTUAL, de plataforma nos outros)
+     */
+    public ThreadFactory obterFabricaThreadsClientes() {
+        return fabricaThreadsClientes;
+    }
 
-        // Inicia o jogo se todos estiverem prontos e temos o mínimo necessário
-        if (jogadoresProntos >= MIN_JOGADORES && jogadoresProntos == clientes.size()) {
-            iniciarJogo();
-        }
+    /**
+     * Obtém a roda de temporizadores que agenda os sorteios de todas as salas
+     */
+    public RodaTemporizadores obterRodaSorteios() {
+        return rodaSorteios;
     }
 
     /**
-     * Inicia efetivamente o jogo de bingo
-     * Configura o temporizador para sorteio automático dos números
+     * Executa uma tarefa de jogo fora da thread de quem a pede
+     * No modo de threads virtuais cada tarefa corre numa thread virtual nova
      */
-    private void iniciarJogo() {
-        jogoIniciado = true;
-        System.out.println("Todos os jogadores estão prontos! O jogo vai começar.");
-        enviarMensagemTodos("JOGO_INICIADO:O jogo começou! Boa sorte!");
+    public void executarTarefa(Runnable tarefa) {
+        executorTarefas.execute(tarefa);
+    }
 
-        // Configura o temporizador para sorteio automático
-        // Primeira chamada após 5 segundos, depois a cada 10 segundos
-        temporizadorSorteio = new Timer();
-        temporizadorSorteio.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                if (!jogoTerminado) {
-                    sortearNumero();
-                } else {
-                    this.cancel();
-                }
-            }
-        }, 5000, INTERVALO_SORTEIO);
+    /**
+     * Obtém o intervalo entre sorteios de uma sala (-Dbingo.sorteio.intervalo.idSala, ou o do servidor
+     * para o tipo da sala); nunca é menor do que um tick da roda de sorteios
+     */
+    public long obterIntervaloSorteio(String idSala) {
+        long porOmissao = Sala.Tipo.daSala(idSala) == Sala.Tipo.TURBO ? intervaloSorteioTurbo : intervaloSorteio;
+        return Math.max(TICK_RODA_MS, milissegundosDaSala("bingo.sorteio.intervalo." + idSala, porOmissao));
     }
 
     /**
-     * Sorteia um número aleatório que ainda não foi sorteado
-     * Envia o número para todos os clientes ligados
+     * Obtém o atraso até ao primeiro sorteio de uma sala (-Dbingo.sorteio.atraso.idSala, ou o do servidor
+     * para o tipo da sala)
      */
-    private synchronized void sortearNumero() {
-        if (jogoTerminado) return;
+    public long obterAtrasoPrimeiroSorteio(String idSala) {
+        long porOmissao = Sala.Tipo.daSala(idSala) == Sala.Tipo.TURBO ? atrasoPrimeiroSorteioTurbo : atrasoPrimeiroSorteio;
+        return milissegundosDaSala("bingo.sorteio.atraso." + idSala, porOmissao);
+    }
 
-        // Verifica se todos os números já foram sorteados
-        if (numerosSorteados.size() >= 99) {
-            enviarMensagemTodos("FIM_DE_JOGO:Todos os números foram sorteados. Ninguém fez BINGO.");
-            terminarJogo("Todos os números sorteados");
-            return;
+    private static long milissegundosDaSala(String propriedade, long porOmissao) {
+        Long valor = Long.getLong(propriedade);
+        if (valor == null) {
+            return porOmissao;
         }
-
-        // Sorteia um número que ainda não foi sorteado
-        int numeroSorteado;
-        do {
-            numeroSorteado = aleatorio.nextInt(99) + 1;
-        } while (numerosSorteados.contains(numeroSorteado));
-
-        // Regista o número sorteado
-        numerosSorteados.add(numeroSorteado);
-        historicoPorNum.add(numeroSorteado);
-        
-        System.out.println("Número sorteado: " + numeroSorteado + " (Total sorteados: " + numerosSorteados.size() + ")");
-        enviarMensagemTodos("NUMERO_SORTEADO:" + numeroSorteado);
+        if (valor <= 0) {
+            Registo.aviso("Valor inválido para " + propriedade + ": " + valor + ". A usar " + porOmissao + " ms");
+            return porOmissao;
+        }
+        return valor;
     }
 
     /**
-     * Processa um pedido de linha de um jogador
-     * Valida se o jogador realmente completou uma linha
+     * Suspende os sorteios de uma sala (por exemplo a partir da consola JMX)
+     * @return descrição do resultado
      */
-    public synchronized void processarLinha(ClientHandler cliente) {
-        // Verificações básicas de estado do jogo
-        if (jogoTerminado) {
-            cliente.enviarMensagem("ERRO:O jogo já terminou.");
-            return;
+    public String pausarSala(String idSala) {
+        Sala sala = salas.get(idSala);
+        if (sala == null) {
+            return "Sala " + idSala + " não existe";
         }
+        return sala.pausarSorteios() ? "Sorteios de " + idSala + " pausados" : "Sala " + idSala + " não tem sorteios ativos";
+    }
 
-        if (!jogoIniciado) {
-            cliente.enviarMensagem("ERRO:O jogo ainda não começou.");
-            return;
+    /**
+     * Retoma os sorteios de uma sala pausada
+     * @return descrição do resultado
+     */
+    public String retomarSala(String idSala) {
+        Sala sala = salas.get(idSala);
+        if (sala == null) {
+            return "Sala " + idSala + " não existe";
         }
+        return sala.retomarSorteios() ? "Sorteios de " + idSala + " retomados" : "Sala " + idSala + " não está pausada";
+    }
 
-        System.out.println("A processar pedido de LINHA de " + cliente.obterNome());
-        
-        // Valida a linha do jogador
-        if (validarLinha(cliente.obterCartao(), cliente.obterNumerosMarados(), numerosSorteados)) {
-            System.out.println("LINHA VÁLIDA para " + cliente.obterNome());
-            enviarMensagemTodos("LINHA_VALIDA:" + cliente.obterNome());
-        } else {
-            System.out.println("LINHA INVÁLIDA para " + cliente.obterNome());
-            cliente.enviarMensagem("LINHA_INVALIDA");
+    /**
+     * Gera o identificador de um jogo novo numa sala: o identificador da sala e o número do jogo no servidor
+     * Uma sala recriada com o mesmo identificador (SALA:x, turbo-*, instantanea-*) tem assim outro baralho
+     */
+    public String gerarIdJogo(String idSala) {
+        return idSala + "#" + contadorJogos.incrementAndGet();
+    }
+
+    /**
+     * Cria a fonte de sorteio de um jogo
+     * Por omissão o baralho é reprodutível a partir da semente do servidor e do identificador do jogo
+     * @param idJogo - Identificador do jogo, obtido com gerarIdJogo
+     */
+    public FonteSorteio criarFonteSorteio(String idJogo) {
+        if (sorteioSeguro) {
+            return BaralhoSorteio.criptografico();
         }
+        return new BaralhoSorteio(BaralhoSorteio.sementeJogo(sementeSorteio, idJogo));
     }
 
     /**
-     * Processa um pedido de bingo de um jogador
-     * Valida se o jogador completou todo o cartão
+     * Abre o diário configurado; se não for possível, o servidor continua sem diário
      */
-    public synchronized void processarBingo(ClientHandler cliente) {
-        // Verificações básicas de estado do jogo
-        if (jogoTerminado) {
-            cliente.enviarMensagem("ERRO:O jogo já terminou.");
-            return;
+    private static DiarioJogos abrirDiario() {
+        try {
+            DiarioJogos aberto = DiarioJogos.doSistema();
+            if (aberto.estaLigado()) {
+                Registo.info("Diário de jogos em " + aberto.obterFicheiro());
+            }
+            return aberto;
+        } catch (IOException e) {
+            Registo.erro("Erro ao abrir o diário de jogos: " + e.getMessage() + ". A continuar sem diário.");
+            return DiarioJogos.desligado();
         }
+    }
 
-        if (!jogoIniciado) {
-            cliente.enviarMensagem("ERRO:O jogo ainda não começou.");
-            return;
+    /**
+     * Abre a difusão para espectadores configurada; se não for possível, o servidor continua sem espectadores
+     */
+    private static DifusaoEspectadores abrirDifusaoEspectadores(Metricas metricas) {
+        try {
+            DifusaoEspectadores aberta = DifusaoEspectadores.doSistema(metricas);
+            if (aberta != null) {
+                Registo.info("Espectadores por multicast em " + System.getProperty("bingo.espectadores"));
+            }
+            return aberta;
+        } catch (IOException | RuntimeException e) {
+            Registo.erro("Erro ao abrir a difusão para espectadores: " + e.getMessage() + ". A continuar sem espectadores.");
+            return null;
         }
+    }
 
-        System.out.println("A processar pedido de BINGO de " + cliente.obterNome());
-        
-        // Valida o bingo do jogador
-        if (validarBingo(cliente.obterCartao(), cliente.obterNumerosMarados(), numerosSorteados)) {
-            System.out.println("BINGO VÁLIDO para " + cliente.obterNome());
-            cliente.enviarMensagem("BINGO_VALIDO");
-            enviarMensagemParaOutros("BINGO_OUTROS:" + cliente.obterNome(), cliente);
-            terminarJogo("Bingo feito por " + cliente.obterNome());
-        } else {
-            System.out.println("BINGO INVÁLIDO para " + cliente.obterNome());
-            cliente.enviarMensagem("BINGO_INVALIDO");
+    /**
+     * Obtém a difusão para espectadores (null se não estiver ativada)
+     */
+    public DifusaoEspectadores obterDifusaoEspectadores() {
+        return espectadores;
+    }
+
+    /**
+     * Junta o servidor ao cluster configurado; se o registo não estiver acessível, o servidor continua sozinho
+     */
+    private NoCluster entrarNoCluster(int porta) {
+        try {
+            return NoCluster.doSistema(this, porta);
+        } catch (IOException e) {
+            Registo.erro("Erro ao abrir o registo do cluster: " + e.getMessage() + ". A continuar fora do cluster.");
+            return null;
         }
     }
 
     /**
-     * Valida se o jogador fez uma linha válida
-     * Verifica linhas horizontais e verticais
-     * Todos os números da linha devem estar marcados E ter sido sorteados
+     * Drena as salas ainda não começadas que o anel do cluster atribui agora a outro nó
+     * As salas abertas por este servidor para os clientes que chegam sem sala escolhida ficam sempre aqui
      */
-    private boolean validarLinha(int[] cartao, Set<Integer> numerosMarados, Set<Integer> numerosSorteadosNoJogo) {
-        // Verifica linhas horizontais (5 linhas de 5 números cada)
-        for (int linha = 0; linha < 5; linha++) {
-            boolean linhaCompleta = true;
-            for (int coluna = 0; coluna < 5; coluna++) {
-                int indice = linha * 5 + coluna;
-                int numeroNoCartao = cartao[indice];
-                
-                // Verifica se o número está marcado pelo jogador E foi sorteado
-                if (!numerosMarados.contains(numeroNoCartao) || !numerosSorteadosNoJogo.contains(numeroNoCartao)) {
-                    linhaCompleta = false;
-                    break;
-                }
-            }
-            if (linhaCompleta) {
-                System.out.println("Linha horizontal " + (linha + 1) + " completa!");
-                return true;
+    public void drenarSalasAlheias() {
+        for (Sala sala : salas.values()) {
+            String idSala = sala.obterId();
+            if (!idSala.startsWith(prefixoSalas) && !cluster.ehDono(idSala) && sala.drenar()) {
+                Registo.info("Sala " + idSala + " drenada: passou para outro nó do cluster");
             }
         }
+    }
 
-        // Verifica linhas verticais (5 colunas de 5 números cada)
-        for (int coluna = 0; coluna < 5; coluna++) {
-            boolean colunaCompleta = true;
-            for (int linha = 0; linha < 5; linha++) {
-                int indice = linha * 5 + coluna;
-                int numeroNoCartao = cartao[indice];
-                
-                // Verifica se o número está marcado pelo jogador E foi sorteado
-                if (!numerosMarados.contains(numeroNoCartao) || !numerosSorteadosNoJogo.contains(numeroNoCartao)) {
-                    colunaCompleta = false;
-                    break;
+    /**
+     * Recria as salas cujos jogos ficaram por terminar e retoma o seu sorteio
+     * Os novos identificadores de sala e de jogo continuam a seguir aos dos jogos retomados
+     */
+    private void retomarJogos() {
+        for (DiarioJogos.JogoRecuperado jogo : diario.obterJogosRecuperados()) {
+            Sala sala = new Sala(jogo.idSala, this);
+            salas.put(jogo.idSala, sala);
+            if (jogo.idSala.startsWith(prefixoSalas)) {
+                try {
+                    long numero = Long.parseLong(jogo.idSala.substring(prefixoSalas.length()));
+                    contadorSalas.accumulateAndGet(numero, Math::max);
+                } catch (NumberFormatException e) {
+                    // Sala com nome escolhido pelos jogadores: não afeta a numeração
                 }
             }
-            if (colunaCompleta) {
-                System.out.println("Linha vertical " + (coluna + 1) + " completa!");
-                return true;
+            int separador = jogo.idJogo.lastIndexOf('#');
+            if (separador >= 0) {
+                try {
+                    contadorJogos.accumulateAndGet(Long.parseLong(jogo.idJogo.substring(separador + 1)), Math::max);
+                } catch (NumberFormatException e) {
+                    // Identificador sem número de jogo: não afeta a numeração
+                }
             }
+            sala.retomarJogo(jogo);
         }
+    }
 
-        return false;
+    private String descreverSorteio() {
+        return sorteioSeguro ? "Sorteio criptográfico (não reprodutível)"
+                : "Sorteio reprodutível com semente " + sementeSorteio + " (-Dbingo.semente=" + sementeSorteio + ")";
     }
 
     /**
-     * Valida se o jogador fez bingo válido
-     * TODOS os 25 números do cartão devem estar marcados E ter sido sorteados
+     * Obtém os padrões que valem LINHA numa sala (-Dbingo.padroes.linha.idSala, ou os do servidor)
      */
-    private boolean validarBingo(int[] cartao, Set<Integer> numerosMarados, Set<Integer> numerosSorteadosNoJogo) {
-        for (int numeroNoCartao : cartao) {
-            // Verifica se TODOS os números estão marcados pelo jogador E foram sorteados
-            if (!numerosMarados.contains(numeroNoCartao) || !numerosSorteadosNoJogo.contains(numeroNoCartao)) {
-                return false;
-            }
+    public PadroesVitoria obterPadroesLinha(String idSala) {
+        return padroesDaSala("bingo.padroes.linha." + idSala, padroesLinha);
+    }
+
+    /**
+     * Obtém os padrões que valem BINGO numa sala (-Dbingo.padroes.bingo.idSala, ou os do servidor)
+     */
+    public PadroesVitoria obterPadroesBingo(String idSala) {
+        return padroesDaSala("bingo.padroes.bingo." + idSala, padroesBingo);
+    }
+
+    private static PadroesVitoria padroesDaSala(String propriedade, PadroesVitoria porOmissao) {
+        String especificacao = System.getProperty(propriedade);
+        if (especificacao == null) {
+            return porOmissao;
+        }
+        try {
+            return PadroesVitoria.de(especificacao);
+        } catch (IllegalArgumentException e) {
+            Registo.aviso(e.getMessage() + " (" + propriedade + "). A usar " + porOmissao);
+            return porOmissao;
         }
-        return true;
     }
 
     /**
-     * Envia uma mensagem para todos os clientes ligados
+     * Coloca um cliente na sala em espera, sem esperar pela sala (na sua primeira mensagem de jogador)
+     * Se a sala em espera estiver lotada ou já tiver começado, abre uma nova sala e tenta de novo;
+     * se o servidor já tiver o número máximo de salas, a ligação é recusada
      */
-    public synchronized void enviarMensagemTodos(String mensagem) {
-        List<ClientHandler> clientesCopia = new ArrayList<>(clientes);
-        for (ClientHandler cliente : clientesCopia) {
-            try {
-                cliente.enviarMensagem(mensagem);
-            } catch (Exception e) {
-                System.err.println("Erro ao enviar mensagem para cliente: " + e.getMessage());
+    public void colocarEmSalaDisponivel(ClientHandler cliente) {
+        Sala sala = salaEmEspera;
+        colocarEmSala(cliente, sala != null ? sala : abrirSalaEmEspera(null));
+    }
+
+    private void colocarEmSala(ClientHandler cliente, Sala sala) {
+        if (sala == null) {
+            Registo.info("Servidor lotado. A rejeitar ligação.");
+            metricas.registarRejeicaoLotado();
+            cliente.enviarMensagem(Sala.ERRO_LOTADA);
+            cliente.fecharLigacaoDoServidor();
+            return;
+        }
+        sala.adicionarCliente(cliente, false, erro -> {
+            if (erro == null) {
+                metricas.registarLigacaoAceite();
+                cliente.salaAtribuida(sala);
+            } else {
+                colocarEmSala(cliente, abrirSalaEmEspera(sala));
+            }
+        });
+    }
+
+    /**
+     * Obtém a sala em espera depois de uma sala ter recusado um cliente, abrindo uma nova se ainda for essa
+     * Várias recusas da mesma sala abrem uma só sala nova
+     * @param recusou - Sala que recusou o cliente (null se ainda não havia sala em espera)
+     * @return sala em espera, ou null se o servidor já atingiu o número máximo de salas
+     */
+    private Sala abrirSalaEmEspera(Sala recusou) {
+        trincoSalaEmEspera.lock();
+        try {
+            Sala atual = salaEmEspera;
+            if (atual != null && atual != recusou) {
+                return atual;
             }
+            if (salas.size() >= MAX_SALAS) {
+                return null;
+            }
+            Sala novaSala = new Sala(prefixoSalas + contadorSalas.incrementAndGet(), this);
+            salas.put(novaSala.obterId(), novaSala);
+            salaEmEspera = novaSala;
+            Registo.info("Nova sala aberta: " + novaSala.obterId() + " (Total de salas: " + salas.size() + ")");
+            return novaSala;
+        } finally {
+            trincoSalaEmEspera.unlock();
         }
     }
 
     /**
-     * Envia uma mensagem para todos os clientes exceto um específico
+     * Muda um cliente para uma sala específica, criando-a se ainda não existir
+     * Usado pelo comando SALA:id antes de o jogador estar pronto
+     * @param resposta - Recebe null se a mudança foi feita, ou a mensagem de erro a enviar ao cliente
+     *                   (no escritor da sala de destino, ou logo, se o pedido for recusado antes de lá chegar)
      */
-    public synchronized void enviarMensagemParaOutros(String mensagem, ClientHandler excluir) {
-        List<ClientHandler> clientesCopia = new ArrayList<>(clientes);
-        for (ClientHandler cliente : clientesCopia) {
-            if (cliente != excluir) {
-                try {
-                    cliente.enviarMensagem(mensagem);
-                } catch (Exception e) {
-                    System.err.println("Erro ao enviar mensagem para cliente: " + e.getMessage());
+    public void mudarDeSala(ClientHandler cliente, String idSala, Consumer<String> resposta) {
+        Sala atual = cliente.obterSala();
+        if (atual != null && atual.obterId().equals(idSala)) {
+            resposta.accept(null);
+            return;
+        }
+        if (!salas.containsKey(idSala) && salas.size() >= MAX_SALAS) {
+            metricas.registarRejeicaoLotado();
+            resposta.accept(Sala.ERRO_LOTADA);
+            return;
+        }
+        Sala destino = salas.computeIfAbsent(idSala, id -> new Sala(id, this));
+        // Quem escolhe a sala pode entrar num jogo já começado
+        destino.adicionarCliente(cliente, true, erro -> {
+            if (erro != null) {
+                if (erro.equals(Sala.ERRO_LOTADA)) {
+                    metricas.registarRejeicaoLotado();
+                } else if (erro.equals(Sala.ERRO_JOGO_EM_CURSO)) {
+                    metricas.registarRejeicaoJogoEmCurso();
+                }
+            } else {
+                if (atual != null) {
+                    atual.removerCliente(cliente);
                 }
+                cliente.definirSala(destino);
             }
+            resposta.accept(erro);
+        });
+    }
+
+    /**
+     * Envia a um espectador o grupo multicast de uma sala e o estado do jogo
+     * @return null se o pedido foi atendido, ou a mensagem de erro a enviar ao cliente
+     */
+    public String espectar(ClientHandler cliente, String idSala) {
+        if (espectadores == null) {
+            return ERRO_SEM_ESPECTADORES;
+        }
+        Sala sala = salas.get(idSala);
+        if (sala == null) {
+            return "ERRO:Sala " + idSala + " não existe.";
         }
+        sala.receberEspectador(cliente); // O escritor da sala responde
+        return null;
     }
 
     /**
-     * Remove um cliente da lista quando se desliga
+     * Repete a um espectador as publicações de uma sala a partir de uma sequência (reparação de buracos)
+     * @return null se o pedido foi entregue à sala (que responde ao espectador), ou a mensagem de erro a enviar ao cliente
      */
-    public synchronized void removerCliente(ClientHandler cliente) {
-        clientes.remove(cliente);
-        System.out.println("Cliente " + (cliente.obterNome() != null ? cliente.obterNome() : "desconhecido") + 
-                          " desligado. Total: " + clientes.size());
-        
-        // Se o jogo não começou e ficamos sem jogadores suficientes, reinicia o estado
-        if (!jogoIniciado && clientes.size() < MIN_JOGADORES) {
-            System.out.println("Não há jogadores suficientes. A aguardar mais ligações...");
+    public String repetirParaEspectador(ClientHandler cliente, String idSala, int desde) {
+        if (espectadores == null) {
+            return ERRO_SEM_ESPECTADORES;
+        }
+        Sala sala = salas.get(idSala);
+        if (sala == null) {
+            return "ERRO:Sala " + idSala + " não existe.";
         }
+        sala.repetirParaEspectador(cliente, desde);
+        return null;
+    }
+
+    /**
+     * Gera um token de sessão imprevisível (128 bits em hexadecimal) para um cartão
+     * Num cluster o token termina em @idNo, para a porta de entrada saber a que nó levar o RECONECTAR
+     */
+    public String gerarTokenSessao() {
+        byte[] bytes = new byte[16];
+        geradorTokens.nextBytes(bytes);
+        String token = HexFormat.of().formatHex(bytes);
+        return cluster != null ? token + "@" + cluster.obterIdNo() : token;
     }
 
     /**
-     * Termina o jogo e limpa os recursos utilizados
+     * Associa um token de sessão à sala onde o cartão foi emitido
      */
-    private void terminarJogo(String razao) {
-        jogoTerminado = true;
-        if (temporizadorSorteio != null) {
-            temporizadorSorteio.cancel();
-            temporizadorSorteio.purge();
-            temporizadorSorteio = null;
+    public void registarSessao(String token, Sala sala) {
+        sessoes.put(token, sala);
+    }
+
+    /**
+     * Leva um cliente de volta à sala e ao cartão de uma sessão anterior
+     * @param resposta - Recebe null se o cliente voltou ao jogo, ou a mensagem de erro a enviar ao cliente
+     *                   (no escritor da sala da sessão, ou logo, se a sessão não existir)
+     */
+    public void reconectar(ClientHandler cliente, String token, Consumer<String> resposta) {
+        Sala destino = sessoes.get(token);
+        if (destino == null) {
+            resposta.accept("ERRO:Sessão inválida ou expirada.");
+            return;
+        }
+        Sala atual = cliente.obterSala();
+        destino.reconectar(cliente, token, erro -> {
+            if (erro == null) {
+                // A sala muda antes de sair da anterior, para que esta não reserve um cartão que não é seu
+                cliente.definirSala(destino);
+                if (atual != null && atual != destino) {
+                    atual.removerCliente(cliente);
+                }
+            }
+            resposta.accept(erro);
+        });
+    }
+
+    /**
+     * Retira uma sala do servidor quando fica vazia, junto com as sessões dos seus cartões
+     */
+    public void removerSala(Sala sala) {
+        for (String token : sala.obterTokensSessao()) {
+            sessoes.remove(token, sala);
+        }
+        if (salas.remove(sala.obterId(), sala)) {
+            Registo.info("Sala " + sala.obterId() + " fechada. Total de salas: " + salas.size());
         }
-        System.out.println("Jogo terminado: " + razao);
     }
 
     /**
-     * Para o servidor de forma controlada, desligando todos os clientes
+     * Para o servidor de forma controlada, desligando todos os clientes de todas as salas
      */
     public void pararServidor() {
-        System.out.println("A parar servidor...");
+        Registo.info("A parar servidor...");
         try {
-            if (temporizadorSorteio != null) {
-                temporizadorSorteio.cancel();
-                temporizadorSorteio.purge();
+            for (Sala sala : salas.values()) {
+                sala.parar();
             }
-            
-            // Informa todos os clientes que o servidor está a parar
-            synchronized (this) {
-                for (ClientHandler cliente : new ArrayList<>(clientes)) {
-                    try {
-                        cliente.enviarMensagem("ERRO:Servidor está a parar. A desligar...");
-                        cliente.fecharLigacaoDoServidor();
-                    } catch (Exception e) {
-                        System.err.println("Erro ao desligar cliente: " + e.getMessage());
-                    }
-                }
-                clientes.clear();
+            salas.clear();
+            sessoes.clear();
+            if (cluster != null) cluster.sair();
+            geradorCartoes.parar();
+            metricas.parar();
+            diario.fechar();
+            if (espectadores != null) espectadores.fechar();
+
+            if (transporteNio != null) {
+                transporteNio.parar();
             }
-            
+            rodaSorteios.parar();
+            executorTarefas.shutdownNow();
             if (socketServidor != null && !socketServidor.isClosed()) {
                 socketServidor.close();
             }
         } catch (IOException e) {
-            System.err.println("Erro ao parar servidor: " + e.getMessage());
+            Registo.erro("Erro ao parar servidor: " + e.getMessage());
         }
-        System.out.println("Servidor parado.");
+        Registo.info("Servidor parado.");
     }
 
     /**
      * Método principal - ponto de entrada da aplicação
+     * Argumento opcional: modo de transporte (bloqueante, nio ou virtual)
      */
     public static void main(String[] args) {
-        BingoServer servidor = new BingoServer();
+        ModoTransporte modo = ModoTransporte.BLOQUEANTE;
+        if (args.length > 0) {
+            try {
+                modo = ModoTransporte.valueOf(args[0].toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Modo desconhecido: " + args[0] + ". Modos disponíveis: bloqueante, nio, virtual");
+                return;
+            }
+        }
+        BingoServer servidor = new BingoServer(modo);
         
         // Adiciona um hook para parar o servidor de forma elegante quando o programa termina
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("\nRecebido sinal de paragem...");
+            Registo.info("\nRecebido sinal de paragem...");
             servidor.pararServidor();
         }));
         
@@ -0,0 +1,38 @@
+import java.io.IOException;
+
+/**
+ * Canal de comunicação com um cliente
+ * Abstrai o transporte usado (sockets bloqueantes ou NIO) e o protocolo negociado (texto ou binário),
+ * para que o ClientHandler e as salas apenas lidem com mensagens
+ */
+public interface CanalCliente {
+    /** Número máximo de mensagens por enviar antes de o cliente ser considerado lento e desligado */
+    int CAPACIDADE_FILA = 256;
+
+    /**
+     * Coloca uma mensagem na fila de saída do cliente, no protocolo que este negociou
+     * Nunca bloqueia: se a fila estiver cheia o cliente é desligado
+     * @param mensagem - Mensagem a enviar
+     */
+    void enviar(Mensagem mensagem);
+
+    /**
+     * Passa a codificar as mensagens com o protocolo binário (o cliente enviou o byte MAGIA)
+     */
+    void ativarProtocoloBinario();
+
+    /**
+     * Fecha a ligação com o cliente depois de enviar as mensagens já em fila
+     */
+    void fechar() throws IOException;
+
+    /**
+     * Obtém o endereço remoto do cliente (para registo)
+     */
+    String obterEndereco();
+
+    /**
+     * Número de mensagens à espera de serem escritas no socket
+     */
+    int obterTamanhoFila();
+}
@@ -0,0 +1,133 @@
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Canal de comunicação sobre um socket bloqueante
+ * As mensagens são colocadas numa fila limitada e escritas por uma thread própria,
+ * que junta várias mensagens num único flush. Assim quem difunde (por exemplo o sorteio)
+ * nunca fica bloqueado num cliente lento; se a fila encher, o cliente é desligado
+ */
+public class CanalSocket implements CanalCliente {
+    private static final int MAX_LOTE = 64;
+    private static final Mensagem FIM = Mensagem.deTexto("FIM"); // Marca de fim de fila (comparada por identidade)
+
+    private final Socket socket;
+    private final OutputStream saida;
+    private final BlockingQueue<Mensagem> fila = new ArrayBlockingQueue<>(CAPACIDADE_FILA);
+    private volatile boolean aberto = true;
+    private volatile boolean binario = false;
+
+    /**
+     * Construtor - Configura o stream de saída do socket (a thread de escrita arranca em abrir)
+     * @param socket - Socket de comunicação com o cliente
+     */
+    private CanalSocket(Socket socket) throws IOException {
+        this.socket = socket;
+        this.saida = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    /**
+     * Cria o canal e arranca a thread de escrita, já com o canal completamente construído
+     * @param socket - Socket de comunicação com o cliente
+     * @param fabricaThreads - Fábrica da thread de escrita (de plataforma ou virtual, conforme o modo)
+     */
+    public static CanalSocket abrir(Socket socket, ThreadFactory fabricaThreads) throws IOException {
+        CanalSocket canal = new CanalSocket(socket);
+        fabricaThreads.newThread(canal::escreverPendentes).start();
+        return canal;
+    }
+
+    @Override
+    public void enviar(Mensagem mensagem) {
+        if (!aberto) return;
+        if (!fila.offer(mensagem)) {
+            Registo.aviso("Cliente lento em " + obterEndereco() + ": fila de saída cheia. A desligar.");
+            abortar();
+        }
+    }
+
+    @Override
+    public void ativarProtocoloBinario() {
+        binario = true;
+    }
+
+    @Override
+    public void fechar() {
+        if (!aberto) return;
+        aberto = false;
+        try {
+            // Acorda a thread de leitura; o socket só fecha depois de escritas as mensagens pendentes
+            socket.shutdownInput();
+        } catch (IOException e) {
+            // O socket já pode estar fechado pelo outro lado
+        }
+        if (!fila.offer(FIM)) {
+            abortar();
+        }
+    }
+
+    @Override
+    public String obterEndereco() {
+        return String.valueOf(socket.getInetAddress());
+    }
+
+    @Override
+    public int obterTamanhoFila() {
+        return fila.size();
+    }
+
+    /**
+     * Fecha o socket de imediato, descartando as mensagens pendentes
+     */
+    private void abortar() {
+        aberto = false;
+        fila.clear();
+        fila.offer(FIM);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Registo.erro("Erro ao fechar socket de " + obterEndereco() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ciclo da thread de escrita: espera por mensagens e escreve-as em lotes com um só flush
+     */
+    private void escreverPendentes() {
+        List<Mensagem> lote = new ArrayList<>(MAX_LOTE);
+        try {
+            boolean terminar = false;
+            while (!terminar) {
+                lote.add(fila.take());
+                fila.drainTo(lote, MAX_LOTE - 1);
+                for (Mensagem mensagem : lote) {
+                    if (mensagem == FIM) {
+                        terminar = true;
+                        break;
+                    }
+                    saida.write(mensagem.bytes(binario));
+                }
+                saida.flush();
+                lote.clear();
+            }
+        } catch (IOException e) {
+            if (aberto) {
+                Registo.erro("Erro ao escrever para " + obterEndereco() + ": " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            aberto = false;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Registo.erro("Erro ao fechar socket de " + obterEndereco() + ": " + e.getMessage());
+            }
+        }
+    }
+}
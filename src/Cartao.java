@@ -0,0 +1,116 @@
+/**
+ * Cartão de bingo 5x5 com as máscaras de bits de cada linha pré-calculadas
+ * As linhas horizontais, as verticais e o cartão completo são validados com
+ * operações AND sobre as palavras de bits de um ConjuntoNumeros
+ */
+public final class Cartao {
+    public static final int LADO = 5;
+    public static final int TAMANHO = LADO * LADO;
+    public static final int NUM_LINHAS = 2 * LADO; // 5 horizontais seguidas de 5 verticais
+
+    private final int[] numeros;
+    private final long[] linhasBaixo = new long[NUM_LINHAS];
+    private final long[] linhasAlto = new long[NUM_LINHAS];
+    private final long todosBaixo;
+    private final long todosAlto;
+
+    /**
+     * Construtor - Cria o cartão e pré-calcula as máscaras das linhas
+     * @param numeros - Os 25 números do cartão, por linhas
+     */
+    public Cartao(int[] numeros) {
+        if (numeros.length != TAMANHO) {
+            throw new IllegalArgumentException("Um cartão tem " + TAMANHO + " números, recebidos " + numeros.length);
+        }
+        this.numeros = numeros.clone();
+
+        ConjuntoNumeros todos = new ConjuntoNumeros();
+        for (int linha = 0; linha < LADO; linha++) {
+            ConjuntoNumeros horizontal = new ConjuntoNumeros();
+            ConjuntoNumeros vertical = new ConjuntoNumeros();
+            for (int coluna = 0; coluna < LADO; coluna++) {
+                horizontal.adicionar(this.numeros[linha * LADO + coluna]);
+                vertical.adicionar(this.numeros[coluna * LADO + linha]);
+            }
+            linhasBaixo[linha] = horizontal.obterBaixo();
+            linhasAlto[linha] = horizontal.obterAlto();
+            linhasBaixo[LADO + linha] = vertical.obterBaixo();
+            linhasAlto[LADO + linha] = vertical.obterAlto();
+        }
+        for (int numero : this.numeros) {
+            todos.adicionar(numero);
+        }
+        todosBaixo = todos.obterBaixo();
+        todosAlto = todos.obterAlto();
+    }
+
+    /**
+     * Obtém o número numa célula do cartão (0 a 24, por linhas)
+     */
+    public int obterNumero(int celula) {
+        return numeros[celula];
+    }
+
+    /**
+     * Obtém uma cópia dos números do cartão
+     */
+    public int[] obterNumeros() {
+        return numeros.clone();
+    }
+
+    /**
+     * Verifica se um número está no cartão, sem percorrer as células
+     */
+    public boolean contem(int numero) {
+        if (numero < 1 || numero > ConjuntoNumeros.MAXIMO) return false;
+        return numero < 64 ? (todosBaixo & (1L << numero)) != 0 : (todosAlto & (1L << (numero - 64))) != 0;
+    }
+
+    /**
+     * Obtém a máscara de bits dos números do cartão entre 1 e 63
+     */
+    public long obterMascaraBaixo() {
+        return todosBaixo;
+    }
+
+    /**
+     * Obtém a máscara de bits dos números do cartão entre 64 e 99
+     */
+    public long obterMascaraAlto() {
+        return todosAlto;
+    }
+
+    /**
+     * Procura a primeira linha completa dado o conjunto de números válidos (marcados E sorteados)
+     * @return 0 a 4 para linhas horizontais, 5 a 9 para verticais, ou -1 se nenhuma estiver completa
+     */
+    public int primeiraLinhaCompleta(long baixo, long alto) {
+        for (int linha = 0; linha < NUM_LINHAS; linha++) {
+            if (ConjuntoNumeros.contemTodos(baixo, alto, linhasBaixo[linha], linhasAlto[linha])) {
+                return linha;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Converte um conjunto de números na máscara de 25 bits das células do cartão que os contêm
+     * (o formato usado pelos padrões de vitória)
+     */
+    public int mascaraCelulas(long baixo, long alto) {
+        int mascara = 0;
+        for (int celula = 0; celula < TAMANHO; celula++) {
+            int numero = numeros[celula];
+            long bit = numero < 64 ? baixo >>> numero : alto >>> (numero - 64);
+            mascara |= (int) (bit & 1) << celula;
+        }
+        return mascara;
+    }
+
+    /**
+     * Verifica se todos os números do cartão estão no conjunto de números válidos
+     */
+    public boolean completo(long baixo, long alto) {
+        return ConjuntoNumeros.contemTodos(baixo, alto, todosBaixo, todosAlto);
+    }
+}
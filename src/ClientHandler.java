@@ -1,7 +1,12 @@
 import java.io.*;
 import java.net.Socket;
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Classe que gere cada cliente ligado ao servidor
@@ -9,58 +14,89 @@ import java.util.Set;
  * Processa as mensagens recebidas do cliente e mantém o estado do jogador
  */
 public class ClientHandler implements Runnable {
+    private static final String ERRO_ESPECTADOR = "ERRO:Ligação de espectador: só aceita ESPECTAR e REPETIR.";
+    private static final int MAX_NOME = 64; // Caracteres do nome de um jogador (vai para o diário com cada cartão)
+
     // Componentes de comunicação
-    private Socket socket;
+    private CanalCliente canal;
     private BingoServer servidor;
-    private BufferedReader entrada;
-    private PrintWriter saida;
+    private volatile Sala sala; // Sala onde o jogador está a jogar (null até à primeira mensagem de jogador)
+    private BufferedInputStream entrada; // Só usado no modo bloqueante (uma thread por cliente)
 
     // Estado do jogador
     private String nome;
-    private String idCartao;
-    private int[] cartao;
+    private String tokenSessao; // Permite voltar ao jogo com RECONECTAR depois de perder a ligação
+    private String[] idsCartoes = new String[0];
+    private int[] indicesCartoes = new int[0]; // Posição de cada cartão no índice da sala (os cartões vivem na sala)
+    private int numCartoes;
+    private long numerosCartoesBaixo; // União dos números de todos os cartões do jogador (1-63)
+    private long numerosCartoesAlto;  // União dos números de todos os cartões do jogador (64-99)
     private boolean pronto;
-    private boolean ligado;
-    private Set<Integer> numerosMarados; // Números que o jogador marcou no seu cartão
+    private volatile boolean espectador; // Só segue salas por multicast: não tem lugar nem cartões
+    private volatile boolean ligado;
+    private ConjuntoNumeros numerosMarados; // Números que o jogador marcou (valem em todos os seus cartões)
+
+    // Mensagens recebidas enquanto a ligação espera pela resposta de uma sala (entrada, cartões ou reconexão),
+    // tratadas pela ordem de chegada quando a resposta chega; só uma thread de cada vez trata mensagens
+    private volatile boolean aguardaSala;
+    private final Deque<Object> adiadas = new ConcurrentLinkedDeque<>(); // Linhas (String) e tramas (byte[])
+    private final AtomicBoolean aTratar = new AtomicBoolean();
 
     /**
-     * Construtor - Inicializa a ligação com um cliente
+     * Construtor - Inicializa a ligação com um cliente no modo bloqueante
      * @param socket - Socket de comunicação com o cliente
      * @param servidor - Referência para o servidor principal
+     * A ligação só ocupa um lugar numa sala quando chegar a primeira mensagem de jogador
      */
     public ClientHandler(Socket socket, BingoServer servidor) {
-        this.socket = socket;
         this.servidor = servidor;
         this.pronto = false;
         this.ligado = true;
-        this.numerosMarados = new HashSet<>();
+        this.numerosMarados = new ConjuntoNumeros();
 
         try {
             // Configura os streams de entrada e saída
-            entrada = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            saida = new PrintWriter(socket.getOutputStream(), true);
+            entrada = new BufferedInputStream(socket.getInputStream());
+            canal = CanalSocket.abrir(socket, servidor.obterFabricaThreadsClientes());
         } catch (IOException e) {
-            System.err.println("Erro ao inicializar streams para cliente: " + e.getMessage());
+            Registo.erro("Erro ao inicializar streams para cliente: " + e.getMessage());
             fecharLigacao();
         }
     }
 
+    /**
+     * Construtor - Inicializa um cliente sobre um canal já estabelecido
+     * Usado pelo transporte NIO, que entrega as linhas recebidas através de receberMensagem
+     * @param canal - Canal de comunicação com o cliente
+     * @param servidor - Referência para o servidor principal
+     */
+    public ClientHandler(CanalCliente canal, BingoServer servidor) {
+        this.canal = canal;
+        this.servidor = servidor;
+        this.pronto = false;
+        this.ligado = true;
+        this.numerosMarados = new ConjuntoNumeros();
+    }
+
     /**
      * Método principal da thread - fica à escuta de mensagens do cliente
-     * Implementa o protocolo de comunicação com o cliente
+     * O primeiro byte decide o protocolo: MAGIA para o binário, qualquer outro para o de texto
      */
     @Override
     public void run() {
         try {
-            String mensagem;
-            // Loop principal para receber mensagens
-            while (ligado && (mensagem = entrada.readLine()) != null) {
-                System.out.println("Recebido de " + (nome != null ? nome : "cliente") + ": " + mensagem);
-                processarMensagem(mensagem);
+            entrada.mark(1);
+            int primeiro = entrada.read();
+            if (primeiro == ProtocoloBinario.MAGIA) {
+                canal.ativarProtocoloBinario();
+                lerTramas(new DataInputStream(entrada));
+            } else if (primeiro >= 0) {
+                entrada.reset();
+                lerLinhas(new BufferedReader(new InputStreamReader(entrada, StandardCharsets.UTF_8)));
             }
         } catch (IOException e) {
             if (ligado) {
-                System.err.println("Erro na comunicação com cliente " + 
+                Registo.erro("Erro na comunicação com cliente " + 
                                  (nome != null ? nome : "desconhecido") + ": " + e.getMessage());
             }
         } finally {
@@ -68,44 +104,234 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    /**
+     * Loop principal para receber mensagens do protocolo de texto
+     */
+    private void lerLinhas(BufferedReader leitor) throws IOException {
+        String mensagem;
+        while (ligado && (mensagem = leitor.readLine()) != null) {
+            receberMensagem(mensagem);
+        }
+    }
+
+    /**
+     * Loop principal para receber tramas do protocolo binário
+     */
+    private void lerTramas(DataInputStream leitor) throws IOException {
+        byte[] trama;
+        while (ligado && (trama = ProtocoloBinario.lerTrama(leitor)) != null) {
+            receberTrama(trama);
+        }
+    }
+
+    /**
+     * Recebe uma linha enviada pelo cliente, qualquer que seja o transporte
+     * @param mensagem - Linha recebida, sem terminador
+     */
+    public void receberMensagem(String mensagem) {
+        if (!ligado) return;
+        Registo.traco(() -> "Recebido de " + (nome != null ? nome : "cliente") + ": " + mensagem);
+        tratarEntrada(mensagem);
+    }
+
+    /**
+     * Recebe uma trama do protocolo binário, qualquer que seja o transporte
+     * @param trama - Código (primeiro byte) e dados da trama
+     */
+    public void receberTrama(byte[] trama) {
+        if (!ligado) return;
+        Registo.traco(() -> "Recebido de " + (nome != null ? nome : "cliente") + ": trama 0x" + Integer.toHexString(trama[0] & 0xFF));
+        tratarEntrada(trama);
+    }
+
+    /**
+     * Trata uma mensagem já, ou adia-a se a ligação estiver à espera de uma sala ou tiver mensagens adiadas
+     * Sem espera, a mensagem é tratada pela thread que a recebeu, sem criar objetos
+     */
+    private void tratarEntrada(Object entrada) {
+        if (!aguardaSala && adiadas.isEmpty() && aTratar.compareAndSet(false, true)) {
+            try {
+                processarEntrada(entrada);
+            } finally {
+                aTratar.set(false);
+            }
+        } else {
+            adiadas.add(entrada);
+        }
+        tratarAdiadas();
+    }
+
+    /**
+     * Trata as mensagens adiadas, por ordem, até acabarem ou até a ligação voltar a esperar por uma sala
+     * Pode ser chamado por várias threads: só uma de cada vez as trata, e a que sai volta a verificar a fila
+     */
+    private void tratarAdiadas() {
+        while (!aguardaSala && !adiadas.isEmpty() && aTratar.compareAndSet(false, true)) {
+            try {
+                Object entrada;
+                while (!aguardaSala && (entrada = adiadas.poll()) != null) {
+                    processarEntrada(entrada);
+                }
+            } finally {
+                aTratar.set(false);
+            }
+        }
+    }
+
+    private void processarEntrada(Object entrada) {
+        if (!ligado) return;
+        if (sala == null && !espectador && ocupaLugar(entrada)) {
+            // Primeira mensagem de jogador: só agora a ligação ocupa um lugar, na sala em espera.
+            // A mensagem volta para a frente da fila e é tratada quando a sala aceitar o cliente
+            aguardarSala();
+            adiadas.addFirst(entrada);
+            servidor.colocarEmSalaDisponivel(this);
+            return;
+        }
+        if (entrada instanceof String) {
+            processarMensagem((String) entrada);
+        } else {
+            processarTrama((byte[]) entrada);
+        }
+    }
+
+    /**
+     * Verifica se uma mensagem precisa de um lugar de jogador numa sala
+     * ESPECTAR e REPETIR não ocupam lugar; SALA e RECONECTAR escolhem a sala elas próprias
+     */
+    private static boolean ocupaLugar(Object entrada) {
+        String mensagem;
+        if (entrada instanceof String) {
+            mensagem = (String) entrada;
+        } else {
+            byte[] trama = (byte[]) entrada;
+            int codigo = trama[0] & 0xFF;
+            if (codigo != ProtocoloBinario.TEXTO) {
+                return codigo != ProtocoloBinario.SALA && codigo != ProtocoloBinario.RECONECTAR;
+            }
+            mensagem = ProtocoloBinario.texto(trama, 1, trama.length);
+        }
+        return !mensagem.startsWith("ESPECTAR:") && !mensagem.startsWith("REPETIR:")
+                && !mensagem.startsWith("SALA:") && !mensagem.startsWith("RECONECTAR:");
+    }
+
+    /**
+     * Passa a adiar as mensagens seguintes até a sala responder (chamado pela thread que trata as mensagens)
+     */
+    private void aguardarSala() {
+        aguardaSala = true;
+    }
+
+    /**
+     * Volta a tratar as mensagens depois da resposta da sala
+     * Chamado pelo escritor da sala: as mensagens adiadas são tratadas numa tarefa do servidor, fora do escritor
+     */
+    private void libertarEntradas() {
+        aguardaSala = false;
+        if (!adiadas.isEmpty()) {
+            try {
+                servidor.executarTarefa(this::tratarAdiadas);
+            } catch (RejectedExecutionException e) {
+                // O servidor está a parar
+            }
+        }
+    }
+
+    /**
+     * Processa uma trama do protocolo binário
+     * Os dados são lidos diretamente dos bytes, sem construir nem dividir texto
+     */
+    private void processarTrama(byte[] trama) {
+        int codigo = trama[0] & 0xFF;
+        if (espectador && codigo != ProtocoloBinario.TEXTO) {
+            enviarMensagem(ERRO_ESPECTADOR);
+            return;
+        }
+        switch (codigo) {
+            case ProtocoloBinario.PRONTO:
+                tratarPronto(ProtocoloBinario.texto(trama, 1, trama.length));
+                break;
+            case ProtocoloBinario.MARCAR:
+            case ProtocoloBinario.DESMARCAR:
+                if (trama.length != 2) {
+                    enviarMensagem("ERRO:Número inválido para " + (codigo == ProtocoloBinario.MARCAR ? "marcar." : "desmarcar."));
+                } else if (codigo == ProtocoloBinario.MARCAR) {
+                    marcarNumero(trama[1] & 0xFF);
+                } else {
+                    desmarcarNumero(trama[1] & 0xFF);
+                }
+                break;
+            case ProtocoloBinario.MARCAR_LOTE:
+                if (trama.length != 1 + 2 * Long.BYTES) {
+                    enviarMensagem("ERRO:Lote de marcações inválido.");
+                } else {
+                    ByteBuffer palavras = ByteBuffer.wrap(trama, 1, 2 * Long.BYTES);
+                    marcarLote(palavras.getLong(), palavras.getLong());
+                }
+                break;
+            case ProtocoloBinario.LINHA:
+                tratarLinha(trama.length > 1 ? ProtocoloBinario.texto(trama, 1, trama.length) : null);
+                break;
+            case ProtocoloBinario.BINGO:
+                tratarBingo(trama.length > 1 ? ProtocoloBinario.texto(trama, 1, trama.length) : null);
+                break;
+            case ProtocoloBinario.SALA:
+                tratarSala(ProtocoloBinario.texto(trama, 1, trama.length));
+                break;
+            case ProtocoloBinario.RECONECTAR:
+                tratarReconectar(ProtocoloBinario.texto(trama, 1, trama.length));
+                break;
+            case ProtocoloBinario.TEXTO:
+                processarMensagem(ProtocoloBinario.texto(trama, 1, trama.length));
+                break;
+            default:
+                Registo.aviso("Trama desconhecida de " + (nome != null ? nome : "cliente") + ": 0x" + Integer.toHexString(codigo));
+        }
+    }
+
     /**
      * Processa as diferentes mensagens recebidas do cliente
      * Implementa o protocolo de comunicação definido
      * @param mensagem - Mensagem recebida do cliente
      */
     private void processarMensagem(String mensagem) {
-        if (mensagem.startsWith("PRONTO:")) {
-            // Cliente indica que está pronto com o seu nome
-            // Formato: PRONTO:NomeDoJogador
-            nome = mensagem.substring("PRONTO:".length()).trim();
-            if (nome.isEmpty()) {
-                enviarMensagem("ERRO:Nome não pode estar vazio.");
-                return;
-            }
-            
-            // Marca o jogador como pronto e gera o seu cartão
-            pronto = true;
-            idCartao = servidor.gerarIdCartao();
-            cartao = servidor.gerarCartao();
-            servidor.registarCliente(this);
-            enviarCartao();
-            servidor.verificarTodosProntos();
+        if (mensagem.startsWith("ESPECTAR:")) {
+            // Cliente quer seguir uma sala como espectador, pelo grupo multicast da sala
+            // Formato: ESPECTAR:idDaSala (a ligação não ocupa um lugar de jogador)
+            tratarEspectar(mensagem.substring("ESPECTAR:".length()));
+
+        } else if (mensagem.startsWith("REPETIR:")) {
+            // Espectador pede as publicações que perdeu no multicast
+            // Formato: REPETIR:idDaSala:sequência (repete desde essa sequência até à última)
+            tratarRepetir(mensagem.substring("REPETIR:".length()));
+
+        } else if (espectador) {
+            enviarMensagem(ERRO_ESPECTADOR);
+
+        } else if (mensagem.startsWith("SALA:")) {
+            // Cliente pede para jogar numa sala específica
+            // Formato: SALA:idDaSala (só é permitido antes de estar pronto)
+            tratarSala(mensagem.substring("SALA:".length()));
+
+        } else if (mensagem.startsWith("RECONECTAR:")) {
+            // Cliente volta a um jogo em curso depois de perder a ligação
+            // Formato: RECONECTAR:token (o token foi enviado com o cartão na mensagem SESSAO)
+            tratarReconectar(mensagem.substring("RECONECTAR:".length()));
+
+        } else if (mensagem.startsWith("PRONTO:")) {
+            // Cliente indica que está pronto com o seu nome e, opcionalmente, quantos cartões quer
+            // Formato: PRONTO:NomeDoJogador ou PRONTO:NomeDoJogador:numCartoes
+            tratarPronto(mensagem.substring("PRONTO:".length()));
             
-        } else if (mensagem.equals("LINHA")) {
-            // Cliente reclama uma linha
-            if (!pronto) {
-                enviarMensagem("ERRO:Precisa estar pronto para jogar.");
-                return;
-            }
-            servidor.processarLinha(this);
+        } else if (mensagem.equals("LINHA") || mensagem.startsWith("LINHA:")) {
+            // Cliente reclama uma linha num cartão ou, sem identificador, em qualquer dos seus cartões
+            // Formato: LINHA ou LINHA:idCartao
+            tratarLinha(mensagem.length() > "LINHA".length() ? mensagem.substring("LINHA:".length()) : null);
             
-        } else if (mensagem.equals("BINGO")) {
-            // Cliente reclama bingo (cartão completo)
-            if (!pronto) {
-                enviarMensagem("ERRO:Precisa estar pronto para jogar.");
-                return;
-            }
-            servidor.processarBingo(this);
+        } else if (mensagem.equals("BINGO") || mensagem.startsWith("BINGO:")) {
+            // Cliente reclama bingo num cartão ou, sem identificador, em qualquer dos seus cartões
+            // Formato: BINGO ou BINGO:idCartao
+            tratarBingo(mensagem.length() > "BINGO".length() ? mensagem.substring("BINGO:".length()) : null);
             
         } else if (mensagem.startsWith("MARCAR:")) {
             // Cliente marca um número no seu cartão
@@ -117,6 +343,17 @@ public class ClientHandler implements Runnable {
                 enviarMensagem("ERRO:Número inválido para marcar.");
             }
             
+        } else if (mensagem.startsWith("MARCAR_LOTE:")) {
+            // Cliente envia todas as marcações do cartão de uma vez (marcações e desmarcações juntas)
+            // Formato: MARCAR_LOTE:baixo,alto (mapas de bits em hexadecimal dos números 1-63 e 64-99)
+            String[] palavras = mensagem.substring("MARCAR_LOTE:".length()).split(",");
+            try {
+                if (palavras.length != 2) throw new NumberFormatException();
+                marcarLote(Long.parseUnsignedLong(palavras[0], 16), Long.parseUnsignedLong(palavras[1], 16));
+            } catch (NumberFormatException e) {
+                enviarMensagem("ERRO:Lote de marcações inválido.");
+            }
+
         } else if (mensagem.startsWith("DESMARCAR:")) {
             // Cliente desmarca um número no seu cartão
             // Formato: DESMARCAR:número
@@ -127,39 +364,295 @@ public class ClientHandler implements Runnable {
                 enviarMensagem("ERRO:Número inválido para desmarcar.");
             }
         } else {
-            System.out.println("Mensagem desconhecida de " + (nome != null ? nome : "cliente") + ": " + mensagem);
+            Registo.aviso("Mensagem desconhecida de " + (nome != null ? nome : "cliente") + ": " + mensagem);
         }
     }
 
     /**
-     * Marca um número no cartão do jogador
-     * Verifica se o número existe no cartão e se já foi sorteado
-     * @param numero - Número a marcar
+     * Passa a ligação a espectador da sala pedida (só é permitido antes de estar pronto)
      */
-    private void marcarNumero(int numero) {
-        // Verifica se o número está no cartão do jogador
-        boolean numeroNoCartao = false;
-        for (int num : cartao) {
-            if (num == numero) {
-                numeroNoCartao = true;
-                break;
+    private void tratarEspectar(String idSala) {
+        idSala = idSala.trim();
+        if (pronto) {
+            enviarMensagem("ERRO:Um jogador não pode ser espectador na mesma ligação.");
+            return;
+        }
+        if (idSala.isEmpty()) {
+            enviarMensagem("ERRO:Identificador de sala inválido.");
+            return;
+        }
+        tornarEspectador();
+        String erro = servidor.espectar(this, idSala);
+        if (erro != null) {
+            enviarMensagem(erro);
+        }
+    }
+
+    /**
+     * Repete as publicações de uma sala que o espectador perdeu
+     * @param pedido - idSala:sequência
+     */
+    private void tratarRepetir(String pedido) {
+        if (pronto) {
+            enviarMensagem("ERRO:Um jogador não pode ser espectador na mesma ligação.");
+            return;
+        }
+        int separador = pedido.lastIndexOf(':');
+        try {
+            if (separador <= 0) throw new NumberFormatException();
+            int desde = Integer.parseInt(pedido.substring(separador + 1).trim());
+            tornarEspectador();
+            String erro = servidor.repetirParaEspectador(this, pedido.substring(0, separador).trim(), desde);
+            if (erro != null) {
+                enviarMensagem(erro);
+            }
+        } catch (NumberFormatException e) {
+            enviarMensagem("ERRO:Pedido REPETIR inválido.");
+        }
+    }
+
+    /**
+     * Liberta o lugar que a ligação ocupava, se já tinha sido colocada numa sala
+     */
+    private void tornarEspectador() {
+        if (espectador) return;
+        espectador = true;
+        Sala atual = sala;
+        sala = null;
+        if (atual != null) {
+            atual.removerCliente(this);
+        }
+    }
+
+    /**
+     * Muda o jogador para outra sala (só é permitido antes de estar pronto)
+     */
+    private void tratarSala(String idSala) {
+        idSala = idSala.trim();
+        if (pronto) {
+            enviarMensagem("ERRO:Não pode mudar de sala depois de estar pronto.");
+            return;
+        }
+        if (idSala.isEmpty()) {
+            enviarMensagem("ERRO:Identificador de sala inválido.");
+            return;
+        }
+        String pedida = idSala;
+        aguardarSala();
+        servidor.mudarDeSala(this, pedida, erro -> {
+            enviarMensagem(erro != null ? erro : "SALA:" + pedida);
+            libertarEntradas();
+        });
+    }
+
+    /**
+     * Devolve ao jogador o cartão de uma sessão anterior, na sala onde estava
+     */
+    private void tratarReconectar(String token) {
+        token = token.trim();
+        if (pronto) {
+            enviarMensagem("ERRO:Já tem cartões nesta ligação.");
+            return;
+        }
+        aguardarSala();
+        servidor.reconectar(this, token, erro -> {
+            if (erro != null) {
+                enviarMensagem(erro);
+            }
+            libertarEntradas();
+        });
+    }
+
+    /**
+     * Retoma o lugar de um jogador que voltou ao jogo (chamado pelo escritor da sala)
+     * @param idsCartoes - Identificadores dos cartões do jogador
+     * @param indicesCartoes - Posições dos mesmos cartões no índice da sala
+     * @param numerosBaixo - União dos números dos cartões entre 1 e 63
+     * @param numerosAlto - União dos números dos cartões entre 64 e 99
+     */
+    public void retomarLugar(String nome, String token, String[] idsCartoes, int[] indicesCartoes,
+                             long numerosBaixo, long numerosAlto, ConjuntoNumeros marcas) {
+        this.nome = nome;
+        this.tokenSessao = token;
+        this.idsCartoes = idsCartoes.clone();
+        this.indicesCartoes = indicesCartoes.clone();
+        this.numCartoes = indicesCartoes.length;
+        this.numerosCartoesBaixo = numerosBaixo;
+        this.numerosCartoesAlto = numerosAlto;
+        this.numerosMarados = marcas.copia();
+        this.pronto = true;
+    }
+
+    /**
+     * Marca o jogador como pronto e pede os seus cartões à sala, que os envia
+     * Se o jogo já estiver em curso (entrada tardia), a sala envia também o estado do jogo
+     * @param pedido - Nome do jogador, opcionalmente seguido de ":numCartoes" (por omissão 1)
+     */
+    private void tratarPronto(String pedido) {
+        if (pronto) {
+            // Um segundo PRONTO não pode trocar nem acrescentar cartões ao jogador
+            enviarMensagem("ERRO:Já está pronto.");
+            return;
+        }
+        String nomeJogador = pedido;
+        int quantidade = 1;
+        int separador = pedido.lastIndexOf(':');
+        if (separador >= 0) {
+            try {
+                quantidade = Integer.parseInt(pedido.substring(separador + 1).trim());
+                nomeJogador = pedido.substring(0, separador);
+            } catch (NumberFormatException e) {
+                // Sem número no fim: os dois pontos fazem parte do nome
             }
         }
+        nome = nomeJogador.trim();
+        if (nome.isEmpty()) {
+            enviarMensagem("ERRO:Nome não pode estar vazio.");
+            return;
+        }
+        if (nome.length() > MAX_NOME) {
+            enviarMensagem("ERRO:O nome pode ter no máximo " + MAX_NOME + " caracteres.");
+            return;
+        }
+        if (quantidade < 1 || quantidade > Sala.MAX_CARTOES_POR_JOGADOR) {
+            enviarMensagem("ERRO:Pode pedir entre 1 e " + Sala.MAX_CARTOES_POR_JOGADOR + " cartões.");
+            return;
+        }
         
-        if (!numeroNoCartao) {
+        // Marca o jogador como pronto; a sala emite os cartões, todos com o mesmo token de sessão
+        pronto = true;
+        tokenSessao = servidor.gerarTokenSessao();
+        aguardarSala();
+        sala.emitirCartoes(this, quantidade);
+    }
+
+    /**
+     * Guarda e envia os cartões emitidos pela sala (chamado pelo escritor da sala)
+     * @param ids - Identificadores dos cartões
+     * @param indices - Posições dos mesmos cartões no índice da sala
+     */
+    public void receberCartoes(String[] ids, int[] indices, Cartao[] cartoes) {
+        long numerosBaixo = 0;
+        long numerosAlto = 0;
+        for (Cartao cartao : cartoes) {
+            numerosBaixo |= cartao.obterMascaraBaixo();
+            numerosAlto |= cartao.obterMascaraAlto();
+        }
+        numerosCartoesBaixo = numerosBaixo;
+        numerosCartoesAlto = numerosAlto;
+        idsCartoes = ids;
+        indicesCartoes = indices;
+        numCartoes = cartoes.length;
+        for (int i = 0; i < cartoes.length; i++) {
+            enviarCartao(ids[i], cartoes[i]);
+        }
+        enviarMensagem("SESSAO:" + tokenSessao);
+        libertarEntradas();
+    }
+
+    /**
+     * Desfaz o PRONTO de um jogador a quem a sala recusou os cartões (chamado pelo escritor da sala)
+     * @param erro - Mensagem de erro a enviar ao cliente
+     */
+    public void cartoesRecusados(String erro) {
+        pronto = false;
+        tokenSessao = null;
+        enviarMensagem(erro);
+        libertarEntradas();
+    }
+
+    /**
+     * Encaminha um pedido de linha para a sala
+     * @param idCartao - Cartão indicado pelo jogador, ou null para procurar em todos os seus cartões
+     */
+    private void tratarLinha(String idCartao) {
+        if (!pronto) {
+            enviarMensagem("ERRO:Precisa estar pronto para jogar.");
+            return;
+        }
+        sala.processarLinha(this, idCartao != null ? idCartao.trim() : null);
+    }
+
+    /**
+     * Encaminha um pedido de bingo para a sala
+     * @param idCartao - Cartão indicado pelo jogador, ou null para procurar em todos os seus cartões
+     */
+    private void tratarBingo(String idCartao) {
+        if (!pronto) {
+            enviarMensagem("ERRO:Precisa estar pronto para jogar.");
+            return;
+        }
+        sala.processarBingo(this, idCartao != null ? idCartao.trim() : null);
+    }
+
+    /**
+     * Verifica se um número está em algum dos cartões do jogador
+     */
+    private boolean estaNosCartoes(int numero) {
+        if (numero < 1 || numero > ConjuntoNumeros.MAXIMO) return false;
+        return numero < 64 ? (numerosCartoesBaixo & (1L << numero)) != 0 : (numerosCartoesAlto & (1L << (numero - 64))) != 0;
+    }
+
+    /**
+     * Marca um número nos cartões do jogador
+     * Verifica se o número existe em algum cartão e se já foi sorteado
+     * @param numero - Número a marcar
+     */
+    private void marcarNumero(int numero) {
+        // Verifica se o número está nos cartões do jogador
+        if (numCartoes == 0 || !estaNosCartoes(numero)) {
             enviarMensagem("ERRO:Número " + numero + " não está no seu cartão.");
             return;
         }
         
         // Verifica se o número foi sorteado pelo servidor
-        if (!servidor.obterNumerosSorteados().contains(numero)) {
+        if (!sala.foiSorteado(numero)) {
             enviarMensagem("ERRO:Número " + numero + " ainda não foi sorteado.");
             return;
         }
         
         // Marca o número
-        numerosMarados.add(numero);
-        System.out.println("Jogador " + nome + " marcou número " + numero);
+        if (numerosMarados.adicionar(numero)) {
+            sala.registarMarca(tokenSessao, numero, true);
+        }
+        Registo.depuracao(() -> "Jogador " + nome + " marcou número " + numero);
+    }
+
+    /**
+     * Substitui todas as marcações do jogador numa só passagem
+     * Os números pedidos são filtrados com AND pelas máscaras dos cartões e dos sorteados (uma única
+     * cópia sob o trinco da sala); os que não passam são recusados numa só mensagem de erro
+     * @param baixo - Mapa de bits dos números 1-63 que devem ficar marcados
+     * @param alto - Mapa de bits dos números 64-99 que devem ficar marcados
+     */
+    private void marcarLote(long baixo, long alto) {
+        if (numCartoes == 0) {
+            enviarMensagem("ERRO:Precisa estar pronto para jogar.");
+            return;
+        }
+        ConjuntoNumeros sorteados = sala.obterNumerosSorteados();
+        long validosBaixo = baixo & numerosCartoesBaixo & sorteados.obterBaixo();
+        long validosAlto = alto & numerosCartoesAlto & sorteados.obterAlto();
+        int recusados = Long.bitCount(baixo & ~validosBaixo) + Long.bitCount(alto & ~validosAlto);
+        if (recusados > 0) {
+            enviarMensagem("ERRO:" + recusados + " números não foram marcados (fora do cartão ou ainda não sorteados).");
+        }
+        if (validosBaixo != numerosMarados.obterBaixo() || validosAlto != numerosMarados.obterAlto()) {
+            numerosMarados = new ConjuntoNumeros(validosBaixo, validosAlto);
+            sala.registarMarcacoes(tokenSessao, numerosMarados);
+        }
+        Registo.depuracao(() -> "Jogador " + nome + " marcou em lote: " + numerosMarados);
+    }
+
+    /**
+     * Marca todos os números sorteados que estão nos cartões do jogador (jogos instantâneos)
+     * Chamado pela sala, com o trinco adquirido
+     * @return as marcações resultantes (sem cópia; não devem ser alteradas)
+     */
+    public ConjuntoNumeros marcarSorteados(ConjuntoNumeros sorteados) {
+        numerosMarados = new ConjuntoNumeros(numerosCartoesBaixo & sorteados.obterBaixo(),
+                                             numerosCartoesAlto & sorteados.obterAlto());
+        return numerosMarados;
     }
 
     /**
@@ -167,42 +660,48 @@ public class ClientHandler implements Runnable {
      * @param numero - Número a desmarcar
      */
     private void desmarcarNumero(int numero) {
-        numerosMarados.remove(numero);
-        System.out.println("Jogador " + nome + " desmarcou número " + numero);
+        if (numerosMarados.contem(numero)) {
+            numerosMarados.remover(numero);
+            sala.registarMarca(tokenSessao, numero, false);
+        }
+        Registo.depuracao(() -> "Jogador " + nome + " desmarcou número " + numero);
     }
 
     /**
-     * Envia o cartão gerado para o cliente
+     * Envia um cartão gerado para o cliente
      * Formato: CARTAO:idCartao:num1,num2,num3,...,num25
      */
-    private void enviarCartao() {
-        StringBuilder sb = new StringBuilder("CARTAO:" + idCartao + ":");
-        for (int i = 0; i < cartao.length; i++) {
-            if (i > 0) sb.append(",");
-            sb.append(cartao[i]);
-        }
-        enviarMensagem(sb.toString());
-        System.out.println("Cartão enviado para " + nome + " (ID: " + idCartao + ")");
+    private void enviarCartao(String idCartao, Cartao cartao) {
+        enviarMensagem(Mensagem.cartao(idCartao, cartao));
+        Registo.depuracao(() -> "Cartão enviado para " + nome + " (ID: " + idCartao + ")");
     }
 
     /**
-     * Envia uma mensagem para o cliente através do socket
+     * Envia uma mensagem para o cliente através do seu canal
      * @param mensagem - Mensagem a enviar
      */
     public void enviarMensagem(String mensagem) {
-        if (saida != null && ligado) {
-            saida.println(mensagem);
-            System.out.println("Enviado para " + (nome != null ? nome : "cliente") + ": " + mensagem);
+        enviarMensagem(Mensagem.deTexto(mensagem));
+    }
+
+    /**
+     * Envia uma mensagem já preparada (possivelmente partilhada por uma difusão)
+     * @param mensagem - Mensagem a enviar, codificada conforme o protocolo negociado
+     */
+    public void enviarMensagem(Mensagem mensagem) {
+        if (canal != null && ligado) {
+            canal.enviar(mensagem);
+            Registo.traco(() -> "Enviado para " + (nome != null ? nome : "cliente") + ": " + mensagem);
         }
     }
 
     // Métodos de acesso (getters) com nomes em português
 
     /**
-     * Verifica se o jogador está pronto para começar o jogo
+     * Verifica se o jogador está pronto para começar o jogo (já recebeu os cartões da sala)
      */
     public boolean estaPronto() {
-        return pronto;
+        return numCartoes > 0;
     }
 
     /**
@@ -213,17 +712,107 @@ public class ClientHandler implements Runnable {
     }
 
     /**
-     * Obtém uma cópia do cartão do jogador (para segurança)
+     * Obtém a sala onde o jogador está
+     */
+    public Sala obterSala() {
+        return sala;
+    }
+
+    /**
+     * Define a sala onde o jogador passa a jogar
+     * Chamado pelo servidor ao colocar o cliente numa sala
+     */
+    public void definirSala(Sala sala) {
+        this.sala = sala;
+        if (!ligado && sala != null) {
+            sala.removerCliente(this); // A ligação caiu enquanto esperava pela sala
+        }
+    }
+
+    /**
+     * Coloca o cliente na sala em espera que o aceitou e volta a tratar as suas mensagens
+     * Chamado pelo escritor da sala
+     */
+    public void salaAtribuida(Sala sala) {
+        definirSala(sala);
+        libertarEntradas();
+    }
+
+    /**
+     * Obtém o número de mensagens à espera na fila de saída do cliente
+     */
+    public int obterTamanhoFilaSaida() {
+        return canal != null ? canal.obterTamanhoFila() : 0;
+    }
+
+    /**
+     * Obtém o número de cartões do jogador (0 antes de estar pronto)
+     */
+    public int obterNumCartoes() {
+        return numCartoes;
+    }
+
+    /**
+     * Obtém o identificador do i-ésimo cartão do jogador
      */
-    public int[] obterCartao() {
-        return cartao != null ? cartao.clone() : new int[0];
+    public String obterIdCartao(int i) {
+        return idsCartoes[i];
+    }
+
+    /**
+     * Procura a posição de um cartão entre os cartões do jogador
+     * @return posição do cartão, ou -1 se o jogador não tiver esse cartão
+     */
+    public int posicaoCartao(String idCartao) {
+        for (int i = 0; i < numCartoes; i++) {
+            if (idsCartoes[i].equals(idCartao)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Obtém os identificadores dos cartões do jogador (cópia)
+     */
+    public String[] obterIdsCartoes() {
+        return Arrays.copyOf(idsCartoes, numCartoes);
+    }
+
+    /**
+     * Obtém as posições dos cartões do jogador no índice da sala
+     * Devolve o próprio array, sem cópia, para a validação dos pedidos não criar objetos; não deve ser alterado
+     */
+    public int[] obterIndicesCartoes() {
+        return indicesCartoes;
+    }
+
+    /**
+     * Obtém o token de sessão dos cartões do jogador (null antes de estar pronto)
+     */
+    public String obterTokenSessao() {
+        return tokenSessao;
     }
 
     /**
      * Obtém uma cópia dos números marcados pelo jogador (para segurança)
      */
-    public Set<Integer> obterNumerosMarados() {
-        return new HashSet<>(numerosMarados);
+    public ConjuntoNumeros obterNumerosMarados() {
+        return numerosMarados.copia();
+    }
+
+    /**
+     * Obtém os números marcados entre 1 e 63, sem cópia (para a validação dos pedidos)
+     */
+    public long obterMarcasBaixo() {
+        return numerosMarados.obterBaixo();
+    }
+
+    /**
+     * Obtém os números marcados entre 64 e 99, sem cópia (para a validação dos pedidos)
+     */
+    public long obterMarcasAlto() {
+        return numerosMarados.obterAlto();
     }
 
     /**
@@ -235,23 +824,31 @@ public class ClientHandler implements Runnable {
         fecharLigacao();
     }
 
+    /**
+     * Chamado pelo transporte quando o cliente fecha a ligação ou ocorre um erro de rede
+     */
+    public void ligacaoTerminada() {
+        fecharLigacao();
+    }
+
     /**
      * Fecha todos os recursos de comunicação de forma segura
-     * Informa o servidor que este cliente se desligou
+     * Informa a sala que este cliente se desligou
      */
     private void fecharLigacao() {
         ligado = false;
         try {
-            // Fecha todos os streams e o socket
-            if (entrada != null) entrada.close();
-            if (saida != null) saida.close();
-            if (socket != null && !socket.isClosed()) socket.close();
+            // Fecha o canal; a thread de leitura termina sozinha quando o socket fecha
+            if (canal != null) canal.fechar();
         } catch (IOException e) {
-            System.err.println("Erro ao fechar ligação com " + 
+            Registo.erro("Erro ao fechar ligação com " + 
                              (nome != null ? nome : "cliente") + ": " + e.getMessage());
         } finally {
-            // Remove este cliente do servidor
-            servidor.removerCliente(this);
+            // Remove este cliente da sala onde estava
+            Sala salaAtual = sala;
+            if (salaAtual != null) {
+                salaAtual.removerCliente(this);
+            }
         }
     }
 }
\ No newline at end of file
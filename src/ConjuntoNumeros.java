@@ -0,0 +1,122 @@
+/**
+ * Conjunto de números de bingo (1 a 99) guardado como mapa de bits em dois longs
+ * Substitui os Set<Integer> para evitar objetos Integer e pesquisas em tabelas de dispersão:
+ * o bit n do conjunto indica se o número n está presente
+ */
+public final class ConjuntoNumeros {
+    public static final int MAXIMO = 99;
+
+    private long baixo; // Números 0 a 63
+    private long alto;  // Números 64 a 127 (só são usados até 99)
+
+    /**
+     * Construtor - Cria um conjunto vazio
+     */
+    public ConjuntoNumeros() {
+    }
+
+    /**
+     * Construtor - Cria um conjunto a partir das suas duas palavras de bits
+     */
+    public ConjuntoNumeros(long baixo, long alto) {
+        this.baixo = baixo;
+        this.alto = alto;
+    }
+
+    /**
+     * Adiciona um número ao conjunto
+     * @return true se o número ainda não estava presente
+     */
+    public boolean adicionar(int numero) {
+        validar(numero);
+        boolean novo = !contem(numero);
+        if (numero < 64) {
+            baixo |= 1L << numero;
+        } else {
+            alto |= 1L << (numero - 64);
+        }
+        return novo;
+    }
+
+    /**
+     * Retira um número do conjunto (ignora números fora do intervalo)
+     */
+    public void remover(int numero) {
+        if (numero < 1 || numero > MAXIMO) return;
+        if (numero < 64) {
+            baixo &= ~(1L << numero);
+        } else {
+            alto &= ~(1L << (numero - 64));
+        }
+    }
+
+    /**
+     * Verifica se um número pertence ao conjunto (números fora do intervalo nunca pertencem)
+     */
+    public boolean contem(int numero) {
+        if (numero < 1 || numero > MAXIMO) return false;
+        return numero < 64 ? (baixo & (1L << numero)) != 0 : (alto & (1L << (numero - 64))) != 0;
+    }
+
+    /**
+     * Número de elementos do conjunto
+     */
+    public int tamanho() {
+        return Long.bitCount(baixo) + Long.bitCount(alto);
+    }
+
+    /**
+     * Esvazia o conjunto
+     */
+    public void limpar() {
+        baixo = 0;
+        alto = 0;
+    }
+
+    /**
+     * Obtém a palavra de bits dos números 0 a 63
+     */
+    public long obterBaixo() {
+        return baixo;
+    }
+
+    /**
+     * Obtém a palavra de bits dos números 64 a 127
+     */
+    public long obterAlto() {
+        return alto;
+    }
+
+    /**
+     * Cria uma cópia independente do conjunto
+     */
+    public ConjuntoNumeros copia() {
+        return new ConjuntoNumeros(baixo, alto);
+    }
+
+    /**
+     * Verifica se um par de palavras contém todos os bits de uma máscara
+     * Usado na validação de linhas e bingo sem criar objetos
+     */
+    public static boolean contemTodos(long baixo, long alto, long mascaraBaixo, long mascaraAlto) {
+        return (baixo & mascaraBaixo) == mascaraBaixo && (alto & mascaraAlto) == mascaraAlto;
+    }
+
+    private static void validar(int numero) {
+        if (numero < 1 || numero > MAXIMO) {
+            throw new IllegalArgumentException("Número fora do intervalo 1-" + MAXIMO + ": " + numero);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int numero = 1; numero <= MAXIMO; numero++) {
+            if (contem(numero)) {
+                if (sb.length() > 1) sb.append(",");
+                sb.append(numero);
+            }
+        }
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,532 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Diário dos jogos: registo só de acrescento dos eventos de cada sala, escrito num ficheiro mapeado em memória
+ * Quem regista apenas copia o registo para o mapeamento, sem chamadas ao sistema; uma thread de fundo
+ * força as páginas para o disco a cada INTERVALO_SINCRONIZACAO_MS (commit em grupo), pelo que o sorteio
+ * nunca espera por um fsync. Se o processo morrer, as páginas já escritas continuam no ficheiro;
+ * numa falha do sistema perdem-se no máximo os eventos do último intervalo.
+ *
+ * Formato de cada registo: [u16 tamanho][u32 CRC32][u8 tipo][dados], com tamanho = 1 + bytes dos dados;
+ * os textos dos dados são [u16 tamanho][bytes UTF-8], sem cortes.
+ * Um tamanho 0 marca o fim; um registo truncado ou com CRC errado também, e é descartado na recuperação.
+ *
+ * Ativado com -Dbingo.diario=ficheiro (desligado por omissão)
+ */
+public final class DiarioJogos {
+    // Tipos de registo
+    private static final byte CARTAO_EMITIDO = 1;
+    private static final byte JOGO_INICIADO = 2;
+    private static final byte NUMERO_SORTEADO = 3;
+    private static final byte MARCA = 4;       // As marcações são do jogador (token de sessão), não de um cartão
+    private static final byte DESMARCA = 5;
+    private static final byte PEDIDO = 6;
+    private static final byte JOGO_TERMINADO = 7;
+    private static final byte MARCACOES = 8;   // Todas as marcações de um jogador (marcação em lote)
+
+    private static final int MAGIA = 0x42444A33; // "BDJ3": identificador do jogo no início e textos com tamanho u16
+    private static final int CABECALHO_REGISTO = 6;
+    private static final int MAX_DADOS = 0xFFFF - 1;
+    private static final int TAMANHO_SEGMENTO = 16 << 20;
+    private static final long INTERVALO_SINCRONIZACAO_MS = 5;
+
+    private final Path ficheiro;
+    private final List<JogoRecuperado> jogosRecuperados;
+    private final ReentrantLock trinco = new ReentrantLock();
+    private FileChannel canal;
+    private MappedByteBuffer segmento;          // Segmento mapeado onde se escreve
+    private long segmentoInicio;                // Posição do segmento no ficheiro
+    private int posicao;                        // Próxima posição livre no segmento
+    private int sincronizadoAte;                // Bytes do segmento já forçados para o disco
+    private final List<MappedByteBuffer> segmentosPorSincronizar = new ArrayList<>();
+    private Thread sincronizador;
+    private volatile boolean aberto;
+
+    private DiarioJogos(Path ficheiro, List<JogoRecuperado> jogosRecuperados) {
+        this.ficheiro = ficheiro;
+        this.jogosRecuperados = jogosRecuperados;
+    }
+
+    /**
+     * Cria um diário desligado: todos os registos são ignorados
+     */
+    public static DiarioJogos desligado() {
+        return new DiarioJogos(null, List.of());
+    }
+
+    /**
+     * Abre o diário configurado em -Dbingo.diario, ou um diário desligado se não houver nenhum
+     */
+    public static DiarioJogos doSistema() throws IOException {
+        String caminho = System.getProperty("bingo.diario");
+        if (caminho == null || caminho.isBlank()) {
+            return desligado();
+        }
+        return abrir(Paths.get(caminho));
+    }
+
+    /**
+     * Abre um diário, recuperando os jogos que ficaram por terminar
+     * O ficheiro é reescrito só com esses jogos (compactação) antes de se voltar a acrescentar eventos
+     * @param ficheiro - Ficheiro do diário (criado se não existir)
+     */
+    public static DiarioJogos abrir(Path ficheiro) throws IOException {
+        List<JogoRecuperado> recuperados = Files.exists(ficheiro) ? ler(ficheiro) : List.of();
+        compactar(ficheiro, recuperados);
+        DiarioJogos diario = new DiarioJogos(ficheiro, recuperados);
+        diario.iniciarEscrita();
+        return diario;
+    }
+
+    /**
+     * Verifica se o diário está a registar eventos
+     */
+    public boolean estaLigado() {
+        return aberto;
+    }
+
+    /**
+     * Obtém o ficheiro do diário (null se estiver desligado)
+     */
+    public Path obterFicheiro() {
+        return ficheiro;
+    }
+
+    /**
+     * Obtém os jogos encontrados por terminar quando o diário foi aberto, pela ordem em que começaram
+     */
+    public List<JogoRecuperado> obterJogosRecuperados() {
+        return jogosRecuperados;
+    }
+
+    public void registarCartaoEmitido(String sala, String idCartao, String token, String nome, Cartao cartao) {
+        if (!aberto) return;
+        acrescentar(codificarCartao(sala, idCartao, token, nome, cartao));
+    }
+
+    /**
+     * Regista o início de um jogo, com o identificador do jogo e a semente que permitem repeti-lo e auditá-lo
+     */
+    public void registarJogoIniciado(String sala, String idJogo, Long semente) {
+        if (!aberto) return;
+        acrescentar(codificarJogoIniciado(sala, idJogo, semente));
+    }
+
+    public void registarNumeroSorteado(String sala, int numero) {
+        if (!aberto) return;
+        acrescentar(codificarNumero(sala, numero));
+    }
+
+    public void registarMarca(String sala, String token, int numero, boolean marcada) {
+        if (!aberto) return;
+        acrescentar(codificarMarca(sala, token, numero, marcada));
+    }
+
+    public void registarMarcacoes(String sala, String token, ConjuntoNumeros marcas) {
+        if (!aberto) return;
+        acrescentar(codificarMarcacoes(sala, token, marcas));
+    }
+
+    public void registarPedido(String sala, String idCartao, boolean bingo, boolean valido) {
+        if (!aberto) return;
+        acrescentar(codificarPedido(sala, idCartao, bingo, valido));
+    }
+
+    public void registarJogoTerminado(String sala, String razao) {
+        if (!aberto) return;
+        Evento r = new Evento(JOGO_TERMINADO);
+        r.texto(sala).texto(razao);
+        acrescentar(r.fechar());
+    }
+
+    /**
+     * Força os eventos pendentes para o disco e fecha o ficheiro
+     */
+    public void fechar() {
+        if (!aberto) return;
+        aberto = false;
+        sincronizador.interrupt();
+        sincronizar();
+        trinco.lock();
+        try {
+            canal.close();
+        } catch (IOException e) {
+            Registo.erro("Erro ao fechar o diário " + ficheiro + ": " + e.getMessage());
+        } finally {
+            trinco.unlock();
+        }
+    }
+
+    private void iniciarEscrita() throws IOException {
+        canal = FileChannel.open(ficheiro, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long fim = canal.size();
+        segmento = canal.map(FileChannel.MapMode.READ_WRITE, fim, TAMANHO_SEGMENTO);
+        segmentoInicio = fim;
+        posicao = 0;
+        sincronizadoAte = 0;
+        aberto = true;
+        sincronizador = new Thread(this::sincronizarPeriodicamente, "diario-jogos");
+        sincronizador.setDaemon(true);
+        sincronizador.start();
+    }
+
+    /**
+     * Copia um registo já codificado para o segmento mapeado, abrindo um segmento novo se não couber
+     */
+    private void acrescentar(byte[] registo) {
+        trinco.lock();
+        try {
+            if (!aberto) return;
+            if (posicao + registo.length > TAMANHO_SEGMENTO) {
+                // O segmento cheio fica para a thread de sincronização; o seguinte começa no fim dos dados
+                long inicioNovo = segmentoInicio + posicao;
+                segmentosPorSincronizar.add(segmento);
+                segmento = canal.map(FileChannel.MapMode.READ_WRITE, inicioNovo, TAMANHO_SEGMENTO);
+                segmentoInicio = inicioNovo;
+                posicao = 0;
+                sincronizadoAte = 0;
+            }
+            segmento.put(posicao, registo);
+            posicao += registo.length;
+        } catch (IOException e) {
+            Registo.erro("Erro ao escrever no diário " + ficheiro + ": " + e.getMessage() + ". Diário desligado.");
+            aberto = false;
+        } finally {
+            trinco.unlock();
+        }
+    }
+
+    /**
+     * Ciclo da thread de sincronização: junta todos os eventos de um intervalo num só force
+     */
+    private void sincronizarPeriodicamente() {
+        try {
+            while (aberto) {
+                TimeUnit.MILLISECONDS.sleep(INTERVALO_SINCRONIZACAO_MS);
+                sincronizar();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Força para o disco os segmentos cheios e a parte ainda não sincronizada do segmento atual
+     * O trinco só protege a leitura das posições: o force corre sem ele, para não atrasar quem escreve
+     */
+    private void sincronizar() {
+        List<MappedByteBuffer> cheios = List.of();
+        MappedByteBuffer atual;
+        int inicio;
+        int fim;
+        trinco.lock();
+        try {
+            if (!segmentosPorSincronizar.isEmpty()) {
+                cheios = new ArrayList<>(segmentosPorSincronizar);
+                segmentosPorSincronizar.clear();
+            }
+            atual = segmento;
+            inicio = sincronizadoAte;
+            fim = posicao;
+            sincronizadoAte = posicao;
+        } finally {
+            trinco.unlock();
+        }
+        for (MappedByteBuffer cheio : cheios) {
+            cheio.force();
+        }
+        if (fim > inicio) {
+            atual.force(inicio, fim - inicio);
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Recuperação
+
+    /**
+     * Lê o diário e reconstrói o estado dos jogos que começaram e não terminaram
+     */
+    private static List<JogoRecuperado> ler(Path ficheiro) throws IOException {
+        Map<String, JogoRecuperado> jogos = new LinkedHashMap<>();
+        int registos = 0;
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(FileChannel.open(ficheiro, StandardOpenOption.READ)), 1 << 16))) {
+            if (entrada.readInt() != MAGIA) {
+                throw new IOException("O ficheiro " + ficheiro + " não é um diário de jogos");
+            }
+            CRC32 crc = new CRC32();
+            while (true) {
+                int tamanho = entrada.readUnsignedShort();
+                if (tamanho == 0) break;
+                int crcEsperado = entrada.readInt();
+                byte[] dados = new byte[tamanho];
+                entrada.readFully(dados);
+                crc.reset();
+                crc.update(dados);
+                if ((int) crc.getValue() != crcEsperado) break; // Escrita interrompida: o resto não é fiável
+                aplicar(jogos, ByteBuffer.wrap(dados));
+                registos++;
+            }
+        } catch (EOFException e) {
+            // Fim do ficheiro a meio de um registo: o registo incompleto é descartado
+        }
+
+        List<JogoRecuperado> porTerminar = new ArrayList<>();
+        for (JogoRecuperado jogo : jogos.values()) {
+            if (jogo.iniciado && !jogo.terminado) {
+                porTerminar.add(jogo);
+            }
+        }
+        Registo.info("Diário " + ficheiro + ": " + registos + " eventos lidos, "
+                + porTerminar.size() + " jogos por terminar");
+        return porTerminar;
+    }
+
+    private static void aplicar(Map<String, JogoRecuperado> jogos, ByteBuffer dados) {
+        byte tipo = dados.get();
+        String sala = lerTexto(dados);
+        JogoRecuperado jogo = jogos.get(sala);
+        switch (tipo) {
+            case CARTAO_EMITIDO -> {
+                // Um identificador de sala reutilizado depois de um jogo terminado é um jogo novo
+                if (jogo == null || jogo.terminado) {
+                    jogo = new JogoRecuperado(sala);
+                    jogos.remove(sala);
+                    jogos.put(sala, jogo);
+                }
+                String idCartao = lerTexto(dados);
+                String token = lerTexto(dados);
+                String nome = lerTexto(dados);
+                int[] numeros = new int[Cartao.TAMANHO];
+                for (int i = 0; i < numeros.length; i++) {
+                    numeros[i] = dados.get() & 0xFF;
+                }
+                jogo.cartoes.put(idCartao, new CartaoRecuperado(idCartao, token, nome, new Cartao(numeros)));
+            }
+            case JOGO_INICIADO -> {
+                if (jogo == null || jogo.terminado) {
+                    jogo = new JogoRecuperado(sala);
+                    jogos.remove(sala);
+                    jogos.put(sala, jogo);
+                }
+                jogo.iniciado = true;
+                jogo.idJogo = lerTexto(dados);
+                jogo.semente = dados.get() != 0 ? dados.getLong() : null;
+            }
+            case NUMERO_SORTEADO -> {
+                if (jogo != null && jogo.numSorteados < jogo.historico.length) {
+                    jogo.historico[jogo.numSorteados++] = dados.get() & 0xFF;
+                }
+            }
+            case MARCA, DESMARCA -> {
+                if (jogo != null) {
+                    ConjuntoNumeros marcas = jogo.marcas.computeIfAbsent(lerTexto(dados), t -> new ConjuntoNumeros());
+                    int numero = dados.get() & 0xFF;
+                    if (tipo == MARCA) marcas.adicionar(numero);
+                    else marcas.remover(numero);
+                }
+            }
+            case MARCACOES -> {
+                if (jogo != null) {
+                    String token = lerTexto(dados);
+                    long baixo = dados.getLong();
+                    jogo.marcas.put(token, new ConjuntoNumeros(baixo, dados.getLong()));
+                }
+            }
+            case PEDIDO -> {
+                // Um BINGO válido decide o jogo, mesmo que a paragem tenha vindo antes do fecho da janela
+                if (jogo != null) {
+                    String idCartao = lerTexto(dados);
+                    boolean bingo = dados.get() != 0;
+                    if (bingo && dados.get() != 0) jogo.cartoesBingo.add(idCartao);
+                }
+            }
+            case JOGO_TERMINADO -> {
+                if (jogo != null) jogo.terminado = true;
+            }
+            default -> {
+                // Tipos desconhecidos não alteram o estado do jogo
+            }
+        }
+    }
+
+    /**
+     * Reescreve o diário apenas com os jogos por terminar, através de um ficheiro temporário
+     * e de uma mudança de nome atómica (um ficheiro meio escrito nunca substitui o anterior)
+     */
+    private static void compactar(Path ficheiro, List<JogoRecuperado> jogos) throws IOException {
+        Path temporario = ficheiro.resolveSibling(ficheiro.getFileName() + ".tmp");
+        try (FileChannel saida = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream dados = new DataOutputStream(bytes);
+            dados.writeInt(MAGIA);
+            for (JogoRecuperado jogo : jogos) {
+                for (CartaoRecuperado cartao : jogo.cartoes.values()) {
+                    dados.write(codificarCartao(jogo.idSala, cartao.idCartao, cartao.token, cartao.nome, cartao.cartao));
+                }
+                dados.write(codificarJogoIniciado(jogo.idSala, jogo.idJogo, jogo.semente));
+                for (int i = 0; i < jogo.numSorteados; i++) {
+                    dados.write(codificarNumero(jogo.idSala, jogo.historico[i]));
+                }
+                for (Map.Entry<String, ConjuntoNumeros> marcas : jogo.marcas.entrySet()) {
+                    if (marcas.getValue().tamanho() > 0) {
+                        dados.write(codificarMarcacoes(jogo.idSala, marcas.getKey(), marcas.getValue()));
+                    }
+                }
+                for (String idCartao : jogo.cartoesBingo) {
+                    dados.write(codificarPedido(jogo.idSala, idCartao, true, true));
+                }
+            }
+            saida.write(ByteBuffer.wrap(bytes.toByteArray()));
+            saida.force(true);
+        }
+        try {
+            Files.move(temporario, ficheiro, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporario, ficheiro, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String lerTexto(ByteBuffer dados) {
+        byte[] bytes = new byte[dados.getShort() & 0xFFFF];
+        dados.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ------------------------------------------------------------------
+    // Codificação
+
+    private static byte[] codificarCartao(String sala, String idCartao, String token, String nome, Cartao cartao) {
+        Evento r = new Evento(CARTAO_EMITIDO);
+        r.texto(sala).texto(idCartao).texto(token).texto(nome);
+        for (int i = 0; i < Cartao.TAMANHO; i++) {
+            r.octeto(cartao.obterNumero(i));
+        }
+        return r.fechar();
+    }
+
+    private static byte[] codificarJogoIniciado(String sala, String idJogo, Long semente) {
+        Evento r = new Evento(JOGO_INICIADO);
+        r.texto(sala).texto(idJogo).octeto(semente != null ? 1 : 0);
+        if (semente != null) r.longo(semente);
+        return r.fechar();
+    }
+
+    private static byte[] codificarNumero(String sala, int numero) {
+        Evento r = new Evento(NUMERO_SORTEADO);
+        r.texto(sala).octeto(numero);
+        return r.fechar();
+    }
+
+    private static byte[] codificarMarca(String sala, String token, int numero, boolean marcada) {
+        Evento r = new Evento(marcada ? MARCA : DESMARCA);
+        r.texto(sala).texto(token).octeto(numero);
+        return r.fechar();
+    }
+
+    private static byte[] codificarPedido(String sala, String idCartao, boolean bingo, boolean valido) {
+        Evento r = new Evento(PEDIDO);
+        r.texto(sala).texto(idCartao).octeto(bingo ? 1 : 0).octeto(valido ? 1 : 0);
+        return r.fechar();
+    }
+
+    private static byte[] codificarMarcacoes(String sala, String token, ConjuntoNumeros marcas) {
+        Evento r = new Evento(MARCACOES);
+        r.texto(sala).texto(token).longo(marcas.obterBaixo()).longo(marcas.obterAlto());
+        return r.fechar();
+    }
+
+    /**
+     * Construtor de um evento: acumula os dados e acrescenta o cabeçalho com tamanho e CRC
+     */
+    private static final class Evento {
+        private final ByteArrayOutputStream dados = new ByteArrayOutputStream(64);
+
+        Evento(byte tipo) {
+            dados.write(tipo);
+        }
+
+        Evento texto(String texto) {
+            byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("Texto demasiado grande para o diário: " + bytes.length + " bytes");
+            }
+            dados.write(bytes.length >>> 8);
+            dados.write(bytes.length);
+            dados.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        Evento octeto(int valor) {
+            dados.write(valor);
+            return this;
+        }
+
+        Evento longo(long valor) {
+            for (int deslocamento = 56; deslocamento >= 0; deslocamento -= 8) {
+                dados.write((int) (valor >>> deslocamento));
+            }
+            return this;
+        }
+
+        byte[] fechar() {
+            byte[] corpo = dados.toByteArray();
+            if (corpo.length > MAX_DADOS) {
+                throw new IllegalArgumentException("Registo do diário demasiado grande: " + corpo.length + " bytes");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(corpo);
+            ByteBuffer registo = ByteBuffer.allocate(CABECALHO_REGISTO + corpo.length);
+            registo.putShort((short) corpo.length).putInt((int) crc.getValue()).put(corpo);
+            return registo.array();
+        }
+    }
+
+    /**
+     * Estado de um jogo por terminar, reconstruído a partir do diário
+     */
+    public static final class JogoRecuperado {
+        public final String idSala;
+        public final Map<String, CartaoRecuperado> cartoes = new LinkedHashMap<>(); // Por identificador de cartão
+        public final Map<String, ConjuntoNumeros> marcas = new HashMap<>(); // Por token de sessão do jogador
+        public final List<String> cartoesBingo = new ArrayList<>(); // Cartões com BINGO válido: o jogo está decidido
+        public final int[] historico = new int[ConjuntoNumeros.MAXIMO]; // Números pela ordem do sorteio
+        public int numSorteados;
+        public String idJogo; // Identificador do jogo (sala e número do jogo no servidor), usado para a semente
+        public Long semente; // null se o sorteio não for reprodutível
+        boolean iniciado;
+        boolean terminado;
+
+        JogoRecuperado(String idSala) {
+            this.idSala = idSala;
+        }
+    }
+
+    /**
+     * Cartão emitido num jogo por terminar, com o token de sessão do jogador a quem pertence
+     */
+    public static final class CartaoRecuperado {
+        public final String idCartao;
+        public final String token;
+        public final String nome;
+        public final Cartao cartao;
+
+        CartaoRecuperado(String idCartao, String token, String nome, Cartao cartao) {
+            this.idCartao = idCartao;
+            this.token = token;
+            this.nome = nome;
+            this.cartao = cartao;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Difusão dos acontecimentos das salas para espectadores por UDP multicast
+ * Cada sala publica num grupo multicast próprio, derivado do seu identificador: um sorteio, uma linha
+ * ou um bingo saem num único datagrama, seja qual for o número de espectadores. Os espectadores não
+ * ocupam lugares nas salas nem filas de saída no servidor.
+ *
+ * Datagrama: [MAGIA u8][sequência u32][tamanho do id u8][id da sala][trama do protocolo binário].
+ * A sequência é contínua em cada sala; um espectador que encontre um buraco pede as mensagens em falta
+ * por TCP (REPETIR:idSala:sequência), a partir das últimas HISTORICO publicações guardadas na sala.
+ *
+ * Ativada com -Dbingo.espectadores=grupoBase:porta (por exemplo 239.255.0.0:4446); os dois últimos bytes
+ * do grupo de cada sala vêm do hash do seu identificador. A interface é dada por
+ * -Dbingo.espectadores.interface (por omissão a de loopback) e o TTL por -Dbingo.espectadores.ttl (por omissão 1)
+ */
+public final class DifusaoEspectadores {
+    /** Primeiro byte de cada datagrama para espectadores */
+    public static final int MAGIA = 0xB5;
+    public static final int HISTORICO = 512; // Publicações guardadas por sala para reparar buracos (potência de 2)
+    private static final int TAMANHO_MAX_DATAGRAMA = 1400; // Cabe num pacote Ethernet sem fragmentar
+
+    private final DatagramChannel canal;
+    private final byte[] prefixoGrupo; // Dois primeiros bytes dos grupos das salas
+    private final int porta;
+    private final Metricas metricas;
+
+    /**
+     * Construtor - Abre o canal de envio (não precisa de se juntar aos grupos: só envia)
+     * @param grupoBase - Endereço multicast IPv4 cujos dois primeiros bytes são comuns a todas as salas
+     * @param porta - Porta UDP dos grupos
+     * @param interfaceRede - Interface por onde saem os datagramas
+     * @param ttl - Número de saltos dos datagramas (1 fica na rede local)
+     */
+    public DifusaoEspectadores(InetAddress grupoBase, int porta, NetworkInterface interfaceRede, int ttl,
+                               Metricas metricas) throws IOException {
+        if (!grupoBase.isMulticastAddress() || grupoBase.getAddress().length != 4) {
+            throw new IOException(grupoBase.getHostAddress() + " não é um endereço multicast IPv4");
+        }
+        this.prefixoGrupo = grupoBase.getAddress();
+        this.porta = porta;
+        this.metricas = metricas;
+        this.canal = DatagramChannel.open(StandardProtocolFamily.INET);
+        canal.setOption(StandardSocketOptions.IP_MULTICAST_IF, interfaceRede);
+        canal.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+        canal.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+        // Sem bloqueio: um buffer do sistema cheio descarta o datagrama em vez de prender a sala
+        canal.configureBlocking(false);
+    }
+
+    /**
+     * Cria a difusão configurada pelas propriedades do sistema
+     * @return null se os espectadores não estão ativados
+     */
+    public static DifusaoEspectadores doSistema(Metricas metricas) throws IOException {
+        String configuracao = System.getProperty("bingo.espectadores");
+        if (configuracao == null) {
+            return null;
+        }
+        int separador = configuracao.lastIndexOf(':');
+        if (separador < 0) {
+            throw new IOException("Formato esperado: grupoBase:porta (recebido " + configuracao + ")");
+        }
+        InetAddress grupo = InetAddress.getByName(configuracao.substring(0, separador));
+        int porta = Integer.parseInt(configuracao.substring(separador + 1));
+        String nomeInterface = System.getProperty("bingo.espectadores.interface");
+        NetworkInterface interfaceRede = nomeInterface != null
+                ? NetworkInterface.getByName(nomeInterface)
+                : NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        if (interfaceRede == null) {
+            throw new IOException("Interface de rede desconhecida: " + nomeInterface);
+        }
+        return new DifusaoEspectadores(grupo, porta, interfaceRede, Integer.getInteger("bingo.espectadores.ttl", 1), metricas);
+    }
+
+    /**
+     * Grupo multicast de uma sala
+     */
+    public InetSocketAddress grupoDaSala(String idSala) {
+        long hash = AnelConsistente.hash(idSala);
+        byte[] endereco = {prefixoGrupo[0], prefixoGrupo[1], (byte) (hash >>> 8), (byte) hash};
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(endereco), porta);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Quatro bytes formam sempre um endereço válido
+        }
+    }
+
+    /**
+     * Abre o canal de publicação de uma sala
+     */
+    public Canal abrirCanal(String idSala) {
+        return new Canal(idSala, grupoDaSala(idSala));
+    }
+
+    public void fechar() {
+        try {
+            canal.close();
+        } catch (IOException e) {
+            Registo.erro("Erro ao fechar a difusão para espectadores: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Publicações de uma sala: numera-as, envia-as para o grupo da sala e guarda as mais recentes
+     * Não é thread-safe: a sala só o usa com o seu trinco adquirido, o que também ordena as sequências
+     */
+    public final class Canal {
+        private final InetSocketAddress grupo;
+        private final byte[] cabecalho; // MAGIA, espaço para a sequência e o identificador da sala
+        private final Mensagem[] recentes = new Mensagem[HISTORICO];
+        private int sequencia; // Última sequência publicada (0 antes da primeira)
+
+        private Canal(String idSala, InetSocketAddress grupo) {
+            this.grupo = grupo;
+            byte[] id = idSala.getBytes(StandardCharsets.UTF_8);
+            this.cabecalho = new byte[1 + Integer.BYTES + 1 + id.length];
+            cabecalho[0] = (byte) MAGIA;
+            cabecalho[1 + Integer.BYTES] = (byte) id.length;
+            System.arraycopy(id, 0, cabecalho, 2 + Integer.BYTES, id.length);
+        }
+
+        /**
+         * Publica uma mensagem para os espectadores da sala
+         * Um datagrama perdido (na rede ou por buffer cheio) é recuperado com REPETIR
+         */
+        public void publicar(Mensagem mensagem) {
+            sequencia++;
+            recentes[sequencia & (HISTORICO - 1)] = mensagem;
+            byte[] trama = mensagem.trama();
+            if (cabecalho.length + trama.length > TAMANHO_MAX_DATAGRAMA) {
+                metricas.registarDatagramaEspectadores(false);
+                return;
+            }
+            ByteBuffer datagrama = ByteBuffer.allocate(cabecalho.length + trama.length);
+            datagrama.put(cabecalho).putInt(1, sequencia).put(trama).flip();
+            try {
+                metricas.registarDatagramaEspectadores(canal.send(datagrama, grupo) > 0);
+            } catch (IOException e) {
+                metricas.registarDatagramaEspectadores(false);
+                Registo.depuracao(() -> "Datagrama para espectadores não enviado: " + e.getMessage());
+            }
+        }
+
+        public InetSocketAddress obterGrupo() {
+            return grupo;
+        }
+
+        public int obterSequencia() {
+            return sequencia;
+        }
+
+        /**
+         * Obtém uma publicação ainda guardada
+         * @return a mensagem, ou null se a sequência for futura ou já tiver saído do histórico
+         */
+        public Mensagem obter(int sequencia) {
+            if (sequencia < 1 || sequencia > this.sequencia || sequencia <= this.sequencia - HISTORICO) {
+                return null;
+            }
+            return recentes[sequencia & (HISTORICO - 1)];
+        }
+    }
+}
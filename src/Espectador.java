@@ -0,0 +1,250 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Espectador de uma sala, sem interface gráfica: segue os sorteios, linhas e bingos pelo grupo multicast da sala
+ * Só usa TCP para se sincronizar (ESPECTAR) e para recuperar as publicações que faltam (REPETIR);
+ * fecha a ligação logo a seguir, pelo que um espectador não custa nada ao servidor enquanto não perder datagramas.
+ *
+ * Uso: java Espectador --sala id [--anfitriao h] [--porta p] [--interface nome] [--duracao segundos]
+ *                      [--perda 0..1]  (descarta datagramas de propósito, para exercitar a reparação)
+ */
+public class Espectador {
+    private static final int TEMPO_LIMITE_TCP_MS = 2000;
+    private static final long SILENCIO_MS = 12000; // Sem datagramas há tanto tempo: pode ter-se perdido o último
+
+    private String anfitriao = "127.0.0.1";
+    private int porta = 12345;
+    private String idSala;
+    private String nomeInterface;
+    private int duracaoSegundos = 600;
+    private double probPerda = 0.0;
+
+    private InetSocketAddress grupo; // Grupo multicast da sala
+    private int esperada = 1;    // Próxima sequência a mostrar
+    private long recebidosMulticast;
+    private long recuperadosTcp;
+    private long descartados;
+    private long duplicados;
+    private long reparacoes;
+    private boolean terminado;
+
+    public static void main(String[] args) throws IOException {
+        Espectador espectador = new Espectador();
+        try {
+            espectador.lerArgumentos(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Uso: java Espectador --sala id [--anfitriao h] [--porta p] [--interface nome] "
+                    + "[--duracao segundos] [--perda 0..1]");
+            return;
+        }
+        espectador.executar();
+    }
+
+    private void lerArgumentos(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Falta o valor de " + args[i]);
+            }
+            String valor = args[++i];
+            switch (args[i - 1]) {
+                case "--anfitriao": anfitriao = valor; break;
+                case "--porta": porta = Integer.parseInt(valor); break;
+                case "--sala": idSala = valor; break;
+                case "--interface": nomeInterface = valor; break;
+                case "--duracao": duracaoSegundos = Integer.parseInt(valor); break;
+                case "--perda": probPerda = Double.parseDouble(valor); break;
+                default: throw new IllegalArgumentException("Opção desconhecida: " + args[i - 1]);
+            }
+        }
+        if (idSala == null) {
+            throw new IllegalArgumentException("Falta a sala a seguir (--sala)");
+        }
+    }
+
+    /**
+     * Sincroniza-se, junta-se ao grupo da sala e mostra as publicações por ordem até ao fim do jogo ou da duração
+     */
+    private void executar() throws IOException {
+        grupo = sincronizar();
+        if (grupo == null) return;
+        NetworkInterface interfaceRede = nomeInterface != null
+                ? NetworkInterface.getByName(nomeInterface)
+                : NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        try (DatagramChannel canal = DatagramChannel.open(StandardProtocolFamily.INET)) {
+            canal.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            canal.bind(new InetSocketAddress(grupo.getPort()));
+            canal.join(grupo.getAddress(), interfaceRede);
+            System.out.println("A seguir a sala " + idSala + " no grupo " + grupo.getAddress().getHostAddress() + ":" + grupo.getPort());
+
+            // Lê pelo socket do canal, que respeita o tempo limite (a receção do próprio canal bloqueia sem limite)
+            DatagramPacket pacote = new DatagramPacket(new byte[2048], 2048);
+            canal.socket().setSoTimeout(1000);
+            long fim = System.nanoTime() + duracaoSegundos * 1_000_000_000L;
+            long ultimoDatagrama = System.nanoTime();
+            while (!terminado && System.nanoTime() < fim) {
+                try {
+                    canal.socket().receive(pacote);
+                } catch (SocketTimeoutException e) {
+                    // Um buraco só se nota no datagrama seguinte; depois de um silêncio longo (com uma parte
+                    // aleatória, para os espectadores não perguntarem todos ao mesmo tempo) confirma-se por TCP
+                    if (System.nanoTime() - ultimoDatagrama > (SILENCIO_MS + ThreadLocalRandom.current().nextLong(3000)) * 1_000_000L) {
+                        reparar(Integer.MAX_VALUE);
+                        ultimoDatagrama = System.nanoTime();
+                    }
+                    continue;
+                }
+                ultimoDatagrama = System.nanoTime();
+                receberDatagrama(ByteBuffer.wrap(pacote.getData(), 0, pacote.getLength()));
+            }
+        }
+        System.out.printf("Espectador terminado: %d publicações por multicast, %d recuperadas por TCP em %d reparações "
+                + "(%d datagramas descartados de propósito, %d duplicados)%n",
+                recebidosMulticast, recuperadosTcp, reparacoes, descartados, duplicados);
+    }
+
+    /**
+     * Lê um datagrama da sala; um buraco na sequência é reparado por TCP antes de mostrar este
+     */
+    private void receberDatagrama(ByteBuffer datagrama) throws IOException {
+        if (datagrama.remaining() < 6 || (datagrama.get() & 0xFF) != DifusaoEspectadores.MAGIA) return;
+        int sequencia = datagrama.getInt();
+        byte[] id = new byte[datagrama.get() & 0xFF];
+        if (datagrama.remaining() < id.length + 3) return;
+        datagrama.get(id);
+        if (!idSala.equals(new String(id, StandardCharsets.UTF_8))) return; // Outra sala no mesmo grupo
+        if (probPerda > 0 && ThreadLocalRandom.current().nextDouble() < probPerda) {
+            descartados++;
+            return;
+        }
+        if (sequencia < esperada) {
+            duplicados++;
+            return;
+        }
+        if (sequencia > esperada) {
+            reparar(sequencia);
+            if (terminado || sequencia < esperada) return; // A reparação já trouxe este (ou já não há sala)
+        }
+        datagrama.position(datagrama.position() + 2); // Tamanho da trama
+        byte[] trama = new byte[datagrama.remaining()];
+        datagrama.get(trama);
+        recebidosMulticast++;
+        mostrar(sequencia, textoDaTrama(trama));
+    }
+
+    /**
+     * Pede por TCP as publicações desde a esperada até à última publicada (pelo menos até à anterior à recebida)
+     * O servidor repete um número limitado de publicações por pedido; os pedidos repetem-se na mesma ligação
+     * até chegar à recebida ou até o servidor não ter mais nada para repetir
+     */
+    private void reparar(int recebida) throws IOException {
+        reparacoes++;
+        try (Socket socket = new Socket(anfitriao, porta)) {
+            socket.setSoTimeout(TEMPO_LIMITE_TCP_MS);
+            BufferedReader leitor = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            int repetidas;
+            do {
+                enviar(socket.getOutputStream(), "REPETIR:" + idSala + ":" + esperada);
+                repetidas = 0;
+                String linha;
+                while ((linha = leitor.readLine()) != null && !linha.startsWith("REPETIDO_FIM:")) {
+                    if (linha.startsWith("ERRO:")) {
+                        System.out.println("Reparação recusada (" + linha + "); a sincronizar de novo");
+                        InetSocketAddress novo = sincronizar();
+                        if (!grupo.equals(novo)) {
+                            // Sem sala, ou a sala passou para outro grupo: este grupo já não a segue
+                            System.err.println("Não foi possível voltar a seguir a sala " + idSala + "; a terminar");
+                            terminado = true;
+                        }
+                        return;
+                    }
+                    if (!linha.startsWith("REPETIDO:")) continue;
+                    repetidas++;
+                    int separador = linha.indexOf(':', "REPETIDO:".length());
+                    int sequencia = Integer.parseInt(linha.substring("REPETIDO:".length(), separador));
+                    if (sequencia >= esperada) {
+                        recuperadosTcp++;
+                        mostrar(sequencia, linha.substring(separador + 1));
+                    }
+                }
+                if (linha == null) return;
+            } while (repetidas > 0 && esperada < recebida);
+        }
+    }
+
+    /**
+     * Pede por TCP o grupo da sala e o estado do jogo
+     * @return grupo multicast da sala, ou null se o servidor recusar
+     */
+    private InetSocketAddress sincronizar() throws IOException {
+        try (Socket socket = new Socket(anfitriao, porta)) {
+            socket.setSoTimeout(TEMPO_LIMITE_TCP_MS);
+            BufferedReader leitor = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            enviar(socket.getOutputStream(), "ESPECTAR:" + idSala);
+            InetSocketAddress grupo = null;
+            String linha;
+            while ((linha = leitor.readLine()) != null) {
+                if (linha.startsWith("ERRO:")) {
+                    System.err.println(linha.substring("ERRO:".length()));
+                    return null;
+                }
+                if (linha.startsWith("ESPECTADOR:")) {
+                    // ESPECTADOR:idSala:grupo:porta:sequência (o id da sala pode ter ':', lê-se do fim)
+                    String[] campos = linha.split(":");
+                    int n = campos.length;
+                    grupo = new InetSocketAddress(campos[n - 3], Integer.parseInt(campos[n - 2]));
+                    esperada = Integer.parseInt(campos[n - 1]) + 1;
+                } else if (linha.startsWith("ESTADO:")) {
+                    String[] campos = linha.split(":");
+                    System.out.println("Estado da sala " + idSala + ": " + campos[1] + " números sorteados");
+                    return grupo;
+                }
+            }
+            return null;
+        }
+    }
+
+    private void mostrar(int sequencia, String texto) {
+        esperada = sequencia + 1;
+        System.out.println("[" + sequencia + "] " + texto);
+        if (texto.startsWith("FIM_DE_JOGO:")) {
+            terminado = true;
+        }
+    }
+
+    private static void enviar(OutputStream saida, String linha) throws IOException {
+        saida.write((linha + "\n").getBytes(StandardCharsets.UTF_8));
+        saida.flush();
+    }
+
+    /**
+     * Texto equivalente das tramas que as salas publicam para os espectadores
+     */
+    private static String textoDaTrama(byte[] trama) {
+        int codigo = trama[0] & 0xFF;
+        String dados = ProtocoloBinario.texto(trama, 1, trama.length);
+        switch (codigo) {
+            case ProtocoloBinario.NUMERO_SORTEADO: return "NUMERO_SORTEADO:" + (trama[1] & 0xFF);
+            case ProtocoloBinario.JOGO_INICIADO: return "JOGO_INICIADO:" + dados;
+            case ProtocoloBinario.LINHA_VALIDA: return "LINHA_VALIDA:" + dados;
+            case ProtocoloBinario.BINGO_OUTROS: return "BINGO_OUTROS:" + dados;
+            case ProtocoloBinario.FIM_DE_JOGO: return "FIM_DE_JOGO:" + dados;
+            default: return dados;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Fonte dos números sorteados num jogo
+ * Cada sala tem a sua própria fonte, pelo que o sorteio nunca disputa estado com outras salas
+ */
+public interface FonteSorteio {
+    /**
+     * Verifica se ainda há números por sortear
+     */
+    boolean temProximo();
+
+    /**
+     * Obtém o próximo número sorteado, em tempo constante
+     * @throws java.util.NoSuchElementException se todos os números já foram sorteados
+     */
+    int proximo();
+
+    /**
+     * Dá um número como já sorteado, sem o devolver (usado ao retomar um jogo a partir do diário)
+     * Com a mesma semente e os números pela ordem original, a fonte continua exatamente onde parou
+     */
+    void retomar(int numero);
+
+    /**
+     * Obtém a semente que permite repetir este sorteio, ou null se a fonte não for reprodutível
+     */
+    Long obterSemente();
+}
@@ -0,0 +1,365 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Gerador de carga sem interface gráfica: simula milhares de jogadores a partir de uma só JVM
+ * Todas as sessões são multiplexadas num único selector e falam o protocolo de texto
+ * (SALA:, PRONTO:, MARCAR:, LINHA, BINGO), tal como o BingoClient.
+ *
+ * Mede:
+ * - atraso de receção de cada sorteio: tempo desde o primeiro jogador da sala a receber o número
+ *   até cada um dos outros (o servidor não envia a hora do sorteio, por isso mede-se o espalhamento da difusão)
+ * - tempo de ida e volta dos pedidos de LINHA e BINGO
+ * - erros recebidos, pedidos inválidos e ligações perdidas
+ *
+ * Uso: java GeradorCarga [--anfitriao h] [--porta p] [--bots n] [--por-sala k] [--duracao segundos]
+ *                        [--prob-marcar 0..1] [--prob-pedido-falso 0..1]
+ */
+public class GeradorCarga {
+    // Configuração (valores por omissão para um servidor local)
+    private String anfitriao = "127.0.0.1";
+    private int porta = 12345;
+    private int numBots = 1000;
+    private int botsPorSala = Sala.MAX_JOGADORES;
+    private int duracaoSegundos = 120;
+    private double probMarcar = 1.0;       // Probabilidade de marcar um número sorteado que está no cartão
+    private double probPedidoFalso = 0.0;  // Probabilidade, por sorteio, de pedir LINHA sem a ter
+
+    // Estado partilhado pelas sessões (só acedido pela thread do selector)
+    private final Map<String, List<Long>> primeiraChegadaPorSala = new HashMap<>();
+    private final Amostras atrasosSorteio = new Amostras();
+    private final Amostras temposLinha = new Amostras();
+    private final Amostras temposBingo = new Amostras();
+    private long sorteiosRecebidos;
+    private long pedidosValidos;
+    private long pedidosInvalidos;
+    private long errosRecebidos;
+    private long mensagensEnviadas;
+    private long ligacoesFalhadas;
+    private long ligacoesPerdidas;
+    private int botsNaSala;
+    private final Set<String> salasTerminadas = new HashSet<>();
+
+    public static void main(String[] args) throws IOException {
+        GeradorCarga gerador = new GeradorCarga();
+        try {
+            gerador.lerArgumentos(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Uso: java GeradorCarga [--anfitriao h] [--porta p] [--bots n] [--por-sala k] "
+                    + "[--duracao segundos] [--prob-marcar 0..1] [--prob-pedido-falso 0..1]");
+            return;
+        }
+        gerador.executar();
+    }
+
+    private void lerArgumentos(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Falta o valor de " + args[i]);
+            }
+            String valor = args[++i];
+            switch (args[i - 1]) {
+                case "--anfitriao": anfitriao = valor; break;
+                case "--porta": porta = Integer.parseInt(valor); break;
+                case "--bots": numBots = Integer.parseInt(valor); break;
+                case "--por-sala": botsPorSala = Integer.parseInt(valor); break;
+                case "--duracao": duracaoSegundos = Integer.parseInt(valor); break;
+                case "--prob-marcar": probMarcar = Double.parseDouble(valor); break;
+                case "--prob-pedido-falso": probPedidoFalso = Double.parseDouble(valor); break;
+                default: throw new IllegalArgumentException("Opção desconhecida: " + args[i - 1]);
+            }
+        }
+        if (botsPorSala < Sala.MIN_JOGADORES || botsPorSala > Sala.MAX_JOGADORES) {
+            throw new IllegalArgumentException("--por-sala tem de estar entre " + Sala.MIN_JOGADORES + " e " + Sala.MAX_JOGADORES);
+        }
+    }
+
+    /**
+     * Liga todos os bots, corre o ciclo de eventos até ao fim da duração ou dos jogos e mostra o relatório
+     */
+    private void executar() throws IOException {
+        System.out.println("A ligar " + numBots + " bots a " + anfitriao + ":" + porta
+                + " (" + botsPorSala + " por sala, duração máxima " + duracaoSegundos + " s)");
+        Selector seletor = Selector.open();
+        List<Bot> bots = new ArrayList<>(numBots);
+        long inicio = System.nanoTime();
+        for (int i = 0; i < numBots; i++) {
+            try {
+                SocketChannel canal = SocketChannel.open(new InetSocketAddress(anfitriao, porta));
+                canal.configureBlocking(false);
+                Bot bot = new Bot(i, "carga-" + (i / botsPorSala), canal);
+                bot.chave = canal.register(seletor, SelectionKey.OP_READ, bot);
+                bots.add(bot);
+            } catch (IOException e) {
+                ligacoesFalhadas++;
+            }
+        }
+        System.out.printf("%d bots ligados em %d ms (%d falhas)%n",
+                bots.size(), (System.nanoTime() - inicio) / 1_000_000, ligacoesFalhadas);
+
+        // Cada bot muda para a sala do seu grupo; só ficam prontos depois de todos terem entrado,
+        // porque uma sala começa o jogo assim que todos os que lá estão ficam prontos
+        for (Bot bot : bots) {
+            bot.enviar("SALA:" + bot.sala);
+        }
+        boolean prontosEnviados = false;
+        long limiteEntrada = System.nanoTime() + 30_000_000_000L;
+
+        int numSalas = (bots.size() + botsPorSala - 1) / botsPorSala;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long limite = System.nanoTime() + duracaoSegundos * 1_000_000_000L;
+        long proximoProgresso = System.nanoTime() + 10_000_000_000L;
+        while (System.nanoTime() < limite && salasTerminadas.size() < numSalas && !seletor.keys().isEmpty()) {
+            seletor.select(500);
+            Iterator<SelectionKey> chaves = seletor.selectedKeys().iterator();
+            while (chaves.hasNext()) {
+                SelectionKey chave = chaves.next();
+                chaves.remove();
+                Bot bot = (Bot) chave.attachment();
+                try {
+                    if (chave.isValid() && chave.isWritable()) {
+                        bot.escreverPendentes();
+                    }
+                    if (chave.isValid() && chave.isReadable()) {
+                        bot.ler(buffer);
+                    }
+                } catch (IOException e) {
+                    bot.perder();
+                }
+            }
+            if (!prontosEnviados && (botsNaSala == bots.size() || System.nanoTime() > limiteEntrada)) {
+                prontosEnviados = true;
+                System.out.println(botsNaSala + " bots nas salas. A enviar PRONTO...");
+                for (Bot bot : bots) {
+                    if (bot.naSala && !bot.terminado) {
+                        bot.enviar("PRONTO:" + bot.nome);
+                    }
+                }
+            }
+            if (System.nanoTime() >= proximoProgresso) {
+                proximoProgresso += 10_000_000_000L;
+                System.out.printf("... %d sorteios recebidos, %d jogos terminados de %d%n",
+                        sorteiosRecebidos, salasTerminadas.size(), numSalas);
+            }
+        }
+
+        for (Bot bot : bots) {
+            bot.canal.close();
+        }
+        seletor.close();
+        relatorio(bots.size(), numSalas);
+    }
+
+    private void relatorio(int botsLigados, int numSalas) {
+        System.out.println();
+        System.out.println("=== Relatório de carga ===");
+        System.out.printf("bots ligados: %d, falhas de ligação: %d, ligações perdidas: %d%n",
+                botsLigados, ligacoesFalhadas, ligacoesPerdidas);
+        System.out.printf("jogos terminados: %d de %d, sorteios recebidos: %d%n", salasTerminadas.size(), numSalas, sorteiosRecebidos);
+        System.out.printf("%-26s %8s %10s %10s %10s %10s%n", "", "amostras", "p50(ms)", "p90(ms)", "p99(ms)", "max(ms)");
+        imprimir("atraso de receção sorteio", atrasosSorteio);
+        imprimir("ida e volta LINHA", temposLinha);
+        imprimir("ida e volta BINGO", temposBingo);
+        System.out.printf("pedidos: %d válidos, %d inválidos; mensagens ERRO: %d (%.3f%% das %d mensagens enviadas)%n",
+                pedidosValidos, pedidosInvalidos, errosRecebidos,
+                100.0 * errosRecebidos / Math.max(1, mensagensEnviadas), mensagensEnviadas);
+    }
+
+    private static void imprimir(String nome, Amostras amostras) {
+        System.out.printf("%-26s %8d %10.2f %10.2f %10.2f %10.2f%n", nome, amostras.tamanho,
+                amostras.percentil(0.50), amostras.percentil(0.90), amostras.percentil(0.99), amostras.percentil(1.0));
+    }
+
+    /**
+     * Sessão de um jogador simulado
+     */
+    private class Bot {
+        final int indice;
+        final String sala;
+        final String nome;
+        final SocketChannel canal;
+        SelectionKey chave;
+        final Deque<ByteBuffer> pendentes = new ArrayDeque<>();
+        byte[] linha = new byte[256];
+        int tamanhoLinha;
+
+        Cartao cartao;
+        final ConjuntoNumeros marcados = new ConjuntoNumeros();
+        int sorteiosVistos;
+        long inicioPedidoLinha; // 0 se não houver pedido pendente
+        long inicioPedidoBingo;
+        boolean linhaFeita;
+        boolean naSala;
+        boolean terminado;
+
+        Bot(int indice, String sala, SocketChannel canal) {
+            this.indice = indice;
+            this.sala = sala;
+            this.nome = "bot" + indice;
+            this.canal = canal;
+        }
+
+        void enviar(String mensagem) throws IOException {
+            mensagensEnviadas++;
+            pendentes.add(ByteBuffer.wrap((mensagem + "\n").getBytes(StandardCharsets.UTF_8)));
+            escreverPendentes();
+        }
+
+        void escreverPendentes() throws IOException {
+            while (!pendentes.isEmpty()) {
+                ByteBuffer buffer = pendentes.peek();
+                canal.write(buffer);
+                if (buffer.hasRemaining()) {
+                    chave.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                pendentes.poll();
+            }
+            chave.interestOps(SelectionKey.OP_READ);
+        }
+
+        void ler(ByteBuffer buffer) throws IOException {
+            buffer.clear();
+            int lidos = canal.read(buffer);
+            if (lidos < 0) {
+                perder();
+                return;
+            }
+            long chegada = System.nanoTime();
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    tratar(new String(linha, 0, tamanhoLinha, StandardCharsets.UTF_8), chegada);
+                    tamanhoLinha = 0;
+                } else {
+                    if (tamanhoLinha == linha.length) linha = Arrays.copyOf(linha, linha.length * 2);
+                    linha[tamanhoLinha++] = b;
+                }
+            }
+        }
+
+        void perder() {
+            if (!terminado) {
+                ligacoesPerdidas++;
+                terminado = true;
+            }
+            chave.cancel();
+            try {
+                canal.close();
+            } catch (IOException e) {
+                // Já fechado
+            }
+        }
+
+        /**
+         * Reage a uma mensagem do servidor como um jogador real, mas sem pausas
+         */
+        void tratar(String mensagem, long chegada) throws IOException {
+            if (mensagem.startsWith("NUMERO_SORTEADO:")) {
+                tratarNumero(Integer.parseInt(mensagem.substring("NUMERO_SORTEADO:".length())), chegada);
+            } else if (mensagem.startsWith("CARTAO:")) {
+                String[] numeros = mensagem.split(":", 3)[2].split(",");
+                int[] valores = new int[Cartao.TAMANHO];
+                for (int i = 0; i < Cartao.TAMANHO; i++) {
+                    valores[i] = Integer.parseInt(numeros[i]);
+                }
+                cartao = new Cartao(valores);
+            } else if (mensagem.startsWith("LINHA_VALIDA:")) {
+                if (inicioPedidoLinha != 0 && mensagem.endsWith(":" + nome)) {
+                    temposLinha.registar(chegada - inicioPedidoLinha);
+                    inicioPedidoLinha = 0;
+                    pedidosValidos++;
+                }
+            } else if (mensagem.equals("LINHA_INVALIDA")) {
+                if (inicioPedidoLinha != 0) {
+                    temposLinha.registar(chegada - inicioPedidoLinha);
+                    inicioPedidoLinha = 0;
+                }
+                pedidosInvalidos++;
+            } else if (mensagem.equals("BINGO_VALIDO") || mensagem.equals("BINGO_INVALIDO")) {
+                if (inicioPedidoBingo != 0) {
+                    temposBingo.registar(chegada - inicioPedidoBingo);
+                    inicioPedidoBingo = 0;
+                }
+                if (mensagem.equals("BINGO_VALIDO")) {
+                    pedidosValidos++;
+                    terminar();
+                } else {
+                    pedidosInvalidos++;
+                }
+            } else if (mensagem.startsWith("BINGO_OUTROS:") || mensagem.startsWith("FIM_DE_JOGO:")) {
+                terminar();
+            } else if (mensagem.startsWith("SALA:")) {
+                naSala = true;
+                botsNaSala++;
+            } else if (mensagem.startsWith("ERRO:")) {
+                errosRecebidos++;
+            }
+        }
+
+        void tratarNumero(int numero, long chegada) throws IOException {
+            sorteiosRecebidos++;
+            // O primeiro bot da sala a receber o sorteio k define a referência dos restantes
+            List<Long> chegadas = primeiraChegadaPorSala.computeIfAbsent(sala, s -> new ArrayList<>());
+            if (chegadas.size() == sorteiosVistos) {
+                chegadas.add(chegada);
+            }
+            atrasosSorteio.registar(chegada - chegadas.get(sorteiosVistos));
+            sorteiosVistos++;
+
+            if (cartao == null || terminado) return;
+            ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+            if (cartao.contem(numero) && aleatorio.nextDouble() < probMarcar) {
+                marcados.adicionar(numero);
+                enviar("MARCAR:" + numero);
+            }
+            if (inicioPedidoBingo == 0 && cartao.completo(marcados.obterBaixo(), marcados.obterAlto())) {
+                inicioPedidoBingo = System.nanoTime();
+                enviar("BINGO");
+            } else if (!linhaFeita && inicioPedidoLinha == 0
+                    && cartao.primeiraLinhaCompleta(marcados.obterBaixo(), marcados.obterAlto()) >= 0) {
+                linhaFeita = true;
+                inicioPedidoLinha = System.nanoTime();
+                enviar("LINHA");
+            } else if (inicioPedidoLinha == 0 && aleatorio.nextDouble() < probPedidoFalso) {
+                inicioPedidoLinha = System.nanoTime();
+                enviar("LINHA");
+            }
+        }
+
+        void terminar() {
+            terminado = true;
+            salasTerminadas.add(sala);
+        }
+    }
+
+    /**
+     * Amostras de tempo em nanossegundos, com percentis calculados no fim
+     */
+    private static class Amostras {
+        long[] valores = new long[1024];
+        int tamanho;
+
+        void registar(long nanos) {
+            if (tamanho == valores.length) valores = Arrays.copyOf(valores, valores.length * 2);
+            valores[tamanho++] = nanos;
+        }
+
+        double percentil(double p) {
+            if (tamanho == 0) return Double.NaN;
+            long[] ordenadas = Arrays.copyOf(valores, tamanho);
+            Arrays.sort(ordenadas);
+            int indice = (int) Math.min(tamanho - 1, Math.ceil(p * tamanho) - 1);
+            return ordenadas[Math.max(0, indice)] / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.random.RandomGenerator;
+
+/**
+ * Gerador de cartões e identificadores partilhado por todas as salas do servidor
+ * Uma thread de fundo mantém uma reserva de cartões prontos, de forma que emitir um cartão no PRONTO
+ * é apenas retirar um elemento da fila. Se a reserva se esgotar, o cartão é gerado na própria thread
+ * do cliente, sem trincos: cada thread baralha o seu próprio array de números com ThreadLocalRandom
+ */
+public class GeradorCartoes {
+    public static final int CAPACIDADE_RESERVA = 4096;
+
+    // Permutação de 1 a 99 de cada thread; continua a ser uma permutação depois de cada baralhamento
+    private static final ThreadLocal<int[]> PERMUTACAO = ThreadLocal.withInitial(GeradorCartoes::novaPermutacao);
+    private static final char[] HEXADECIMAL = "0123456789abcdef".toCharArray();
+
+    private final BlockingQueue<Cartao> reserva;
+    private final AtomicInteger contadorIds = new AtomicInteger();
+    private final int chaveIds = ThreadLocalRandom.current().nextInt(); // Ids diferentes em cada arranque
+    private final Thread threadReserva;
+
+    /**
+     * Construtor - Cria o gerador e arranca a thread que enche a reserva
+     * @param capacidade - Número máximo de cartões prontos em reserva
+     */
+    public GeradorCartoes(int capacidade) {
+        reserva = new ArrayBlockingQueue<>(capacidade);
+        threadReserva = new Thread(this::encherReserva, "gerador-cartoes");
+        threadReserva.setDaemon(true);
+        threadReserva.start();
+    }
+
+    /**
+     * Obtém um cartão novo, da reserva se houver, senão gerado na thread que o pede
+     */
+    public Cartao obterCartao() {
+        Cartao cartao = reserva.poll();
+        return cartao != null ? cartao : gerarCartao();
+    }
+
+    /**
+     * Gera um cartão com 25 números únicos entre 1 e 99
+     * Baralha só as primeiras 25 posições da permutação da thread (Fisher-Yates parcial), sem repetições nem objetos intermédios
+     */
+    public static Cartao gerarCartao() {
+        int[] numeros = new int[Cartao.TAMANHO];
+        sortearNumeros(PERMUTACAO.get(), ThreadLocalRandom.current(), numeros);
+        return new Cartao(numeros);
+    }
+
+    /**
+     * Sorteia os 25 números de um cartão para um array já existente (a regra de gerarCartao, sem criar objetos)
+     * @param permutacao - Permutação de 1 a 99, baralhada no lugar (continua a ser uma permutação)
+     * @param aleatorio - Gerador usado no baralhamento
+     * @param numeros - Destino dos 25 números, por linhas
+     */
+    public static void sortearNumeros(int[] permutacao, RandomGenerator aleatorio, int[] numeros) {
+        for (int i = 0; i < Cartao.TAMANHO; i++) {
+            int j = i + aleatorio.nextInt(permutacao.length - i);
+            int numero = permutacao[j];
+            permutacao[j] = permutacao[i];
+            permutacao[i] = numero;
+            numeros[i] = numero;
+        }
+    }
+
+    /**
+     * Cria uma permutação ordenada de 1 a 99, para usar com sortearNumeros
+     */
+    public static int[] novaPermutacao() {
+        int[] numeros = new int[ConjuntoNumeros.MAXIMO];
+        for (int i = 0; i < numeros.length; i++) {
+            numeros[i] = i + 1;
+        }
+        return numeros;
+    }
+
+    /**
+     * Gera um identificador de cartão com 8 dígitos hexadecimais, único neste servidor
+     * Um contador atómico passa por uma mistura bijetiva de 32 bits, pelo que os primeiros
+     * 2^32 identificadores nunca se repetem e não seguem uma ordem visível
+     */
+    public String gerarId() {
+        int x = contadorIds.getAndIncrement() + chaveIds;
+        x *= 0x9E3779B1;
+        x ^= x >>> 16;
+        x *= 0x85EBCA6B;
+        x ^= x >>> 13;
+        char[] id = new char[8];
+        for (int i = 7; i >= 0; i--) {
+            id[i] = HEXADECIMAL[x & 0xF];
+            x >>>= 4;
+        }
+        return new String(id);
+    }
+
+    /**
+     * Para a thread que enche a reserva
+     */
+    public void parar() {
+        threadReserva.interrupt();
+    }
+
+    private void encherReserva() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                reserva.put(gerarCartao());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de valores inteiros com baldes log-lineares (ao estilo HDR)
+ * Cada potência de 2 é dividida em 8 baldes, o que dá uma precisão relativa de 12,5%
+ * com um array fixo de contadores. Registar é uma soma atómica sem trincos nem objetos novos
+ */
+public final class Histograma {
+    private static final int SUB_BALDES = 8;
+    private static final int BITS_SUB_BALDES = 3;
+    private static final int MAX_EXPOENTE = 62;
+    private static final int NUM_BALDES = (MAX_EXPOENTE - 1) * SUB_BALDES;
+
+    private final AtomicLongArray baldes = new AtomicLongArray(NUM_BALDES);
+    private final LongAdder contagem = new LongAdder();
+    private final LongAdder soma = new LongAdder();
+    private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Regista um valor (valores negativos contam como 0)
+     */
+    public void registar(long valor) {
+        if (valor < 0) valor = 0;
+        baldes.incrementAndGet(indice(valor));
+        contagem.increment();
+        soma.add(valor);
+        maximo.accumulate(valor);
+    }
+
+    public long obterContagem() {
+        return contagem.sum();
+    }
+
+    public long obterSoma() {
+        return soma.sum();
+    }
+
+    public long obterMaximo() {
+        return maximo.get();
+    }
+
+    public double obterMedia() {
+        long n = contagem.sum();
+        return n == 0 ? 0.0 : (double) soma.sum() / n;
+    }
+
+    /**
+     * Obtém o percentil p (entre 0 e 1) como o limite superior do balde onde cai
+     */
+    public long percentil(double p) {
+        long[] copia = new long[NUM_BALDES];
+        long total = 0;
+        for (int i = 0; i < NUM_BALDES; i++) {
+            copia[i] = baldes.get(i);
+            total += copia[i];
+        }
+        if (total == 0) return 0;
+        long alvo = Math.max(1, (long) Math.ceil(p * total));
+        long acumulado = 0;
+        for (int i = 0; i < NUM_BALDES; i++) {
+            acumulado += copia[i];
+            if (acumulado >= alvo) {
+                return Math.min(limiteSuperior(i), maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+
+    private static int indice(long valor) {
+        if (valor < SUB_BALDES) return (int) valor;
+        int expoente = 63 - Long.numberOfLeadingZeros(valor);
+        int sub = (int) (valor >>> (expoente - BITS_SUB_BALDES)) & (SUB_BALDES - 1);
+        return (expoente - BITS_SUB_BALDES + 1) * SUB_BALDES + sub;
+    }
+
+    private static long limiteSuperior(int indice) {
+        if (indice < SUB_BALDES) return indice;
+        int expoente = indice / SUB_BALDES + BITS_SUB_BALDES - 1;
+        int sub = indice % SUB_BALDES;
+        return ((long) (SUB_BALDES + sub + 1) << (expoente - BITS_SUB_BALDES)) - 1;
+    }
+}
@@ -0,0 +1,293 @@
+import java.util.Arrays;
+
+/**
+ * Índice invertido dos cartões de uma sala: para cada número, as posições (cartão, célula) onde aparece
+ * Mantém por cartão a máscara de 25 bits das células sorteadas, de forma que cada sorteio só toca
+ * nos cartões que contêm o número e sabe de imediato, com os padrões da sala, quais completaram
+ * um padrão de LINHA ou de BINGO.
+ * Os cartões são guardados por colunas: os números de todos os cartões seguidos num único array de bytes
+ * (25 por cartão) e, em arrays paralelos, a máscara de números e a de acertos de cada cartão. Um jogador
+ * com centenas de cartões é validado percorrendo memória contígua, sem criar objetos.
+ * Todos os dados são guardados em arrays primitivos; não é thread-safe (a sala protege-o com o seu trinco)
+ */
+public class IndiceCartoes {
+    private static final int CAPACIDADE_INICIAL = 16;
+
+    // Posições de cada número, codificadas como cartao * 25 + celula
+    private final int[][] posicoesPorNumero = new int[ConjuntoNumeros.MAXIMO + 1][];
+    private final int[] numPosicoes = new int[ConjuntoNumeros.MAXIMO + 1];
+
+    // Padrões de vitória da sala
+    private final PadroesVitoria padroesLinha;
+    private final PadroesVitoria padroesBingo;
+
+    // Estado por cartão, em colunas
+    private byte[] celulas = new byte[CAPACIDADE_INICIAL * Cartao.TAMANHO]; // Números do cartão i em [i * 25, i * 25 + 25)
+    private long[] numerosBaixo = new long[CAPACIDADE_INICIAL]; // Máscara dos números 1-63 de cada cartão
+    private long[] numerosAlto = new long[CAPACIDADE_INICIAL];  // Máscara dos números 64-99 de cada cartão
+    private int[] mascaraAcertos = new int[CAPACIDADE_INICIAL]; // Bit c ligado se a célula c já foi sorteada
+    private int numCartoes;
+
+    // Resultado do último sorteio aplicado (reutilizado para não criar objetos)
+    private int[] cartoesComLinhaNova = new int[CAPACIDADE_INICIAL];
+    private int numCartoesComLinhaNova;
+    private int[] cartoesCompletos = new int[CAPACIDADE_INICIAL];
+    private int numCartoesCompletos;
+
+    /**
+     * Construtor - Cria um índice vazio com os padrões clássicos (linhas e colunas; cartão cheio)
+     */
+    public IndiceCartoes() {
+        this(PadroesVitoria.LINHA_CLASSICA, PadroesVitoria.BINGO_CLASSICO);
+    }
+
+    /**
+     * Construtor - Cria um índice vazio
+     * @param padroesLinha - Padrões que contam como LINHA
+     * @param padroesBingo - Padrões que contam como BINGO
+     */
+    public IndiceCartoes(PadroesVitoria padroesLinha, PadroesVitoria padroesBingo) {
+        this.padroesLinha = padroesLinha;
+        this.padroesBingo = padroesBingo;
+        for (int numero = 0; numero <= ConjuntoNumeros.MAXIMO; numero++) {
+            posicoesPorNumero[numero] = new int[4];
+        }
+    }
+
+    /**
+     * Regista um cartão no índice, já com os números sorteados até agora
+     * @return índice do cartão nesta sala
+     */
+    public int registar(Cartao cartao, ConjuntoNumeros sorteados) {
+        return registar(cartao.obterNumeros(), cartao.obterMascaraBaixo(), cartao.obterMascaraAlto(), sorteados);
+    }
+
+    /**
+     * Regista um cartão dado só pelos seus números, sem criar objetos (usado pelo simulador)
+     * @param numeros - Os 25 números do cartão, por linhas
+     * @return índice do cartão
+     */
+    public int registar(int[] numeros, ConjuntoNumeros sorteados) {
+        long baixo = 0;
+        long alto = 0;
+        for (int numero : numeros) {
+            if (numero < 64) {
+                baixo |= 1L << numero;
+            } else {
+                alto |= 1L << (numero - 64);
+            }
+        }
+        return registar(numeros, baixo, alto, sorteados);
+    }
+
+    private int registar(int[] numeros, long mascaraBaixo, long mascaraAlto, ConjuntoNumeros sorteados) {
+        int indice = numCartoes++;
+        garantirCapacidadeCartoes(numCartoes);
+        numerosBaixo[indice] = mascaraBaixo;
+        numerosAlto[indice] = mascaraAlto;
+        for (int celula = 0; celula < Cartao.TAMANHO; celula++) {
+            int numero = numeros[celula];
+            celulas[indice * Cartao.TAMANHO + celula] = (byte) numero;
+            int[] posicoes = posicoesPorNumero[numero];
+            if (numPosicoes[numero] == posicoes.length) {
+                posicoes = Arrays.copyOf(posicoes, posicoes.length * 2);
+                posicoesPorNumero[numero] = posicoes;
+            }
+            posicoes[numPosicoes[numero]++] = indice * Cartao.TAMANHO + celula;
+            if (sorteados.contem(numero)) {
+                mascaraAcertos[indice] |= 1 << celula;
+            }
+        }
+        return indice;
+    }
+
+    /**
+     * Verifica se já foi registado um cartão com os mesmos números
+     * Percorre as máscaras de números da sala, comparando apenas duas palavras de bits por cartão
+     */
+    public boolean contemIgual(Cartao cartao) {
+        return contemIgual(cartao.obterMascaraBaixo(), cartao.obterMascaraAlto());
+    }
+
+    /**
+     * Verifica se já foi registado um cartão com os números destas máscaras
+     */
+    public boolean contemIgual(long baixo, long alto) {
+        for (int i = 0; i < numCartoes; i++) {
+            if (numerosBaixo[i] == baixo && numerosAlto[i] == alto) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Aplica um número sorteado a todos os cartões que o contêm
+     * Depois da chamada, obterCartoesComLinhaNova e obterCartoesCompletos indicam os cartões afetados
+     */
+    public void aplicarSorteio(int numero) {
+        numCartoesComLinhaNova = 0;
+        numCartoesCompletos = 0;
+        int[] posicoes = posicoesPorNumero[numero];
+        for (int i = 0, n = numPosicoes[numero]; i < n; i++) {
+            int posicao = posicoes[i];
+            int cartao = posicao / Cartao.TAMANHO;
+            int antes = mascaraAcertos[cartao];
+            int depois = antes | (1 << (posicao % Cartao.TAMANHO));
+            mascaraAcertos[cartao] = depois;
+            if (!padroesLinha.algumCompleto(antes) && padroesLinha.algumCompleto(depois)) {
+                cartoesComLinhaNova = acrescentar(cartoesComLinhaNova, numCartoesComLinhaNova++, cartao);
+            }
+            if (!padroesBingo.algumCompleto(antes) && padroesBingo.algumCompleto(depois)) {
+                cartoesCompletos = acrescentar(cartoesCompletos, numCartoesCompletos++, cartao);
+            }
+        }
+    }
+
+    /**
+     * Verifica se um cartão já tem algum padrão de LINHA totalmente sorteado
+     */
+    public boolean temLinhaSorteada(int cartao) {
+        return padroesLinha.algumCompleto(mascaraAcertos[cartao]);
+    }
+
+    /**
+     * Verifica se um cartão já tem algum padrão de BINGO totalmente sorteado
+     */
+    public boolean temBingoSorteado(int cartao) {
+        return padroesBingo.algumCompleto(mascaraAcertos[cartao]);
+    }
+
+    /**
+     * Procura, entre vários cartões do mesmo jogador, o primeiro com um padrão completo
+     * Os cartões sem o padrão sorteado são rejeitados pela máscara de acertos; nos restantes as células
+     * são lidas do array contíguo e testadas contra os números válidos, sem criar objetos
+     * @param cartoes - Índices dos cartões do jogador
+     * @param de - Primeira posição do array a percorrer
+     * @param ate - Posição seguinte à última a percorrer
+     * @param bingo - true para os padrões de BINGO, false para os de LINHA
+     * @param baixo - Números válidos (marcados E sorteados) entre 1 e 63
+     * @param alto - Números válidos (marcados E sorteados) entre 64 e 99
+     * @return posição no array do primeiro cartão com um padrão completo, ou -1 se nenhum o tiver
+     */
+    public int procurarPadrao(int[] cartoes, int de, int ate, boolean bingo, long baixo, long alto) {
+        PadroesVitoria padroes = bingo ? padroesBingo : padroesLinha;
+        for (int i = de; i < ate; i++) {
+            int cartao = cartoes[i];
+            if (padroes.algumCompleto(mascaraAcertos[cartao])
+                    && padroes.algumCompleto(mascaraCelulas(cartao, baixo, alto))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Converte um conjunto de números na máscara de 25 bits das células de um cartão que os contêm
+     */
+    public int mascaraCelulas(int cartao, long baixo, long alto) {
+        int mascara = 0;
+        int base = cartao * Cartao.TAMANHO;
+        for (int celula = 0; celula < Cartao.TAMANHO; celula++) {
+            int numero = celulas[base + celula];
+            long bit = numero < 64 ? baixo >>> numero : alto >>> (numero - 64);
+            mascara |= (int) (bit & 1) << celula;
+        }
+        return mascara;
+    }
+
+    /**
+     * Reconstrói o cartão a partir das suas células (para o enviar ao jogador)
+     */
+    public Cartao obterCartao(int cartao) {
+        int[] numeros = new int[Cartao.TAMANHO];
+        for (int celula = 0; celula < Cartao.TAMANHO; celula++) {
+            numeros[celula] = celulas[cartao * Cartao.TAMANHO + celula];
+        }
+        return new Cartao(numeros);
+    }
+
+    /**
+     * Obtém a máscara dos números de um cartão entre 1 e 63
+     */
+    public long obterNumerosBaixo(int cartao) {
+        return numerosBaixo[cartao];
+    }
+
+    /**
+     * Obtém a máscara dos números de um cartão entre 64 e 99
+     */
+    public long obterNumerosAlto(int cartao) {
+        return numerosAlto[cartao];
+    }
+
+    /**
+     * Obtém a máscara de 25 bits das células já sorteadas de um cartão
+     */
+    public int obterMascaraAcertos(int cartao) {
+        return mascaraAcertos[cartao];
+    }
+
+    /**
+     * Número de cartões que completaram o primeiro padrão de LINHA no último sorteio aplicado
+     */
+    public int obterNumCartoesComLinhaNova() {
+        return numCartoesComLinhaNova;
+    }
+
+    /**
+     * Cartão na posição i da lista de cartões com linha nova no último sorteio
+     */
+    public int obterCartaoComLinhaNova(int i) {
+        return cartoesComLinhaNova[i];
+    }
+
+    /**
+     * Número de cartões que completaram o primeiro padrão de BINGO no último sorteio aplicado
+     */
+    public int obterNumCartoesCompletos() {
+        return numCartoesCompletos;
+    }
+
+    /**
+     * Cartão na posição i da lista de cartões completos no último sorteio
+     */
+    public int obterCartaoCompleto(int i) {
+        return cartoesCompletos[i];
+    }
+
+    /**
+     * Esvazia o índice para outro jogo, mantendo os arrays já alocados (usado pelo simulador)
+     */
+    public void limpar() {
+        Arrays.fill(numPosicoes, 0);
+        Arrays.fill(mascaraAcertos, 0, numCartoes, 0);
+        numCartoes = 0;
+        numCartoesComLinhaNova = 0;
+        numCartoesCompletos = 0;
+    }
+
+    /**
+     * Número de cartões registados
+     */
+    public int obterNumCartoes() {
+        return numCartoes;
+    }
+
+    private void garantirCapacidadeCartoes(int necessarios) {
+        if (necessarios <= mascaraAcertos.length) return;
+        int capacidade = Math.max(necessarios, mascaraAcertos.length * 2);
+        mascaraAcertos = Arrays.copyOf(mascaraAcertos, capacidade);
+        numerosBaixo = Arrays.copyOf(numerosBaixo, capacidade);
+        numerosAlto = Arrays.copyOf(numerosAlto, capacidade);
+        celulas = Arrays.copyOf(celulas, capacidade * Cartao.TAMANHO);
+    }
+
+    private static int[] acrescentar(int[] lista, int posicao, int valor) {
+        if (posicao == lista.length) {
+            lista = Arrays.copyOf(lista, lista.length * 2);
+        }
+        lista[posicao] = valor;
+        return lista;
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Jogo instantâneo: o servidor sorteia, marca todos os cartões e decide o jogo inteiro de uma só vez
+ * Usa o índice invertido da sala tal como nos sorteios normais, pelo que cada número só toca nos cartões
+ * que o contêm; o jogo acaba no primeiro número que completa um padrão de BINGO (ou quando o baralho acaba).
+ * Os vencedores são os cartões que completaram o padrão nesse número, como se os jogadores marcassem
+ * e pedissem LINHA e BINGO sem demora. Não cria objetos por sorteio; não é thread-safe
+ */
+public final class JogoInstantaneo {
+    private final IndiceCartoes indice;
+    private final ConjuntoNumeros sorteados = new ConjuntoNumeros();
+    private final int[] historico = new int[ConjuntoNumeros.MAXIMO];
+
+    // Primeiros cartões com LINHA e com BINGO, e o número de sorteios em que os completaram (0 se ninguém)
+    private int[] cartoesLinha = new int[4];
+    private int numCartoesLinha;
+    private int sorteiosAteLinha;
+    private int[] cartoesBingo = new int[4];
+    private int numCartoesBingo;
+    private int sorteiosAteBingo;
+
+    /**
+     * Construtor - Prepara o jogo sobre os cartões já registados no índice
+     * @param indice - Índice com todos os cartões do jogo, ainda sem números sorteados
+     */
+    public JogoInstantaneo(IndiceCartoes indice) {
+        this.indice = indice;
+    }
+
+    /**
+     * Prepara outro jogo sobre o mesmo índice (que deve ter sido limpo e preenchido de novo)
+     */
+    public void reiniciar() {
+        sorteados.limpar();
+        numCartoesLinha = 0;
+        sorteiosAteLinha = 0;
+        numCartoesBingo = 0;
+        sorteiosAteBingo = 0;
+    }
+
+    /**
+     * Joga o jogo até ao primeiro BINGO ou até a fonte acabar
+     * @return número de sorteios feitos
+     */
+    public int jogar(FonteSorteio fonte) {
+        while (fonte.temProximo()) {
+            int numero = fonte.proximo();
+            sorteados.adicionar(numero);
+            historico[sorteados.tamanho() - 1] = numero;
+            indice.aplicarSorteio(numero);
+            if (sorteiosAteLinha == 0 && indice.obterNumCartoesComLinhaNova() > 0) {
+                sorteiosAteLinha = sorteados.tamanho();
+                numCartoesLinha = indice.obterNumCartoesComLinhaNova();
+                cartoesLinha = copiar(cartoesLinha, numCartoesLinha, true);
+            }
+            if (indice.obterNumCartoesCompletos() > 0) {
+                sorteiosAteBingo = sorteados.tamanho();
+                numCartoesBingo = indice.obterNumCartoesCompletos();
+                cartoesBingo = copiar(cartoesBingo, numCartoesBingo, false);
+                break;
+            }
+        }
+        return sorteados.tamanho();
+    }
+
+    private int[] copiar(int[] destino, int quantidade, boolean linha) {
+        if (destino.length < quantidade) {
+            destino = new int[quantidade];
+        }
+        for (int i = 0; i < quantidade; i++) {
+            destino[i] = linha ? indice.obterCartaoComLinhaNova(i) : indice.obterCartaoCompleto(i);
+        }
+        return destino;
+    }
+
+    /**
+     * Números sorteados no jogo (sem cópia; não deve ser alterado)
+     */
+    public ConjuntoNumeros obterSorteados() {
+        return sorteados;
+    }
+
+    /**
+     * Número sorteado na posição i (0 é o primeiro)
+     */
+    public int obterSorteio(int i) {
+        return historico[i];
+    }
+
+    public int obterNumCartoesLinha() {
+        return numCartoesLinha;
+    }
+
+    /**
+     * Cartão (posição no índice) na posição i dos primeiros a completar uma LINHA
+     */
+    public int obterCartaoLinha(int i) {
+        return cartoesLinha[i];
+    }
+
+    /**
+     * Sorteios feitos até à primeira LINHA, ou 0 se ninguém fez LINHA
+     */
+    public int obterSorteiosAteLinha() {
+        return sorteiosAteLinha;
+    }
+
+    public int obterNumCartoesBingo() {
+        return numCartoesBingo;
+    }
+
+    /**
+     * Cartão (posição no índice) na posição i dos que completaram o BINGO
+     */
+    public int obterCartaoBingo(int i) {
+        return cartoesBingo[i];
+    }
+
+    /**
+     * Sorteios feitos até ao BINGO, ou 0 se ninguém fez BINGO
+     */
+    public int obterSorteiosAteBingo() {
+        return sorteiosAteBingo;
+    }
+}
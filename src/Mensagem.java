@@ -0,0 +1,100 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Mensagem do servidor para os clientes, com as codificações de texto e binária guardadas
+ * Uma difusão cria uma única Mensagem; cada ligação usa a codificação que negociou,
+ * de forma que a mensagem é codificada no máximo uma vez por formato e não uma vez por cliente
+ */
+public final class Mensagem {
+    private final String texto;
+    private volatile byte[] linhaTexto; // Texto em UTF-8 terminado por '\n'
+    private volatile byte[] trama;      // Trama do protocolo binário
+
+    private Mensagem(String texto, byte[] trama) {
+        this.texto = texto;
+        this.trama = trama;
+    }
+
+    /**
+     * Cria uma mensagem a partir de uma linha do protocolo de texto
+     */
+    public static Mensagem deTexto(String texto) {
+        return new Mensagem(texto, null);
+    }
+
+    /**
+     * Cria a mensagem de um número sorteado, com o número de sequência do sorteio
+     */
+    public static Mensagem numeroSorteado(int numero, int sequencia) {
+        return new Mensagem("NUMERO_SORTEADO:" + numero, ProtocoloBinario.codificarNumeroSorteado(numero, sequencia));
+    }
+
+    /**
+     * Cria a mensagem com o estado de um jogo em curso, para quem se junta ou volta a meio do jogo
+     * Formato de texto: ESTADO:sequência:sorteados:marcados, com cada conjunto como dois
+     * mapas de bits de 64 bits em hexadecimal (números 1-63 e 64-99) separados por vírgula
+     */
+    public static Mensagem estado(int sequencia, ConjuntoNumeros sorteados, ConjuntoNumeros marcados) {
+        String texto = "ESTADO:" + sequencia
+                + ":" + Long.toHexString(sorteados.obterBaixo()) + "," + Long.toHexString(sorteados.obterAlto())
+                + ":" + Long.toHexString(marcados.obterBaixo()) + "," + Long.toHexString(marcados.obterAlto());
+        return new Mensagem(texto, ProtocoloBinario.codificarEstado(sequencia, sorteados, marcados));
+    }
+
+    /**
+     * Cria a mensagem com o cartão de um jogador
+     * Formato de texto: CARTAO:idCartao:num1,num2,num3,...,num25
+     */
+    public static Mensagem cartao(String idCartao, Cartao cartao) {
+        StringBuilder sb = new StringBuilder("CARTAO:").append(idCartao).append(':');
+        for (int i = 0; i < Cartao.TAMANHO; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(cartao.obterNumero(i));
+        }
+        return new Mensagem(sb.toString(), ProtocoloBinario.codificarCartao(idCartao, cartao));
+    }
+
+    /**
+     * Obtém o texto da mensagem (sem terminador de linha)
+     */
+    public String texto() {
+        return texto;
+    }
+
+    /**
+     * Obtém os bytes da linha de texto, já com o terminador
+     * As corridas entre threads apenas podem codificar a mesma linha duas vezes
+     */
+    public byte[] linhaTexto() {
+        byte[] bytes = linhaTexto;
+        if (bytes == null) {
+            bytes = (texto + "\n").getBytes(StandardCharsets.UTF_8);
+            linhaTexto = bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Obtém a trama binária da mensagem
+     */
+    public byte[] trama() {
+        byte[] bytes = trama;
+        if (bytes == null) {
+            bytes = ProtocoloBinario.codificarMensagemServidor(texto);
+            trama = bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Obtém os bytes a enviar conforme o protocolo da ligação
+     */
+    public byte[] bytes(boolean binario) {
+        return binario ? trama() : linhaTexto();
+    }
+
+    @Override
+    public String toString() {
+        return texto;
+    }
+}
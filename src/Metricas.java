@@ -0,0 +1,312 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Métricas do servidor: contadores e histogramas de baixo custo, sempre ligados
+ * Os contadores são LongAdder (repartidos por célula, sem disputa entre threads) e os tempos
+ * vão para histogramas log-lineares. São expostas por JMX (BingoGame:type=Metricas,porta=N)
+ * e por HTTP em http://127.0.0.1:P/metricas, no formato de texto do Prometheus.
+ * A porta HTTP é dada por -Dbingo.metricas.porta (por omissão a porta do servidor + 1000; 0 desliga)
+ */
+public class Metricas implements MetricasMBean {
+    private static final int DESVIO_PORTA_HTTP = 1000;
+
+    // Ligações
+    private final LongAdder ligacoesAceites = new LongAdder();
+    private final LongAdder rejeitadasLotado = new LongAdder();
+    private final LongAdder rejeitadasJogoEmCurso = new LongAdder();
+
+    // Sorteios e difusões (nanossegundos)
+    private final LongAdder sorteios = new LongAdder();
+    private volatile long sorteiosPorSegundo;
+    private long sorteiosNaUltimaAmostra;
+    private final Histograma difusao = new Histograma();
+
+    // Jogos instantâneos, decididos de uma vez pelo servidor (nanossegundos)
+    private final Histograma jogosInstantaneos = new Histograma();
+
+    // Pedidos de LINHA e BINGO (nanossegundos, incluindo a espera pelo trinco da sala)
+    private final LongAdder linhasValidas = new LongAdder();
+    private final LongAdder linhasInvalidas = new LongAdder();
+    private final Histograma pedidosLinha = new Histograma();
+    private final LongAdder bingosValidos = new LongAdder();
+    private final LongAdder bingosInvalidos = new LongAdder();
+    private final Histograma pedidosBingo = new Histograma();
+
+    // Sorteios entre o primeiro cartão com o padrão completo (visto pelo índice da sala) e o primeiro pedido válido
+    private final Histograma atrasoLinha = new Histograma();
+    private final Histograma atrasoBingo = new Histograma();
+
+    // Trincos das salas: só as aquisições disputadas são medidas
+    private final LongAdder aquisicoesTrinco = new LongAdder();
+    private final Histograma esperaTrinco = new Histograma();
+
+    // Espectadores: datagramas multicast e mensagens repetidas por TCP
+    private final LongAdder datagramasEspectadores = new LongAdder();
+    private final LongAdder datagramasDescartados = new LongAdder();
+    private final LongAdder repeticoesEspectadores = new LongAdder();
+
+    // Filas de saída dos clientes, amostradas uma vez por segundo
+    private final Histograma profundidadeFila = new Histograma();
+    private volatile long profundidadeFilaMaxima;
+
+    private final BingoServer servidor;
+    private ScheduledExecutorService amostragem;
+    private HttpServer servidorHttp;
+    private ObjectName nomeJmx;
+
+    /**
+     * Construtor - Cria as métricas de um servidor (ainda não publicadas)
+     * @param servidor - Servidor cujas salas são percorridas na amostragem das filas
+     */
+    public Metricas(BingoServer servidor) {
+        this.servidor = servidor;
+    }
+
+    public void registarLigacaoAceite() {
+        ligacoesAceites.increment();
+    }
+
+    public void registarRejeicaoLotado() {
+        rejeitadasLotado.increment();
+    }
+
+    public void registarRejeicaoJogoEmCurso() {
+        rejeitadasJogoEmCurso.increment();
+    }
+
+    public void registarSorteio() {
+        sorteios.increment();
+    }
+
+    /**
+     * Regista um jogo instantâneo; os seus sorteios contam como os das outras salas
+     */
+    public void registarJogoInstantaneo(long nanos, int numSorteios) {
+        jogosInstantaneos.registar(nanos);
+        sorteios.add(numSorteios);
+    }
+
+    public void registarDifusao(long nanos) {
+        difusao.registar(nanos);
+    }
+
+    public void registarPedidoLinha(long nanos, boolean valido) {
+        pedidosLinha.registar(nanos);
+        (valido ? linhasValidas : linhasInvalidas).increment();
+    }
+
+    public void registarPedidoBingo(long nanos, boolean valido) {
+        pedidosBingo.registar(nanos);
+        (valido ? bingosValidos : bingosInvalidos).increment();
+    }
+
+    public void registarAtrasoPedido(boolean bingo, int sorteios) {
+        (bingo ? atrasoBingo : atrasoLinha).registar(sorteios);
+    }
+
+    public void registarAquisicaoTrinco() {
+        aquisicoesTrinco.increment();
+    }
+
+    public void registarEsperaTrinco(long nanos) {
+        esperaTrinco.registar(nanos);
+    }
+
+    public void registarDatagramaEspectadores(boolean enviado) {
+        (enviado ? datagramasEspectadores : datagramasDescartados).increment();
+    }
+
+    public void registarRepeticaoEspectadores(int mensagens) {
+        repeticoesEspectadores.add(mensagens);
+    }
+
+    /**
+     * Publica as métricas por JMX e HTTP e arranca a amostragem periódica
+     * Falhas na publicação apenas geram avisos: o servidor continua sem essa via
+     * @param portaServidor - Porta do servidor de jogo (identifica o MBean e define a porta HTTP por omissão)
+     */
+    public void publicar(int portaServidor) {
+        amostragem = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metricas");
+            thread.setDaemon(true);
+            return thread;
+        });
+        amostragem.scheduleAtFixedRate(this::amostrar, 1, 1, TimeUnit.SECONDS);
+
+        try {
+            nomeJmx = new ObjectName("BingoGame:type=Metricas,porta=" + portaServidor);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, nomeJmx);
+        } catch (JMException e) {
+            nomeJmx = null;
+            Registo.aviso("Métricas JMX indisponíveis: " + e.getMessage());
+        }
+
+        int portaHttp = Integer.getInteger("bingo.metricas.porta", portaServidor + DESVIO_PORTA_HTTP);
+        if (portaHttp <= 0) return;
+        try {
+            servidorHttp = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), portaHttp), 0);
+            servidorHttp.createContext("/metricas", troca -> {
+                byte[] corpo = getTexto().getBytes(StandardCharsets.UTF_8);
+                troca.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                troca.sendResponseHeaders(200, corpo.length);
+                try (OutputStream saida = troca.getResponseBody()) {
+                    saida.write(corpo);
+                }
+            });
+            servidorHttp.start();
+            Registo.info("Métricas disponíveis em http://127.0.0.1:" + portaHttp + "/metricas");
+        } catch (IOException e) {
+            servidorHttp = null;
+            Registo.aviso("Métricas HTTP indisponíveis na porta " + portaHttp + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deixa de publicar as métricas
+     */
+    public void parar() {
+        if (amostragem != null) {
+            amostragem.shutdownNow();
+        }
+        if (servidorHttp != null) {
+            servidorHttp.stop(0);
+        }
+        if (nomeJmx != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(nomeJmx);
+            } catch (JMException e) {
+                // Já não estava registado
+            }
+        }
+    }
+
+    /**
+     * Amostragem de cada segundo: taxa de sorteios e profundidade das filas de saída
+     */
+    private void amostrar() {
+        long total = sorteios.sum();
+        sorteiosPorSegundo = total - sorteiosNaUltimaAmostra;
+        sorteiosNaUltimaAmostra = total;
+
+        long maxima = 0;
+        for (Sala sala : servidor.obterSalas()) {
+            for (ClientHandler cliente : sala.obterClientes()) {
+                int tamanho = cliente.obterTamanhoFilaSaida();
+                profundidadeFila.registar(tamanho);
+                maxima = Math.max(maxima, tamanho);
+            }
+        }
+        profundidadeFilaMaxima = maxima;
+    }
+
+    @Override public long getLigacoesAceites() { return ligacoesAceites.sum(); }
+    @Override public long getLigacoesRejeitadasLotado() { return rejeitadasLotado.sum(); }
+    @Override public long getLigacoesRejeitadasJogoEmCurso() { return rejeitadasJogoEmCurso.sum(); }
+    @Override public long getSorteios() { return sorteios.sum(); }
+    @Override public long getSorteiosPorSegundo() { return sorteiosPorSegundo; }
+    @Override public long getJogosInstantaneos() { return jogosInstantaneos.obterContagem(); }
+    @Override public long getJogoInstantaneoP99Micros() { return jogosInstantaneos.percentil(0.99) / 1000; }
+    @Override public long getDifusoes() { return difusao.obterContagem(); }
+    @Override public long getDifusaoP50Micros() { return difusao.percentil(0.50) / 1000; }
+    @Override public long getDifusaoP99Micros() { return difusao.percentil(0.99) / 1000; }
+    @Override public long getDifusaoMaxMicros() { return difusao.obterMaximo() / 1000; }
+    @Override public long getLinhasValidas() { return linhasValidas.sum(); }
+    @Override public long getLinhasInvalidas() { return linhasInvalidas.sum(); }
+    @Override public long getPedidoLinhaP50Micros() { return pedidosLinha.percentil(0.50) / 1000; }
+    @Override public long getPedidoLinhaP99Micros() { return pedidosLinha.percentil(0.99) / 1000; }
+    @Override public long getBingosValidos() { return bingosValidos.sum(); }
+    @Override public long getBingosInvalidos() { return bingosInvalidos.sum(); }
+    @Override public long getPedidoBingoP50Micros() { return pedidosBingo.percentil(0.50) / 1000; }
+    @Override public long getPedidoBingoP99Micros() { return pedidosBingo.percentil(0.99) / 1000; }
+    @Override public long getAtrasoLinhaP50Sorteios() { return atrasoLinha.percentil(0.50); }
+    @Override public long getAtrasoBingoP50Sorteios() { return atrasoBingo.percentil(0.50); }
+    @Override public long getAquisicoesTrinco() { return aquisicoesTrinco.sum(); }
+    @Override public long getEsperasTrinco() { return esperaTrinco.obterContagem(); }
+    @Override public long getEsperaTrincoP99Micros() { return esperaTrinco.percentil(0.99) / 1000; }
+    @Override public long getEsperaTrincoMaxMicros() { return esperaTrinco.obterMaximo() / 1000; }
+    @Override public long getProfundidadeFilaMaxima() { return profundidadeFilaMaxima; }
+    @Override public long getProfundidadeFilaP99() { return profundidadeFila.percentil(0.99); }
+    @Override public long getDatagramasEspectadores() { return datagramasEspectadores.sum(); }
+    @Override public long getDatagramasEspectadoresDescartados() { return datagramasDescartados.sum(); }
+    @Override public long getRepeticoesEspectadores() { return repeticoesEspectadores.sum(); }
+    @Override public long getRegistosDescartados() { return Registo.obterDescartadas(); }
+    @Override public long getSorteiosAgendados() { return servidor.obterRodaSorteios().obterNumTarefas(); }
+    @Override public String pausarSala(String idSala) { return servidor.pausarSala(idSala); }
+    @Override public String retomarSala(String idSala) { return servidor.retomarSala(idSala); }
+
+    @Override
+    public String getTexto() {
+        StringBuilder sb = new StringBuilder(4096);
+        contador(sb, "bingo_ligacoes_aceites_total", "Ligações colocadas numa sala", ligacoesAceites.sum());
+        sb.append("# HELP bingo_ligacoes_rejeitadas_total Ligações ou mudanças de sala recusadas\n");
+        sb.append("# TYPE bingo_ligacoes_rejeitadas_total counter\n");
+        sb.append("bingo_ligacoes_rejeitadas_total{motivo=\"lotado\"} ").append(rejeitadasLotado.sum()).append('\n');
+        sb.append("bingo_ligacoes_rejeitadas_total{motivo=\"jogo_em_curso\"} ").append(rejeitadasJogoEmCurso.sum()).append('\n');
+        contador(sb, "bingo_sorteios_total", "Números sorteados em todas as salas", sorteios.sum());
+        medida(sb, "bingo_sorteios_por_segundo", "Sorteios no último segundo", sorteiosPorSegundo);
+        resumo(sb, "bingo_jogo_instantaneo_segundos", "Duração de um jogo instantâneo, do sorteio ao envio do resultado", jogosInstantaneos, 1e-9);
+        resumo(sb, "bingo_difusao_segundos", "Duração de enviarMensagemTodos", difusao, 1e-9);
+        contadorValidade(sb, "bingo_pedidos_linha_total", "Pedidos de LINHA", linhasValidas.sum(), linhasInvalidas.sum());
+        resumo(sb, "bingo_pedido_linha_segundos", "Duração de processarLinha", pedidosLinha, 1e-9);
+        contadorValidade(sb, "bingo_pedidos_bingo_total", "Pedidos de BINGO", bingosValidos.sum(), bingosInvalidos.sum());
+        resumo(sb, "bingo_pedido_bingo_segundos", "Duração de processarBingo", pedidosBingo, 1e-9);
+        resumo(sb, "bingo_atraso_linha_sorteios", "Sorteios entre a primeira LINHA possível e o primeiro pedido válido", atrasoLinha, 1);
+        resumo(sb, "bingo_atraso_bingo_sorteios", "Sorteios entre o primeiro BINGO possível e o primeiro pedido válido", atrasoBingo, 1);
+        contador(sb, "bingo_trinco_aquisicoes_total", "Aquisições dos trincos das salas", aquisicoesTrinco.sum());
+        resumo(sb, "bingo_trinco_espera_segundos", "Espera pelas aquisições disputadas dos trincos das salas", esperaTrinco, 1e-9);
+        medida(sb, "bingo_fila_saida_maxima", "Maior fila de saída de um cliente na última amostra", profundidadeFilaMaxima);
+        resumo(sb, "bingo_fila_saida_mensagens", "Profundidade das filas de saída (amostra por segundo e cliente)", profundidadeFila, 1);
+        sb.append("# HELP bingo_espectadores_datagramas_total Datagramas multicast publicados para espectadores\n");
+        sb.append("# TYPE bingo_espectadores_datagramas_total counter\n");
+        sb.append("bingo_espectadores_datagramas_total{resultado=\"enviado\"} ").append(datagramasEspectadores.sum()).append('\n');
+        sb.append("bingo_espectadores_datagramas_total{resultado=\"descartado\"} ").append(datagramasDescartados.sum()).append('\n');
+        contador(sb, "bingo_espectadores_repeticoes_total", "Mensagens repetidas por TCP a espectadores com buracos", repeticoesEspectadores.sum());
+        contador(sb, "bingo_registo_descartados_total", "Linhas de registo descartadas", Registo.obterDescartadas());
+        medida(sb, "bingo_sorteios_agendados", "Salas com sorteio agendado na roda de temporizadores", getSorteiosAgendados());
+        return sb.toString();
+    }
+
+    private static void contador(StringBuilder sb, String nome, String ajuda, long valor) {
+        sb.append("# HELP ").append(nome).append(' ').append(ajuda).append('\n');
+        sb.append("# TYPE ").append(nome).append(" counter\n");
+        sb.append(nome).append(' ').append(valor).append('\n');
+    }
+
+    private static void medida(StringBuilder sb, String nome, String ajuda, long valor) {
+        sb.append("# HELP ").append(nome).append(' ').append(ajuda).append('\n');
+        sb.append("# TYPE ").append(nome).append(" gauge\n");
+        sb.append(nome).append(' ').append(valor).append('\n');
+    }
+
+    private static void contadorValidade(StringBuilder sb, String nome, String ajuda, long validos, long invalidos) {
+        sb.append("# HELP ").append(nome).append(' ').append(ajuda).append('\n');
+        sb.append("# TYPE ").append(nome).append(" counter\n");
+        sb.append(nome).append("{resultado=\"valido\"} ").append(validos).append('\n');
+        sb.append(nome).append("{resultado=\"invalido\"} ").append(invalidos).append('\n');
+    }
+
+    private static void resumo(StringBuilder sb, String nome, String ajuda, Histograma histograma, double escala) {
+        sb.append("# HELP ").append(nome).append(' ').append(ajuda).append('\n');
+        sb.append("# TYPE ").append(nome).append(" summary\n");
+        for (double quantil : new double[] {0.5, 0.9, 0.99, 1.0}) {
+            long valor = quantil == 1.0 ? histograma.obterMaximo() : histograma.percentil(quantil);
+            sb.append(nome).append("{quantile=\"").append(quantil).append("\"} ")
+              .append(String.format(Locale.ROOT, "%.9g", valor * escala)).append('\n');
+        }
+        sb.append(nome).append("_sum ").append(String.format(Locale.ROOT, "%.9g", histograma.obterSoma() * escala)).append('\n');
+        sb.append(nome).append("_count ").append(histograma.obterContagem()).append('\n');
+    }
+}
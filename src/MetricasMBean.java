@@ -0,0 +1,63 @@
+/**
+ * Interface JMX das métricas do servidor (tempos em microssegundos)
+ */
+public interface MetricasMBean {
+    long getLigacoesAceites();
+    long getLigacoesRejeitadasLotado();
+    long getLigacoesRejeitadasJogoEmCurso();
+
+    long getSorteios();
+    long getSorteiosPorSegundo();
+
+    long getJogosInstantaneos();
+    long getJogoInstantaneoP99Micros();
+
+    long getDifusoes();
+    long getDifusaoP50Micros();
+    long getDifusaoP99Micros();
+    long getDifusaoMaxMicros();
+
+    long getLinhasValidas();
+    long getLinhasInvalidas();
+    long getPedidoLinhaP50Micros();
+    long getPedidoLinhaP99Micros();
+
+    long getBingosValidos();
+    long getBingosInvalidos();
+    long getPedidoBingoP50Micros();
+    long getPedidoBingoP99Micros();
+
+    long getAtrasoLinhaP50Sorteios();
+    long getAtrasoBingoP50Sorteios();
+
+    long getAquisicoesTrinco();
+    long getEsperasTrinco();
+    long getEsperaTrincoP99Micros();
+    long getEsperaTrincoMaxMicros();
+
+    long getProfundidadeFilaMaxima();
+    long getProfundidadeFilaP99();
+
+    long getDatagramasEspectadores();
+    long getDatagramasEspectadoresDescartados();
+    long getRepeticoesEspectadores();
+
+    long getRegistosDescartados();
+
+    long getSorteiosAgendados();
+
+    /**
+     * Suspende os sorteios de uma sala
+     */
+    String pausarSala(String idSala);
+
+    /**
+     * Retoma os sorteios de uma sala pausada
+     */
+    String retomarSala(String idSala);
+
+    /**
+     * Todas as métricas no formato de texto do endpoint HTTP
+     */
+    String getTexto();
+}
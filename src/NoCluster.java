@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Participação de um servidor num cluster de servidores de Bingo
+ * A cada batimento o nó renova o seu anúncio no registo, lê os nós vivos e refaz o anel de hashing
+ * consistente se os membros mudaram. As salas ainda não começadas que deixaram de ser suas são drenadas:
+ * os jogadores recebem MIGRAR:idSala e a porta de entrada leva-os ao novo dono. Os jogos já começados
+ * ficam onde estão até terminarem.
+ *
+ * Ativado com -Dbingo.cluster.dir=diretoria; o nó é identificado por -Dbingo.cluster.no (por omissão
+ * no-porta) e anuncia o endereço -Dbingo.cluster.endereco (por omissão 127.0.0.1:porta)
+ */
+public final class NoCluster {
+    private static final long BATIMENTO_MS = 1000;
+
+    private final BingoServer servidor;
+    private final RegistoCluster registo;
+    private final String idNo;
+    private final String endereco;
+    private final ScheduledExecutorService batimentos;
+    private volatile AnelConsistente anel;
+    private Set<String> membros = Set.of(); // Só usado pela thread dos batimentos
+
+    /**
+     * Construtor - Prepara o nó (só se anuncia em iniciar)
+     * @param servidor - Servidor que este nó representa
+     * @param registo - Registo partilhado dos nós
+     * @param idNo - Identificador único do nó no cluster
+     * @param endereco - Endereço (host:porta) onde os clientes chegam a este nó
+     */
+    public NoCluster(BingoServer servidor, RegistoCluster registo, String idNo, String endereco) {
+        this.servidor = servidor;
+        this.registo = registo;
+        this.idNo = idNo;
+        this.endereco = endereco;
+        this.anel = new AnelConsistente(Set.of(idNo));
+        this.batimentos = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-" + idNo);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Cria o nó configurado pelas propriedades do sistema
+     * @return null se o servidor não faz parte de um cluster
+     */
+    public static NoCluster doSistema(BingoServer servidor, int porta) throws IOException {
+        RegistoCluster registo = RegistoCluster.doSistema();
+        if (registo == null) {
+            return null;
+        }
+        return new NoCluster(servidor, registo, System.getProperty("bingo.cluster.no", "no-" + porta),
+                System.getProperty("bingo.cluster.endereco", "127.0.0.1:" + porta));
+    }
+
+    /**
+     * Anuncia o nó e começa os batimentos
+     */
+    public void iniciar() {
+        batimentos.scheduleWithFixedDelay(this::bater, 0, BATIMENTO_MS, TimeUnit.MILLISECONDS);
+        Registo.info("Nó " + idNo + " do cluster em " + endereco);
+    }
+
+    public String obterIdNo() {
+        return idNo;
+    }
+
+    /**
+     * Verifica se uma sala pertence a este nó segundo o anel atual
+     */
+    public boolean ehDono(String idSala) {
+        String dono = anel.dono(idSala);
+        return dono == null || dono.equals(idNo);
+    }
+
+    /**
+     * Sai do cluster de forma ordenada: os outros nós deixam de o contar no batimento seguinte
+     */
+    public void sair() {
+        batimentos.shutdownNow();
+        registo.retirar(idNo);
+    }
+
+    private void bater() {
+        try {
+            registo.anunciar(idNo, endereco);
+            Map<String, String> nos = registo.obterNos();
+            nos.putIfAbsent(idNo, endereco);
+            if (!nos.keySet().equals(membros)) {
+                membros = Set.copyOf(nos.keySet());
+                anel = new AnelConsistente(membros);
+                Registo.info("Cluster com " + membros.size() + " nós: " + String.join(", ", nos.keySet()));
+            }
+            servidor.drenarSalasAlheias();
+        } catch (IOException | RuntimeException e) {
+            Registo.aviso("Erro no batimento do cluster: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conjunto de padrões de vitória compilado em máscaras de 25 bits (uma por forma de ganhar)
+ * O bit c de uma máscara corresponde à célula c do cartão, por linhas (c = linha * 5 + coluna).
+ * Um pedido é válido se a máscara de acertos do cartão contém todos os bits de alguma máscara do conjunto,
+ * pelo que acrescentar um padrão ao catálogo custa uma máscara e não um novo ciclo de validação.
+ *
+ * Padrões do catálogo: horizontal, vertical, diagonal, cantos, x, cheio
+ * Um conjunto escreve-se como uma lista separada por vírgulas, por exemplo "horizontal,vertical,diagonal"
+ */
+public final class PadroesVitoria {
+    /** Máscara com todas as células do cartão */
+    public static final int CARTAO_CHEIO = (1 << Cartao.TAMANHO) - 1;
+
+    private static final Map<String, int[]> CATALOGO = new LinkedHashMap<>();
+
+    static {
+        int[] horizontais = new int[Cartao.LADO];
+        int[] verticais = new int[Cartao.LADO];
+        int diagonal = 0;
+        int diagonalInversa = 0;
+        for (int i = 0; i < Cartao.LADO; i++) {
+            for (int j = 0; j < Cartao.LADO; j++) {
+                horizontais[i] |= celula(i, j);
+                verticais[i] |= celula(j, i);
+            }
+            diagonal |= celula(i, i);
+            diagonalInversa |= celula(i, Cartao.LADO - 1 - i);
+        }
+        int ultima = Cartao.LADO - 1;
+        CATALOGO.put("horizontal", horizontais);
+        CATALOGO.put("vertical", verticais);
+        CATALOGO.put("diagonal", new int[] {diagonal, diagonalInversa});
+        CATALOGO.put("cantos", new int[] {celula(0, 0) | celula(0, ultima) | celula(ultima, 0) | celula(ultima, ultima)});
+        CATALOGO.put("x", new int[] {diagonal | diagonalInversa});
+        CATALOGO.put("cheio", new int[] {CARTAO_CHEIO});
+    }
+
+    /** Padrões clássicos de LINHA: qualquer linha horizontal ou vertical */
+    public static final PadroesVitoria LINHA_CLASSICA = de("horizontal,vertical");
+    /** Padrão clássico de BINGO: cartão completo */
+    public static final PadroesVitoria BINGO_CLASSICO = de("cheio");
+
+    private final String especificacao;
+    private final int[] mascaras;
+    private final String[] nomes; // Nome de cada máscara, para o registo (por exemplo "vertical 3")
+
+    private PadroesVitoria(String especificacao, int[] mascaras, String[] nomes) {
+        this.especificacao = especificacao;
+        this.mascaras = mascaras;
+        this.nomes = nomes;
+    }
+
+    /**
+     * Compila um conjunto de padrões a partir dos seus nomes no catálogo
+     * @param especificacao - Nomes separados por vírgulas (maiúsculas e espaços são ignorados)
+     * @throws IllegalArgumentException se algum nome não existir no catálogo
+     */
+    public static PadroesVitoria de(String especificacao) {
+        List<Integer> mascaras = new ArrayList<>();
+        List<String> nomes = new ArrayList<>();
+        StringBuilder normalizada = new StringBuilder();
+        for (String parte : especificacao.split(",")) {
+            String nome = parte.trim().toLowerCase();
+            if (nome.isEmpty()) continue;
+            int[] doPadrao = CATALOGO.get(nome);
+            if (doPadrao == null) {
+                throw new IllegalArgumentException("Padrão de vitória desconhecido: " + nome
+                        + ". Padrões disponíveis: " + String.join(", ", CATALOGO.keySet()));
+            }
+            for (int i = 0; i < doPadrao.length; i++) {
+                mascaras.add(doPadrao[i]);
+                nomes.add(doPadrao.length > 1 ? nome + " " + (i + 1) : nome);
+            }
+            if (normalizada.length() > 0) normalizada.append(',');
+            normalizada.append(nome);
+        }
+        if (mascaras.isEmpty()) {
+            throw new IllegalArgumentException("Conjunto de padrões de vitória vazio");
+        }
+        return new PadroesVitoria(normalizada.toString(),
+                mascaras.stream().mapToInt(Integer::intValue).toArray(), nomes.toArray(new String[0]));
+    }
+
+    /**
+     * Procura a primeira máscara do conjunto totalmente contida nos acertos
+     * @param acertos - Máscara de 25 bits das células válidas do cartão
+     * @return posição da máscara no conjunto, ou -1 se nenhuma estiver completa
+     */
+    public int primeiroCompleto(int acertos) {
+        for (int i = 0; i < mascaras.length; i++) {
+            if ((acertos & mascaras[i]) == mascaras[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Verifica se alguma máscara do conjunto está totalmente contida nos acertos
+     */
+    public boolean algumCompleto(int acertos) {
+        return primeiroCompleto(acertos) >= 0;
+    }
+
+    /**
+     * Obtém o nome de uma máscara do conjunto (por exemplo "horizontal 2")
+     */
+    public String obterNome(int indice) {
+        return nomes[indice];
+    }
+
+    @Override
+    public String toString() {
+        return especificacao;
+    }
+
+    private static int celula(int linha, int coluna) {
+        return 1 << (linha * Cartao.LADO + coluna);
+    }
+}
@@ -0,0 +1,487 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Porta de entrada de um cluster de servidores de Bingo
+ * Aceita os clientes na porta habitual e encaminha cada um para o nó dono da sua sala, segundo o mesmo
+ * anel de hashing consistente que os nós constroem a partir do registo partilhado:
+ * - SALA:id vai para o dono da sala pedida
+ * - RECONECTAR:token vai para o nó que emitiu o token (o token termina em @idNo)
+ * - ESPECTAR:id e REPETIR:id:sequência (espectadores) vão para o dono da sala
+ * - qualquer outro primeiro pedido (normalmente PRONTO) recebe uma sala atribuída aqui, que é enviada
+ *   ao nó como preâmbulo SALA:id antes do pedido do cliente
+ * Depois do encaminhamento os bytes passam nos dois sentidos, mensagem a mensagem, no protocolo que o
+ * cliente escolheu (texto ou binário). Se o nó drenar a sala (MIGRAR:id), a porta de entrada liga-se ao
+ * novo dono, volta a pedir a sala e repete o PRONTO do jogador, sem o cliente dar por isso.
+ *
+ * Uso: java -Dbingo.cluster.dir=diretoria PortaEntrada [porta]
+ */
+public class PortaEntrada {
+    private static final int PORTA = 12345;
+    private static final int MAX_TENTATIVAS = 5;
+    private static final long ATUALIZACAO_MS = 1000;
+
+    private final int porta;
+    private final RegistoCluster registo;
+    private final ScheduledExecutorService atualizacoes;
+    private volatile Map<String, String> nos = Map.of(); // idNo -> endereço
+    private volatile AnelConsistente anel = new AnelConsistente(Set.of());
+    private ServerSocket socketServidor;
+
+    // Sala atribuída aos clientes que chegam sem escolher sala (única entre arranques da porta de entrada)
+    private final String prefixoSalas = "sala-" + Long.toString(System.currentTimeMillis() / 1000, 36) + "-";
+    private final AtomicLong contadorSalas = new AtomicLong();
+    private String salaAtual;
+    private int lugaresAtribuidos;
+
+    /**
+     * Construtor - Prepara a porta de entrada (só aceita ligações em iniciar)
+     * @param porta - Porta TCP onde os clientes se ligam
+     * @param registo - Registo partilhado dos nós do cluster
+     */
+    public PortaEntrada(int porta, RegistoCluster registo) {
+        this.porta = porta;
+        this.registo = registo;
+        this.salaAtual = prefixoSalas + contadorSalas.incrementAndGet();
+        this.atualizacoes = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "porta-entrada-registo");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Aceita ligações e atende cada cliente numa thread virtual
+     */
+    public void iniciar() throws IOException {
+        atualizacoes.scheduleWithFixedDelay(this::atualizarNos, 0, ATUALIZACAO_MS, TimeUnit.MILLISECONDS);
+        socketServidor = new ServerSocket(porta);
+        Registo.info("Porta de entrada do cluster na porta " + porta);
+        while (!socketServidor.isClosed()) {
+            try {
+                Socket cliente = socketServidor.accept();
+                Thread.ofVirtual().name("entrada-", 1).start(() -> atender(cliente));
+            } catch (IOException e) {
+                if (!socketServidor.isClosed()) {
+                    Registo.erro("Erro ao aceitar ligação: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public void parar() {
+        atualizacoes.shutdownNow();
+        try {
+            if (socketServidor != null) socketServidor.close();
+        } catch (IOException e) {
+            Registo.erro("Erro ao fechar a porta de entrada: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Relê os nós vivos; chamado pela atualização periódica e quando um nó pede uma migração
+     */
+    private void atualizarNos() {
+        synchronized (registo) {
+            try {
+                Map<String, String> vivos = registo.obterNos();
+                if (!vivos.equals(nos)) {
+                    anel = new AnelConsistente(vivos.keySet());
+                    nos = vivos;
+                    Registo.info("Nós do cluster: " + (vivos.isEmpty() ? "nenhum" : String.join(", ", vivos.keySet())));
+                }
+            } catch (IOException e) {
+                Registo.aviso("Erro ao ler o registo do cluster: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Endereço de um nó vivo
+     * @return null se o nó não existir (ou se não houver nós)
+     */
+    private String enderecoDe(String idNo) {
+        return idNo != null ? nos.get(idNo) : null;
+    }
+
+    /**
+     * Atribui um lugar na sala corrente aos clientes que chegam sem escolher sala
+     */
+    private synchronized String atribuirSala() {
+        if (lugaresAtribuidos >= Sala.MAX_JOGADORES) {
+            avancarSala();
+        }
+        lugaresAtribuidos++;
+        return salaAtual;
+    }
+
+    /**
+     * Deixa de atribuir uma sala que começou, encheu ou foi recusada pelo nó
+     */
+    private synchronized void salaIndisponivel(String idSala) {
+        if (idSala.equals(salaAtual)) {
+            avancarSala();
+        }
+    }
+
+    private void avancarSala() {
+        salaAtual = prefixoSalas + contadorSalas.incrementAndGet();
+        lugaresAtribuidos = 0;
+    }
+
+    /**
+     * Encaminha um cliente e passa as mensagens nos dois sentidos até uma das pontas fechar
+     */
+    private void atender(Socket socketCliente) {
+        try (socketCliente) {
+            InputStream entrada = new BufferedInputStream(socketCliente.getInputStream());
+            int primeiro = entrada.read();
+            if (primeiro < 0) return;
+            boolean binario = primeiro == ProtocoloBinario.MAGIA;
+            if (!binario) {
+                entrada = new SequenceInputStream(new ByteArrayInputStream(new byte[] {(byte) primeiro}), entrada);
+            }
+            Ponta cliente = new Ponta(socketCliente, entrada, binario);
+            Encaminhamento encaminhamento = new Encaminhamento(cliente);
+            encaminhamento.executar();
+        } catch (IOException e) {
+            Registo.depuracao(() -> "Ligação encaminhada terminada: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Estado do encaminhamento de um cliente: a ligação ao nó atual pode ser trocada numa migração
+     */
+    private final class Encaminhamento {
+        private final Ponta cliente;
+        private Ponta no;                 // Protegido pelo monitor deste objeto
+        private Lida pedidoPronto;        // Último PRONTO do jogador, repetido depois de uma migração
+        private volatile String sala;            // Sala onde o jogador está (null depois de um RECONECTAR)
+        private volatile boolean salaAtribuida;  // Se a sala foi atribuída aqui (e não escolhida pelo cliente)
+
+        Encaminhamento(Ponta cliente) {
+            this.cliente = cliente;
+        }
+
+        void executar() throws IOException {
+            Lida primeira = cliente.lerPedido();
+            if (primeira == null) return;
+            if (primeira.comeca("RECONECTAR:")) {
+                String token = primeira.resto("RECONECTAR:").trim();
+                int arroba = token.lastIndexOf('@');
+                String endereco = arroba >= 0 ? enderecoDe(token.substring(arroba + 1)) : null;
+                if (endereco == null) {
+                    cliente.escrever(cliente.mensagemServidor("ERRO:Sessão inválida ou expirada."));
+                    return;
+                }
+                synchronized (this) {
+                    no = Ponta.ligar(endereco, cliente.binario);
+                    no.escrever(primeira);
+                }
+            } else if (primeira.comeca("SALA:")) {
+                sala = primeira.resto("SALA:").trim();
+                if (!ligarASala(primeira)) return;
+            } else if (primeira.comeca("ESPECTAR:")) {
+                sala = primeira.resto("ESPECTAR:").trim();
+                if (!ligarASala(primeira)) return;
+            } else if (primeira.comeca("REPETIR:")) {
+                String pedido = primeira.resto("REPETIR:");
+                sala = pedido.substring(0, Math.max(0, pedido.lastIndexOf(':'))).trim();
+                if (!ligarASala(primeira)) return;
+            } else {
+                sala = atribuirSala();
+                salaAtribuida = true;
+                if (!ligarASala(null)) return;
+                lembrarPronto(primeira);
+                synchronized (this) {
+                    no.escrever(primeira);
+                }
+            }
+            Thread.ofVirtual().name("entrada-pedidos-", 1).start(this::passarPedidos);
+            passarRespostas();
+        }
+
+        /**
+         * Liga ao dono da sala e pede-a; se for uma sala atribuída aqui e o nó a recusar, tenta a seguinte
+         * @param pedidoSala - Pedido SALA do próprio cliente, ou null para enviar o preâmbulo
+         * @return false se nenhum nó aceitou a ligação
+         */
+        private boolean ligarASala(Lida pedidoSala) throws IOException {
+            for (int tentativa = 0; tentativa < MAX_TENTATIVAS; tentativa++) {
+                String endereco = enderecoDe(anel.dono(sala));
+                if (endereco == null) {
+                    cliente.escrever(cliente.mensagemServidor("ERRO:Nenhum servidor disponível. Tente novamente mais tarde."));
+                    return false;
+                }
+                Ponta novo = Ponta.ligar(endereco, cliente.binario);
+                novo.escrever(pedidoSala != null ? pedidoSala : novo.pedido("SALA:" + sala));
+                Lida resposta = novo.lerResposta();
+                if (resposta == null) {
+                    novo.fechar();
+                    continue;
+                }
+                if (resposta.comeca("ERRO:") && salaAtribuida) {
+                    novo.fechar();
+                    salaIndisponivel(sala);
+                    sala = atribuirSala();
+                    continue;
+                }
+                cliente.escrever(resposta);
+                Ponta antigo;
+                synchronized (this) {
+                    antigo = no;
+                    no = novo;
+                    if (pedidoPronto != null) {
+                        no.escrever(pedidoPronto);
+                    }
+                }
+                if (antigo != null) antigo.fechar();
+                return true;
+            }
+            cliente.escrever(cliente.mensagemServidor("ERRO:Não foi possível encontrar uma sala. Tente novamente mais tarde."));
+            return false;
+        }
+
+        /**
+         * Cliente -> nó
+         */
+        private void passarPedidos() {
+            try {
+                Lida pedido;
+                while ((pedido = cliente.lerPedido()) != null) {
+                    lembrarPronto(pedido);
+                    if (pedido.comeca("SALA:")) {
+                        sala = pedido.resto("SALA:").trim();
+                        salaAtribuida = false;
+                    }
+                    synchronized (this) {
+                        try {
+                            no.escrever(pedido);
+                        } catch (IOException e) {
+                            // O nó fechou (por exemplo numa migração): o PRONTO é repetido ao novo nó
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // O cliente desligou-se
+            }
+            synchronized (this) {
+                no.fechar();
+            }
+        }
+
+        /**
+         * Nó -> cliente; trata as migrações e nota as salas atribuídas que começaram
+         */
+        private void passarRespostas() throws IOException {
+            while (true) {
+                Ponta atual;
+                synchronized (this) {
+                    atual = no;
+                }
+                Lida resposta;
+                try {
+                    resposta = atual.lerResposta();
+                } catch (IOException e) {
+                    resposta = null;
+                }
+                if (resposta == null) {
+                    boolean trocado;
+                    synchronized (this) {
+                        trocado = no != atual;
+                    }
+                    if (trocado) continue; // O nó foi trocado por uma migração
+                    return;
+                }
+                if (resposta.comeca("MIGRAR:")) {
+                    sala = resposta.resto("MIGRAR:");
+                    Registo.info("A migrar um jogador para o dono da sala " + sala);
+                    atualizarNos(); // O nó que drenou já conhece os membros novos; não esperar pela atualização
+                    if (!ligarASala(null)) return;
+                    continue;
+                }
+                if (resposta.comeca("JOGO_INICIADO:") && salaAtribuida && sala != null) {
+                    salaIndisponivel(sala);
+                }
+                cliente.escrever(resposta);
+            }
+        }
+
+        private void lembrarPronto(Lida pedido) {
+            if (pedido.comeca("PRONTO:")) {
+                synchronized (this) {
+                    pedidoPronto = pedido;
+                }
+            }
+        }
+    }
+
+    /**
+     * Uma das pontas de um encaminhamento (o cliente ou um nó), no protocolo escolhido pelo cliente
+     */
+    private static final class Ponta {
+        final Socket socket;
+        final boolean binario;
+        final BufferedReader leitorTexto;
+        final DataInputStream leitorBinario;
+        final OutputStream saida;
+
+        Ponta(Socket socket, InputStream entrada, boolean binario) throws IOException {
+            this.socket = socket;
+            this.binario = binario;
+            this.leitorTexto = binario ? null : new BufferedReader(new InputStreamReader(entrada, StandardCharsets.UTF_8));
+            this.leitorBinario = binario ? new DataInputStream(entrada) : null;
+            this.saida = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        static Ponta ligar(String endereco, boolean binario) throws IOException {
+            int separador = endereco.lastIndexOf(':');
+            Socket socket = new Socket();
+            socket.connect(new InetSocketAddress(endereco.substring(0, separador),
+                    Integer.parseInt(endereco.substring(separador + 1))));
+            Ponta ponta = new Ponta(socket, new BufferedInputStream(socket.getInputStream()), binario);
+            if (binario) {
+                ponta.saida.write(ProtocoloBinario.MAGIA);
+            }
+            return ponta;
+        }
+
+        /**
+         * Lê um pedido de um cliente
+         */
+        Lida lerPedido() throws IOException {
+            return ler(true);
+        }
+
+        /**
+         * Lê uma resposta de um nó
+         */
+        Lida lerResposta() throws IOException {
+            return ler(false);
+        }
+
+        private Lida ler(boolean pedido) throws IOException {
+            if (!binario) {
+                String linha = leitorTexto.readLine();
+                return linha != null ? new Lida(linha, (linha + "\n").getBytes(StandardCharsets.UTF_8)) : null;
+            }
+            byte[] trama = ProtocoloBinario.lerTrama(leitorBinario);
+            if (trama == null) return null;
+            byte[] bytes = new byte[2 + trama.length];
+            bytes[0] = (byte) (trama.length >>> 8);
+            bytes[1] = (byte) trama.length;
+            System.arraycopy(trama, 0, bytes, 2, trama.length);
+            return new Lida(pedido ? textoPedido(trama) : textoResposta(trama), bytes);
+        }
+
+        /**
+         * Pedido do cliente no protocolo desta ponta
+         */
+        Lida pedido(String linha) {
+            return binario ? new Lida(linha, ProtocoloBinario.codificarPedido(linha))
+                    : new Lida(linha, (linha + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Mensagem do servidor no protocolo desta ponta
+         */
+        Lida mensagemServidor(String linha) {
+            return new Lida(linha, Mensagem.deTexto(linha).bytes(binario));
+        }
+
+        synchronized void escrever(Lida mensagem) throws IOException {
+            saida.write(mensagem.bytes);
+            saida.flush();
+        }
+
+        void fechar() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Já fechado
+            }
+        }
+
+        /**
+         * Texto equivalente das tramas de pedido que decidem o encaminhamento (null nas restantes)
+         */
+        private static String textoPedido(byte[] trama) {
+            String dados = ProtocoloBinario.texto(trama, 1, trama.length);
+            switch (trama[0] & 0xFF) {
+                case ProtocoloBinario.SALA: return "SALA:" + dados;
+                case ProtocoloBinario.RECONECTAR: return "RECONECTAR:" + dados;
+                case ProtocoloBinario.PRONTO: return "PRONTO:" + dados;
+                case ProtocoloBinario.TEXTO: return dados; // ESPECTAR e REPETIR não têm código próprio
+                default: return null;
+            }
+        }
+
+        /**
+         * Texto equivalente das tramas de resposta que a porta de entrada observa (null nas restantes)
+         */
+        private static String textoResposta(byte[] trama) {
+            String dados = ProtocoloBinario.texto(trama, 1, trama.length);
+            switch (trama[0] & 0xFF) {
+                case ProtocoloBinario.MIGRAR: return "MIGRAR:" + dados;
+                case ProtocoloBinario.JOGO_INICIADO: return "JOGO_INICIADO:" + dados;
+                case ProtocoloBinario.ERRO: return "ERRO:" + dados;
+                case ProtocoloBinario.SALA_ATRIBUIDA: return "SALA:" + dados;
+                default: return null;
+            }
+        }
+    }
+
+    /**
+     * Mensagem lida de uma ponta: os bytes a reenviar e, se for relevante, o seu texto
+     */
+    private static final class Lida {
+        final String texto;
+        final byte[] bytes;
+
+        Lida(String texto, byte[] bytes) {
+            this.texto = texto;
+            this.bytes = bytes;
+        }
+
+        boolean comeca(String prefixo) {
+            return texto != null && texto.startsWith(prefixo);
+        }
+
+        String resto(String prefixo) {
+            return texto.substring(prefixo.length());
+        }
+    }
+
+    /**
+     * Ponto de entrada: argumento opcional com a porta (por omissão 12345)
+     */
+    public static void main(String[] args) {
+        RegistoCluster registo;
+        try {
+            registo = RegistoCluster.doSistema();
+        } catch (IOException e) {
+            System.err.println("Erro ao abrir o registo do cluster: " + e.getMessage());
+            return;
+        }
+        if (registo == null) {
+            System.err.println("Indique a diretoria do registo do cluster com -Dbingo.cluster.dir=...");
+            return;
+        }
+        PortaEntrada porta = new PortaEntrada(args.length > 0 ? Integer.parseInt(args[0]) : PORTA, registo);
+        Runtime.getRuntime().addShutdownHook(new Thread(porta::parar));
+        try {
+            porta.iniciar();
+        } catch (IOException e) {
+            Registo.erro("Erro ao iniciar a porta de entrada: " + e.getMessage());
+        }
+    }
+}
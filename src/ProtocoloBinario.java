@@ -0,0 +1,201 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Protocolo binário compacto, opcional, negociado ao lado do protocolo de texto
+ *
+ * Negociação: o cliente envia o byte MAGIA como primeiro byte da ligação. Os clientes de texto
+ * começam sempre por um carácter ASCII, por isso continuam a funcionar sem alterações.
+ *
+ * Trama: [tamanho u16 big-endian][código u8][dados], em que o tamanho conta o código e os dados.
+ * Um número sorteado ocupa 2 bytes (código e número) mais 2 bytes de número de sequência;
+ * um cartão ocupa 25 bytes mais o identificador; o estado de um jogo em curso ocupa sempre 37 bytes.
+ */
+public final class ProtocoloBinario {
+    /** Primeiro byte enviado por um cliente que quer usar o protocolo binário */
+    public static final int MAGIA = 0xB1;
+    public static final int TAMANHO_MAX_TRAMA = 0xFFFF;
+
+    // Pedidos do cliente para o servidor
+    public static final int PRONTO = 0x01;      // dados: nome em UTF-8, opcionalmente seguido de ":numCartoes"
+    public static final int MARCAR = 0x02;      // dados: número (u8)
+    public static final int DESMARCAR = 0x03;   // dados: número (u8)
+    public static final int LINHA = 0x04;       // dados: identificador do cartão em UTF-8 (vazio para todos os cartões)
+    public static final int BINGO = 0x05;       // dados: identificador do cartão em UTF-8 (vazio para todos os cartões)
+    public static final int SALA = 0x06;        // dados: identificador da sala em UTF-8
+    public static final int RECONECTAR = 0x07;  // dados: token da sessão em UTF-8
+    public static final int MARCAR_LOTE = 0x08; // dados: todas as marcações do jogador (2 x u64, números 1-63 e 64-99)
+    public static final int TEXTO = 0x7F;       // dados: linha do protocolo de texto (comandos sem código próprio)
+
+    // Mensagens do servidor para o cliente
+    public static final int CARTAO = 0x81;          // dados: tamanho do id (u8), id, 25 números (u8)
+    public static final int NUMERO_SORTEADO = 0x82; // dados: número (u8), sequência (u16)
+    public static final int JOGO_INICIADO = 0x83;
+    public static final int LINHA_VALIDA = 0x84;
+    public static final int LINHA_INVALIDA = 0x85;
+    public static final int BINGO_VALIDO = 0x86;
+    public static final int BINGO_OUTROS = 0x87;
+    public static final int BINGO_INVALIDO = 0x88;
+    public static final int FIM_DE_JOGO = 0x89;
+    public static final int ERRO = 0x8A;
+    public static final int SALA_ATRIBUIDA = 0x8B;
+    public static final int ESTADO = 0x8C;          // dados: sequência (u16), sorteados (2 x u64), marcados (2 x u64)
+    public static final int SESSAO = 0x8D;          // dados: token da sessão em UTF-8
+    public static final int MIGRAR = 0x8E;          // dados: identificador da sala, que passou para outro nó do cluster
+    public static final int TEXTO_SERVIDOR = 0xFF;  // dados: linha de texto sem código próprio
+
+    // Prefixos de texto das mensagens do servidor com código próprio e dados em texto
+    private static final String[] PREFIXOS = {
+        "JOGO_INICIADO:", "LINHA_VALIDA:", "BINGO_OUTROS:", "FIM_DE_JOGO:", "ERRO:", "SALA:", "SESSAO:", "MIGRAR:"
+    };
+    private static final int[] CODIGOS_PREFIXOS = {
+        JOGO_INICIADO, LINHA_VALIDA, BINGO_OUTROS, FIM_DE_JOGO, ERRO, SALA_ATRIBUIDA, SESSAO, MIGRAR
+    };
+
+    private ProtocoloBinario() {
+    }
+
+    /**
+     * Codifica uma mensagem de texto do servidor numa trama binária
+     * Usado uma única vez por mensagem (o resultado fica guardado na Mensagem)
+     */
+    public static byte[] codificarMensagemServidor(String texto) {
+        switch (texto) {
+            case "LINHA_INVALIDA": return trama(LINHA_INVALIDA);
+            case "BINGO_VALIDO": return trama(BINGO_VALIDO);
+            case "BINGO_INVALIDO": return trama(BINGO_INVALIDO);
+            default: break;
+        }
+        for (int i = 0; i < PREFIXOS.length; i++) {
+            if (texto.startsWith(PREFIXOS[i])) {
+                return trama(CODIGOS_PREFIXOS[i], texto.substring(PREFIXOS[i].length()).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return trama(TEXTO_SERVIDOR, texto.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Codifica um número sorteado: 2 bytes de código e número, mais a sequência
+     */
+    public static byte[] codificarNumeroSorteado(int numero, int sequencia) {
+        return new byte[] {0, 4, (byte) NUMERO_SORTEADO, (byte) numero, (byte) (sequencia >>> 8), (byte) sequencia};
+    }
+
+    /**
+     * Codifica o estado de um jogo em curso: sequência do último sorteio e os dois conjuntos como mapas de bits
+     * Tem sempre 37 bytes, seja qual for o número de sorteios já feitos
+     */
+    public static byte[] codificarEstado(int sequencia, ConjuntoNumeros sorteados, ConjuntoNumeros marcados) {
+        ByteBuffer dados = ByteBuffer.allocate(2 + 1 + 2 + 4 * Long.BYTES);
+        dados.putShort((short) (dados.capacity() - 2)).put((byte) ESTADO).putShort((short) sequencia);
+        dados.putLong(sorteados.obterBaixo()).putLong(sorteados.obterAlto());
+        dados.putLong(marcados.obterBaixo()).putLong(marcados.obterAlto());
+        return dados.array();
+    }
+
+    /**
+     * Codifica um cartão: identificador e 25 números de um byte
+     */
+    public static byte[] codificarCartao(String idCartao, Cartao cartao) {
+        byte[] id = idCartao.getBytes(StandardCharsets.UTF_8);
+        byte[] dados = new byte[1 + id.length + Cartao.TAMANHO];
+        dados[0] = (byte) id.length;
+        System.arraycopy(id, 0, dados, 1, id.length);
+        for (int i = 0; i < Cartao.TAMANHO; i++) {
+            dados[1 + id.length + i] = (byte) cartao.obterNumero(i);
+        }
+        return trama(CARTAO, dados);
+    }
+
+    /**
+     * Codifica um pedido do cliente, escrito no protocolo de texto, como trama binária
+     */
+    public static byte[] codificarPedido(String linha) {
+        if (linha.equals("LINHA")) return trama(LINHA);
+        if (linha.equals("BINGO")) return trama(BINGO);
+        try {
+            // Um número fora de 1-99 não cabe na trama; segue como texto para o servidor o rejeitar
+            if (linha.startsWith("MARCAR:")) {
+                int numero = Integer.parseInt(linha.substring("MARCAR:".length()));
+                if (numero >= 1 && numero <= ConjuntoNumeros.MAXIMO) {
+                    return trama(MARCAR, new byte[] {(byte) numero});
+                }
+            }
+            if (linha.startsWith("DESMARCAR:")) {
+                int numero = Integer.parseInt(linha.substring("DESMARCAR:".length()));
+                if (numero >= 1 && numero <= ConjuntoNumeros.MAXIMO) {
+                    return trama(DESMARCAR, new byte[] {(byte) numero});
+                }
+            }
+            if (linha.startsWith("MARCAR_LOTE:")) {
+                String[] palavras = linha.substring("MARCAR_LOTE:".length()).split(",");
+                if (palavras.length == 2) {
+                    return trama(MARCAR_LOTE, ByteBuffer.allocate(2 * Long.BYTES)
+                            .putLong(Long.parseUnsignedLong(palavras[0], 16))
+                            .putLong(Long.parseUnsignedLong(palavras[1], 16)).array());
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Segue como texto para o servidor responder com o erro habitual
+        }
+        if (linha.startsWith("PRONTO:")) {
+            return trama(PRONTO, linha.substring("PRONTO:".length()).getBytes(StandardCharsets.UTF_8));
+        }
+        if (linha.startsWith("SALA:")) {
+            return trama(SALA, linha.substring("SALA:".length()).getBytes(StandardCharsets.UTF_8));
+        }
+        if (linha.startsWith("LINHA:")) {
+            return trama(LINHA, linha.substring("LINHA:".length()).getBytes(StandardCharsets.UTF_8));
+        }
+        if (linha.startsWith("BINGO:")) {
+            return trama(BINGO, linha.substring("BINGO:".length()).getBytes(StandardCharsets.UTF_8));
+        }
+        if (linha.startsWith("RECONECTAR:")) {
+            return trama(RECONECTAR, linha.substring("RECONECTAR:".length()).getBytes(StandardCharsets.UTF_8));
+        }
+        return trama(TEXTO, linha.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Lê uma trama completa de um stream bloqueante
+     * @return código e dados da trama (o tamanho do array é o tamanho da trama), ou null no fim do stream
+     */
+    public static byte[] lerTrama(DataInputStream entrada) throws IOException {
+        int alto = entrada.read();
+        if (alto < 0) return null;
+        int tamanho = (alto << 8) | entrada.readUnsignedByte();
+        if (tamanho == 0) {
+            throw new IOException("Trama vazia");
+        }
+        byte[] trama = new byte[tamanho];
+        entrada.readFully(trama);
+        return trama;
+    }
+
+    /**
+     * Lê o texto UTF-8 dos dados de uma trama, a partir de uma posição
+     */
+    public static String texto(byte[] trama, int inicio, int fim) {
+        return new String(trama, inicio, fim - inicio, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] trama(int codigo) {
+        return new byte[] {0, 1, (byte) codigo};
+    }
+
+    private static byte[] trama(int codigo, byte[] dados) {
+        int tamanho = 1 + dados.length;
+        if (tamanho > TAMANHO_MAX_TRAMA) {
+            throw new IllegalArgumentException("Trama demasiado grande: " + tamanho + " bytes");
+        }
+        ByteArrayOutputStream saida = new ByteArrayOutputStream(2 + tamanho);
+        saida.write(tamanho >>> 8);
+        saida.write(tamanho);
+        saida.write(codigo);
+        saida.write(dados, 0, dados.length);
+        return saida.toByteArray();
+    }
+}
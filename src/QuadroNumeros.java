@@ -0,0 +1,124 @@
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Quadro dos números sorteados, desenhado à mão: 99 células fixas numa grelha de 10 x 10
+ * Não cria componentes nem objetos por sorteio; um número novo só pede para redesenhar a sua célula
+ * e a do último número anterior (que perde o destaque), e o desenho só percorre as células dentro do recorte
+ */
+public class QuadroNumeros extends JComponent {
+    private static final int COLUNAS = 10;
+    private static final int LINHAS = 10;
+    private static final int TAMANHO_CELULA = 28;
+    private static final int ESPACO = 2;
+
+    private static final Color COR_FUNDO = Color.WHITE;
+    private static final Color COR_LIVRE = new Color(235, 235, 235);
+    private static final Color COR_SORTEADO = Color.YELLOW;
+    private static final Color COR_ULTIMO = new Color(255, 140, 0);
+    private static final Color COR_TEXTO_LIVRE = Color.GRAY;
+    private static final Color COR_TEXTO_SORTEADO = Color.BLACK;
+    private static final String[] TEXTOS = new String[ConjuntoNumeros.MAXIMO + 1];
+
+    static {
+        for (int numero = 1; numero <= ConjuntoNumeros.MAXIMO; numero++) {
+            TEXTOS[numero] = Integer.toString(numero);
+        }
+    }
+
+    private final Font fonteNumero = new Font("Arial", Font.PLAIN, 12);
+    private final Font fonteUltimo = new Font("Arial", Font.BOLD, 14);
+    private final ConjuntoNumeros sorteados = new ConjuntoNumeros();
+    private int ultimo; // Último número sorteado (0 se nenhum)
+
+    /**
+     * Construtor - Cria o quadro vazio com o tamanho fixo das 99 células
+     */
+    public QuadroNumeros() {
+        Dimension tamanho = new Dimension(COLUNAS * (TAMANHO_CELULA + ESPACO) + ESPACO,
+                                          LINHAS * (TAMANHO_CELULA + ESPACO) + ESPACO);
+        setPreferredSize(tamanho);
+        setMinimumSize(tamanho);
+        setOpaque(true);
+    }
+
+    /**
+     * Marca um número como sorteado e destaca-o como o último (só no EDT)
+     */
+    public void adicionarSorteado(int numero) {
+        if (numero < 1 || numero > ConjuntoNumeros.MAXIMO || !sorteados.adicionar(numero)) return;
+        int anterior = ultimo;
+        ultimo = numero;
+        if (anterior != 0) repintarCelula(anterior);
+        repintarCelula(numero);
+    }
+
+    /**
+     * Acrescenta os números de um estado recebido, sem mudar o último destacado (só no EDT)
+     */
+    public void adicionarSorteados(ConjuntoNumeros numeros) {
+        for (int numero = 1; numero <= ConjuntoNumeros.MAXIMO; numero++) {
+            if (numeros.contem(numero) && sorteados.adicionar(numero)) {
+                repintarCelula(numero);
+            }
+        }
+    }
+
+    /**
+     * Pede para redesenhar apenas a célula de um número
+     */
+    private void repintarCelula(int numero) {
+        int indice = numero - 1;
+        repaint(x(indice % COLUNAS), y(indice / COLUNAS), TAMANHO_CELULA, TAMANHO_CELULA);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle recorte = g.getClipBounds();
+        if (recorte == null) {
+            recorte = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        g.setColor(COR_FUNDO);
+        g.fillRect(recorte.x, recorte.y, recorte.width, recorte.height);
+        if (g instanceof Graphics2D) {
+            ((Graphics2D) g).setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        }
+
+        // Só as linhas e colunas que tocam no recorte
+        int primeiraColuna = Math.max(0, recorte.x / (TAMANHO_CELULA + ESPACO));
+        int ultimaColuna = Math.min(COLUNAS - 1, (recorte.x + recorte.width) / (TAMANHO_CELULA + ESPACO));
+        int primeiraLinha = Math.max(0, recorte.y / (TAMANHO_CELULA + ESPACO));
+        int ultimaLinha = Math.min(LINHAS - 1, (recorte.y + recorte.height) / (TAMANHO_CELULA + ESPACO));
+        for (int linha = primeiraLinha; linha <= ultimaLinha; linha++) {
+            for (int coluna = primeiraColuna; coluna <= ultimaColuna; coluna++) {
+                int numero = linha * COLUNAS + coluna + 1;
+                if (numero <= ConjuntoNumeros.MAXIMO) {
+                    desenharCelula(g, numero, x(coluna), y(linha));
+                }
+            }
+        }
+    }
+
+    private void desenharCelula(Graphics g, int numero, int x, int y) {
+        boolean sorteado = sorteados.contem(numero);
+        boolean destacado = numero == ultimo;
+        g.setColor(destacado ? COR_ULTIMO : sorteado ? COR_SORTEADO : COR_LIVRE);
+        g.fillRect(x, y, TAMANHO_CELULA, TAMANHO_CELULA);
+
+        Font fonte = destacado ? fonteUltimo : fonteNumero;
+        g.setFont(fonte);
+        g.setColor(sorteado ? COR_TEXTO_SORTEADO : COR_TEXTO_LIVRE);
+        FontMetrics metricas = g.getFontMetrics(fonte);
+        String texto = TEXTOS[numero];
+        g.drawString(texto, x + (TAMANHO_CELULA - metricas.stringWidth(texto)) / 2,
+                     y + (TAMANHO_CELULA - metricas.getHeight()) / 2 + metricas.getAscent());
+    }
+
+    private static int x(int coluna) {
+        return ESPACO + coluna * (TAMANHO_CELULA + ESPACO);
+    }
+
+    private static int y(int linha) {
+        return ESPACO + linha * (TAMANHO_CELULA + ESPACO);
+    }
+}
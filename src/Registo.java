@@ -0,0 +1,156 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Registo assíncrono do servidor, com níveis
+ * Quem regista apenas coloca a linha num buffer circular limitado; uma thread de fundo escreve-as
+ * na consola em lotes. As mensagens de TRACO e DEPURACAO são construídas por um Supplier,
+ * só chamado se o nível estiver ativo, pelo que não custam nada quando estão desligadas.
+ * Se o buffer encher, as linhas são descartadas (e contadas) em vez de bloquear quem regista.
+ *
+ * O nível é escolhido com -Dbingo.registo=traco|depuracao|info|aviso|erro (por omissão info)
+ */
+public final class Registo {
+    /**
+     * Níveis do registo, do mais detalhado para o mais grave
+     */
+    public enum Nivel {
+        TRACO,     // Cada mensagem recebida e enviada
+        DEPURACAO, // Marcações, sorteios e pedidos de cada jogador
+        INFO,      // Ciclo de vida das salas, dos jogos e do servidor
+        AVISO,
+        ERRO
+    }
+
+    private static final int CAPACIDADE = 8192;
+    private static final int MAX_LOTE = 256;
+
+    private static final BlockingQueue<Entrada> fila = new ArrayBlockingQueue<>(CAPACIDADE);
+    private static final AtomicLong descartadas = new AtomicLong();
+    private static volatile Nivel nivelAtivo = lerNivel(System.getProperty("bingo.registo", "info"));
+
+    static {
+        Thread escritor = new Thread(Registo::escreverPendentes, "registo");
+        escritor.setDaemon(true);
+        escritor.start();
+        // Escreve o que ainda estiver no buffer quando a JVM termina
+        Runtime.getRuntime().addShutdownHook(new Thread(Registo::esvaziar, "registo-fim"));
+    }
+
+    private Registo() {
+    }
+
+    /**
+     * Verifica se um nível está ativo (útil para evitar trabalho antes de registar)
+     */
+    public static boolean ativo(Nivel nivel) {
+        return nivel.ordinal() >= nivelAtivo.ordinal();
+    }
+
+    /**
+     * Muda o nível do registo durante a execução
+     */
+    public static void definirNivel(Nivel nivel) {
+        nivelAtivo = nivel;
+    }
+
+    public static Nivel obterNivel() {
+        return nivelAtivo;
+    }
+
+    public static void traco(Supplier<String> mensagem) {
+        if (ativo(Nivel.TRACO)) registar(Nivel.TRACO, mensagem.get());
+    }
+
+    public static void depuracao(Supplier<String> mensagem) {
+        if (ativo(Nivel.DEPURACAO)) registar(Nivel.DEPURACAO, mensagem.get());
+    }
+
+    public static void info(String mensagem) {
+        if (ativo(Nivel.INFO)) registar(Nivel.INFO, mensagem);
+    }
+
+    public static void aviso(String mensagem) {
+        if (ativo(Nivel.AVISO)) registar(Nivel.AVISO, mensagem);
+    }
+
+    public static void erro(String mensagem) {
+        if (ativo(Nivel.ERRO)) registar(Nivel.ERRO, mensagem);
+    }
+
+    /**
+     * Número de linhas descartadas desde o arranque por o buffer estar cheio
+     */
+    public static long obterDescartadas() {
+        return descartadas.get();
+    }
+
+    private static void registar(Nivel nivel, String mensagem) {
+        if (!fila.offer(new Entrada(nivel, mensagem))) {
+            descartadas.incrementAndGet();
+        }
+    }
+
+    private static Nivel lerNivel(String nome) {
+        try {
+            return Nivel.valueOf(nome.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Nível de registo desconhecido: " + nome + ". A usar info");
+            return Nivel.INFO;
+        }
+    }
+
+    /**
+     * Ciclo da thread de escrita: espera por linhas e escreve-as em lotes com um só flush
+     */
+    private static void escreverPendentes() {
+        List<Entrada> lote = new ArrayList<>(MAX_LOTE);
+        long descartadasAvisadas = 0;
+        try {
+            while (true) {
+                lote.add(fila.take());
+                fila.drainTo(lote, MAX_LOTE - 1);
+                long totalDescartadas = descartadas.get();
+                escrever(lote, totalDescartadas - descartadasAvisadas);
+                descartadasAvisadas = totalDescartadas;
+                lote.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void esvaziar() {
+        List<Entrada> lote = new ArrayList<>();
+        fila.drainTo(lote);
+        escrever(lote, 0);
+    }
+
+    private static synchronized void escrever(List<Entrada> lote, long novasDescartadas) {
+        PrintStream saida = System.out;
+        PrintStream erros = System.err;
+        if (novasDescartadas > 0) {
+            erros.println("[registo] " + novasDescartadas + " linhas descartadas (buffer cheio)");
+        }
+        for (Entrada entrada : lote) {
+            (entrada.nivel.ordinal() >= Nivel.AVISO.ordinal() ? erros : saida).println(entrada.mensagem);
+        }
+        saida.flush();
+        erros.flush();
+    }
+
+    private static final class Entrada {
+        final Nivel nivel;
+        final String mensagem;
+
+        Entrada(Nivel nivel, String mensagem) {
+            this.nivel = nivel;
+            this.mensagem = mensagem;
+        }
+    }
+}
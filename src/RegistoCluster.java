@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Registo dos nós do cluster numa diretoria partilhada, em vez de um serviço de coordenação externo
+ * Cada nó anuncia-se escrevendo o ficheiro idNo.no com o seu endereço e volta a escrevê-lo a cada
+ * batimento; um nó cujo ficheiro não é atualizado há mais de VALIDADE_MS deixa de contar.
+ * Serve para vários processos na mesma máquina (ou numa diretoria de rede partilhada)
+ */
+public final class RegistoCluster {
+    public static final long VALIDADE_MS = 3000;
+    private static final String EXTENSAO = ".no";
+
+    private final Path diretoria;
+
+    /**
+     * Construtor - Usa (e cria, se preciso) a diretoria do registo
+     */
+    public RegistoCluster(Path diretoria) throws IOException {
+        this.diretoria = diretoria;
+        Files.createDirectories(diretoria);
+    }
+
+    /**
+     * Obtém o registo configurado com -Dbingo.cluster.dir
+     * @return null se o servidor não faz parte de um cluster
+     */
+    public static RegistoCluster doSistema() throws IOException {
+        String diretoria = System.getProperty("bingo.cluster.dir");
+        return diretoria != null ? new RegistoCluster(Paths.get(diretoria)) : null;
+    }
+
+    /**
+     * Anuncia (ou renova) um nó: o ficheiro é substituído de forma atómica, nunca lido a meio
+     */
+    public void anunciar(String idNo, String endereco) throws IOException {
+        Path temporario = diretoria.resolve(idNo + EXTENSAO + ".tmp");
+        Files.write(temporario, endereco.getBytes(StandardCharsets.UTF_8));
+        Files.move(temporario, diretoria.resolve(idNo + EXTENSAO),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Retira um nó do registo (saída ordenada)
+     */
+    public void retirar(String idNo) {
+        try {
+            Files.deleteIfExists(diretoria.resolve(idNo + EXTENSAO));
+        } catch (IOException e) {
+            Registo.aviso("Erro ao retirar o nó " + idNo + " do registo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Obtém os nós vivos, ordenados pelo identificador
+     * @return mapa idNo -> endereço (host:porta)
+     */
+    public Map<String, String> obterNos() throws IOException {
+        Map<String, String> nos = new TreeMap<>();
+        long limite = System.currentTimeMillis() - VALIDADE_MS;
+        try (DirectoryStream<Path> ficheiros = Files.newDirectoryStream(diretoria, "*" + EXTENSAO)) {
+            for (Path ficheiro : ficheiros) {
+                try {
+                    if (Files.getLastModifiedTime(ficheiro).toMillis() < limite) continue;
+                    String nome = ficheiro.getFileName().toString();
+                    nos.put(nome.substring(0, nome.length() - EXTENSAO.length()),
+                            new String(Files.readAllBytes(ficheiro), StandardCharsets.UTF_8).trim());
+                } catch (NoSuchFileException e) {
+                    // O nó saiu entretanto
+                }
+            }
+        }
+        return nos;
+    }
+}
@@ -0,0 +1,226 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Roda de temporizadores (hashed wheel) partilhada por todas as salas
+ * Uma única thread avança a roda a cada tick e só percorre a posição do tick atual, onde estão as tarefas
+ * que vencem nesse tick (e as que vencem voltas mais tarde na mesma posição). Com a roda a cobrir o maior
+ * intervalo de sorteio, o custo de cada tick depende das tarefas que vencem e não do número de salas.
+ * A thread da roda não executa as tarefas: entrega-as ao executor, para que um sorteio demorado
+ * numa sala não atrase as outras.
+ *
+ * Agendar, pausar, retomar e cancelar podem ser chamados de qualquer thread: os novos agendamentos
+ * passam por uma fila sem trincos e as mudanças de estado são atómicas; as listas das posições
+ * só são tocadas pela thread da roda
+ */
+public final class RodaTemporizadores {
+    private static final int AGENDADA = 0;
+    private static final int PAUSADA = 1;  // Ainda na roda; sai dela quando a sua posição chegar
+    private static final int PARADA = 2;   // Pausada e fora da roda
+    private static final int CANCELADA = 3;
+    private static final int RETOMADA = 4; // À espera de que a thread da roda a recoloque um intervalo depois; não executa
+
+    private final long duracaoTickNanos;
+    private final Tarefa[] posicoes; // Cabeça da lista ligada de cada posição
+    private final int mascara;
+    private final Executor executor;
+    private final Queue<Tarefa> pendentes = new ConcurrentLinkedQueue<>(); // Tarefas a colocar na roda
+    private final AtomicInteger numTarefas = new AtomicInteger();
+    private final Thread thread;
+    private volatile boolean ativa = true;
+    private long tick; // Só lido e escrito pela thread da roda
+
+    /**
+     * Construtor - Cria a roda e arranca a sua thread
+     * @param nome - Nome da thread da roda
+     * @param duracaoTickMs - Resolução dos temporizadores, em milissegundos
+     * @param numPosicoes - Número de posições da roda (arredondado para uma potência de 2)
+     * @param executor - Onde correm as tarefas que vencem
+     */
+    public RodaTemporizadores(String nome, long duracaoTickMs, int numPosicoes, Executor executor) {
+        this.duracaoTickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, duracaoTickMs));
+        int tamanho = Integer.highestOneBit(Math.max(2, numPosicoes - 1)) << 1;
+        this.posicoes = new Tarefa[tamanho];
+        this.mascara = tamanho - 1;
+        this.executor = executor;
+        this.thread = new Thread(this::rodar, nome);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Agenda uma tarefa periódica
+     * @param acao - Trabalho a executar em cada vencimento
+     * @param atrasoMs - Tempo até à primeira execução
+     * @param intervaloMs - Tempo entre execuções
+     * @return a tarefa, que pode ser pausada, retomada ou cancelada
+     */
+    public Tarefa agendar(Runnable acao, long atrasoMs, long intervaloMs) {
+        Tarefa tarefa = new Tarefa(acao, intervaloMs);
+        tarefa.atrasoNanos = TimeUnit.MILLISECONDS.toNanos(atrasoMs);
+        numTarefas.incrementAndGet();
+        pendentes.add(tarefa);
+        return tarefa;
+    }
+
+    /**
+     * Número de tarefas agendadas e ainda não canceladas
+     */
+    public int obterNumTarefas() {
+        return numTarefas.get();
+    }
+
+    /**
+     * Para a roda; as tarefas ainda agendadas deixam de ser executadas
+     */
+    public void parar() {
+        ativa = false;
+        thread.interrupt();
+    }
+
+    /**
+     * Ciclo da thread da roda: dorme até ao tick seguinte e processa todos os ticks já vencidos
+     */
+    private void rodar() {
+        long inicio = System.nanoTime();
+        while (ativa) {
+            long proximo = inicio + (tick + 1) * duracaoTickNanos;
+            long espera = proximo - System.nanoTime();
+            if (espera > 0) {
+                LockSupport.parkNanos(this, espera);
+                continue;
+            }
+            long vencido = (System.nanoTime() - inicio) / duracaoTickNanos;
+            while (tick < vencido && ativa) {
+                tick++;
+                colocarPendentes();
+                processarPosicao((int) (tick & mascara));
+            }
+        }
+    }
+
+    private void colocarPendentes() {
+        Tarefa tarefa;
+        while ((tarefa = pendentes.poll()) != null) {
+            if (tarefa.estado.compareAndSet(RETOMADA, AGENDADA)) {
+                if (tarefa.naRoda) {
+                    remover(tarefa); // Retomada antes de sair da roda: o prazo antigo deixa de valer
+                }
+            } else if (tarefa.estado.get() != AGENDADA || tarefa.naRoda) {
+                continue; // Cancelada, pausada de novo ou já recolocada por uma entrada anterior
+            }
+            inserir(tarefa, tick + Math.max(1, (tarefa.atrasoNanos + duracaoTickNanos - 1) / duracaoTickNanos));
+        }
+    }
+
+    private void processarPosicao(int posicao) {
+        Tarefa tarefa = posicoes[posicao];
+        while (tarefa != null) {
+            Tarefa seguinte = tarefa.seguinte;
+            if (tarefa.estado.get() == CANCELADA) {
+                remover(tarefa);
+            } else if (tarefa.estado.get() == RETOMADA) {
+                // Retomada agora mesmo: a fila de pendentes recoloca-a no tick seguinte
+            } else if (tarefa.estado.get() == PAUSADA && tarefa.estado.compareAndSet(PAUSADA, PARADA)) {
+                // Sai da roda; retomar() volta a colocá-la através da fila de pendentes
+                remover(tarefa);
+            } else if (tarefa.prazo <= tick) {
+                remover(tarefa);
+                inserir(tarefa, tick + Math.max(1, tarefa.intervaloNanos / duracaoTickNanos));
+                try {
+                    executor.execute(tarefa.acao);
+                } catch (RuntimeException e) {
+                    Registo.erro("Erro ao executar tarefa agendada: " + e.getMessage());
+                }
+            }
+            tarefa = seguinte;
+        }
+    }
+
+    private void inserir(Tarefa tarefa, long prazo) {
+        int posicao = (int) (prazo & mascara);
+        tarefa.prazo = prazo;
+        tarefa.posicao = posicao;
+        tarefa.naRoda = true;
+        tarefa.anterior = null;
+        tarefa.seguinte = posicoes[posicao];
+        if (tarefa.seguinte != null) {
+            tarefa.seguinte.anterior = tarefa;
+        }
+        posicoes[posicao] = tarefa;
+    }
+
+    private void remover(Tarefa tarefa) {
+        if (tarefa.anterior != null) {
+            tarefa.anterior.seguinte = tarefa.seguinte;
+        } else {
+            posicoes[tarefa.posicao] = tarefa.seguinte;
+        }
+        if (tarefa.seguinte != null) {
+            tarefa.seguinte.anterior = tarefa.anterior;
+        }
+        tarefa.anterior = null;
+        tarefa.seguinte = null;
+        tarefa.naRoda = false;
+    }
+
+    /**
+     * Tarefa periódica agendada na roda
+     */
+    public final class Tarefa {
+        private final Runnable acao;
+        private final AtomicInteger estado = new AtomicInteger(AGENDADA);
+        private final long intervaloNanos;
+        private volatile long atrasoNanos; // Atraso até ao primeiro vencimento (ou até ao seguinte, depois de retomada)
+
+        // Posição na roda, só usada pela thread da roda
+        private long prazo;
+        private int posicao;
+        private boolean naRoda;
+        private Tarefa anterior;
+        private Tarefa seguinte;
+
+        private Tarefa(Runnable acao, long intervaloMs) {
+            this.acao = acao;
+            this.intervaloNanos = TimeUnit.MILLISECONDS.toNanos(intervaloMs);
+        }
+
+        /**
+         * Suspende a tarefa; não volta a ser executada até ser retomada
+         */
+        public void pausar() {
+            if (!estado.compareAndSet(AGENDADA, PAUSADA)) {
+                estado.compareAndSet(RETOMADA, PAUSADA);
+            }
+        }
+
+        /**
+         * Retoma uma tarefa pausada; a próxima execução é daqui a um intervalo
+         * Mesmo que ainda esteja na roda, volta a entrar pela fila de pendentes com um prazo novo
+         */
+        public void retomar() {
+            atrasoNanos = intervaloNanos;
+            if (estado.compareAndSet(PAUSADA, RETOMADA) || estado.compareAndSet(PARADA, RETOMADA)) {
+                pendentes.add(this);
+            }
+        }
+
+        /**
+         * Cancela a tarefa de vez (é retirada da roda quando a sua posição chegar)
+         */
+        public void cancelar() {
+            if (estado.getAndSet(CANCELADA) != CANCELADA) {
+                numTarefas.decrementAndGet();
+            }
+        }
+
+        public boolean estaPausada() {
+            int atual = estado.get();
+            return atual == PAUSADA || atual == PARADA;
+        }
+    }
+}
@@ -0,0 +1,1103 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Sala de jogo de Bingo
+ * Cada sala tem o seu próprio conjunto de jogadores, números sorteados e ritmo de sorteio
+ * (os sorteios de todas as salas são agendados numa única roda de temporizadores do servidor).
+ *
+ * O jogo é mudado por um único escritor: os sorteios, os pedidos de LINHA e BINGO, as entradas e saídas
+ * de jogadores, a emissão dos cartões, as reconexões e os espectadores são comandos numa fila sem trincos
+ * (vários produtores, um consumidor), executados um de cada vez, por ordem de chegada, numa tarefa do
+ * executor do servidor. As threads de leitura dos clientes só acrescentam comandos e leem os números
+ * sorteados publicados, pelo que nunca esperam pela sala; as respostas (entrada aceite ou recusada,
+ * cartões, reconexão) saem do escritor, e o cliente adia as suas mensagens seguintes até as receber.
+ * Cada pedido de LINHA ou BINGO é carimbado à chegada com a sequência de sorteios publicada e com as
+ * marcações do jogador, e é validado com esse carimbo.
+ *
+ * O escritor executa cada lote de comandos com o trinco da sala, que só é disputado pelas operações de
+ * administração (pausa dos sorteios, drenagem, paragem, retoma do diário) e pela cópia dos tokens de sessão
+ * quando a sala fecha; a atividade numa sala nunca disputa o trinco de outra sala. Usa-se um ReentrantLock em vez de synchronized
+ * para não prender as threads de suporte quando os clientes correm em threads virtuais
+ */
+public class Sala {
+    // Constantes de configuração de cada sala
+    public static final int MAX_JOGADORES = 10;
+    public static final int MIN_JOGADORES = 2;
+    public static final int MAX_CARTOES_POR_JOGADOR = 100; // Cabe na fila de saída do cliente, com o resto do arranque
+    public static final int INTERVALO_SORTEIO = 10000; // 10 segundos conforme solicitado (por omissão)
+    public static final int ATRASO_PRIMEIRO_SORTEIO = 5000;
+    public static final int INTERVALO_SORTEIO_TURBO = 100; // Salas turbo: dez números por segundo (por omissão)
+    public static final int ATRASO_PRIMEIRO_SORTEIO_TURBO = 1000;
+    public static final int JANELA_BINGO_PARTILHADO = 250; // ms depois do primeiro BINGO em que outros ainda o partilham
+
+    // Respostas de recusa de entrada (comparadas pelo servidor para as métricas)
+    public static final String ERRO_LOTADA = "ERRO:Servidor lotado. Tente novamente mais tarde.";
+    public static final String ERRO_JOGO_EM_CURSO = "ERRO:Jogo já em andamento. Tente novamente mais tarde.";
+
+    private static final int POSICAO_DESCONHECIDA = -2; // Pedido para um cartão que não é do jogador
+    private static final int COMANDOS_POR_VEZ = 256; // Depois disto o escritor dá a vez às outras salas
+    private static final int MAX_REPETIDOS = CanalCliente.CAPACIDADE_FILA - 1; // Com o REPETIDO_FIM, cabe na fila de saída
+
+    /**
+     * Tipo de sala, dado pelo prefixo do identificador (por exemplo SALA:turbo-1 ou SALA:instantanea-1)
+     */
+    public enum Tipo {
+        /** Sorteios ao ritmo normal (por omissão a cada 10 segundos) */
+        NORMAL(""),
+        /** Sorteios rápidos, até dezenas de milissegundos (-Dbingo.sorteio.intervalo.turbo) */
+        TURBO("turbo-"),
+        /** O servidor joga o jogo inteiro assim que todos estão prontos e envia só o resultado */
+        INSTANTANEA("instantanea-");
+
+        private final String prefixo;
+
+        Tipo(String prefixo) {
+            this.prefixo = prefixo;
+        }
+
+        /**
+         * Obtém o tipo de uma sala pelo seu identificador
+         */
+        public static Tipo daSala(String idSala) {
+            if (idSala.startsWith(TURBO.prefixo)) return TURBO;
+            if (idSala.startsWith(INSTANTANEA.prefixo)) return INSTANTANEA;
+            return NORMAL;
+        }
+    }
+
+    // Identificação e referência para o servidor que aloja a sala
+    private final String id;
+    private final Tipo tipo;
+    private final BingoServer servidor;
+    private final Metricas metricas;
+    private final DiarioJogos diario;
+
+    // Estado do jogo desta sala
+    private final List<ClientHandler> clientes; // Cópia-na-escrita: as difusões percorrem-na sem trinco
+    private final ConjuntoNumeros numerosSorteados;
+    private final int[] historicoPorNum; // Números pela ordem em que foram sorteados
+    private final IndiceCartoes indiceCartoes; // Número -> (cartão, célula), com a máscara de acertos de cada cartão
+    private final PadroesVitoria padroesLinha; // Padrões que valem LINHA nesta sala
+    private final PadroesVitoria padroesBingo; // Padrões que valem BINGO nesta sala
+    private boolean jogoIniciado;
+    private boolean jogoTerminado;
+    private int sorteioLinhaPossivel; // Sorteio em que o índice viu o primeiro cartão com LINHA (0 se ainda nenhum)
+    private int sorteioBingoPossivel; // Sorteio em que o índice viu o primeiro cartão com BINGO (0 se ainda nenhum)
+    private boolean linhaValidada; // Já houve um pedido de LINHA válido neste jogo
+    private boolean fechada; // Sala já removida do servidor, não aceita mais clientes
+    private final long intervaloSorteio; // Milissegundos entre sorteios nesta sala
+    private final long atrasoPrimeiroSorteio;
+    private RodaTemporizadores.Tarefa tarefaSorteio; // Sorteio periódico na roda do servidor (null sem jogo em curso)
+    private FonteSorteio fonteSorteio; // Criada no início do jogo
+    private final Map<String, LugarReservado> lugaresReservados; // Jogadores desligados a meio do jogo, por token
+    private final DifusaoEspectadores.Canal canalEspectadores; // Publicações por multicast (null sem espectadores)
+    private final List<String> tokensSessao; // Tokens de todos os jogadores que receberam cartões nesta sala
+    private final ReentrantLock trinco;
+
+    // Escritor único: comandos por ordem de chegada e a marca de que já há uma tarefa a executá-los
+    private final Queue<Runnable> comandos = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean emExecucao = new AtomicBoolean();
+    // Os dois criados uma vez, não por sorteio: a roda corre comandoSorteio, que submete sorteio ao escritor
+    private final Runnable sorteio = this::sortearNumero;
+    private final Runnable comandoSorteio = () -> submeter(sorteio);
+
+    // Números sorteados publicados para leitura sem trinco: as máscaras depois de cada sorteio,
+    // escritas antes da sequência volátil que as torna visíveis
+    private final long[] sorteadosBaixoAte = new long[ConjuntoNumeros.MAXIMO + 1];
+    private final long[] sorteadosAltoAte = new long[ConjuntoNumeros.MAXIMO + 1];
+    private volatile int sequenciaPublicada;
+
+    // BINGO já validado, à espera do fim da janela em que outros pedidos válidos o partilham
+    private List<ClientHandler> vencedoresBingo;
+    private RodaTemporizadores.Tarefa tarefaFechoBingo;
+
+    /**
+     * Construtor - Inicializa o estado de uma sala vazia
+     * @param id - Identificador da sala
+     * @param servidor - Servidor que aloja a sala
+     */
+    public Sala(String id, BingoServer servidor) {
+        this.id = id;
+        this.tipo = Tipo.daSala(id);
+        this.servidor = servidor;
+        this.metricas = servidor.obterMetricas();
+        this.diario = servidor.obterDiario();
+        this.clientes = new CopyOnWriteArrayList<>();
+        this.numerosSorteados = new ConjuntoNumeros();
+        this.historicoPorNum = new int[ConjuntoNumeros.MAXIMO];
+        this.padroesLinha = servidor.obterPadroesLinha(id);
+        this.padroesBingo = servidor.obterPadroesBingo(id);
+        this.indiceCartoes = new IndiceCartoes(padroesLinha, padroesBingo);
+        this.intervaloSorteio = servidor.obterIntervaloSorteio(id);
+        this.atrasoPrimeiroSorteio = servidor.obterAtrasoPrimeiroSorteio(id);
+        this.lugaresReservados = new HashMap<>();
+        this.tokensSessao = new ArrayList<>();
+        DifusaoEspectadores difusao = servidor.obterDifusaoEspectadores();
+        this.canalEspectadores = difusao != null ? difusao.abrirCanal(id) : null;
+        this.jogoIniciado = false;
+        this.jogoTerminado = false;
+        this.fechada = false;
+        this.trinco = new ReentrantLock();
+    }
+
+    /**
+     * Obtém o identificador da sala
+     */
+    public String obterId() {
+        return id;
+    }
+
+    public Tipo obterTipo() {
+        return tipo;
+    }
+
+    /**
+     * Verifica se um número já foi sorteado nesta sala
+     * Não usa o trinco: lê as máscaras da última sequência publicada
+     */
+    public boolean foiSorteado(int numero) {
+        if (numero < 1 || numero > ConjuntoNumeros.MAXIMO) return false;
+        int sequencia = sequenciaPublicada;
+        return numero < 64 ? (sorteadosBaixoAte[sequencia] & (1L << numero)) != 0
+                           : (sorteadosAltoAte[sequencia] & (1L << (numero - 64))) != 0;
+    }
+
+    /**
+     * Tenta adicionar um cliente à sala, no escritor da sala
+     * @param aceitarJogoEmCurso - Se true, o cliente pode entrar num jogo já começado (entrada tardia)
+     * @param resposta - Recebe, no escritor, null se o cliente foi aceite, ou a mensagem de erro a enviar ao cliente
+     */
+    public void adicionarCliente(ClientHandler cliente, boolean aceitarJogoEmCurso, Consumer<String> resposta) {
+        submeter(() -> {
+            String erro;
+            if (fechada) {
+                erro = "ERRO:Sala " + id + " já não está disponível.";
+            } else if (clientes.size() >= MAX_JOGADORES) {
+                erro = ERRO_LOTADA;
+            } else if (jogoTerminado || (jogoIniciado && !aceitarJogoEmCurso)) {
+                erro = ERRO_JOGO_EM_CURSO;
+            } else {
+                clientes.add(cliente);
+                erro = null;
+            }
+            resposta.accept(erro);
+        });
+    }
+
+    /**
+     * Emite todos os cartões de um jogador que ficou pronto, num único comando do escritor
+     * Os cartões vêm da reserva partilhada do servidor; um cartão igual a outro da sala é trocado por outro.
+     * Cada cartão vai para o índice invertido e para o diário, com o token de sessão do jogador, e o jogador
+     * recebe-os todos. Se o jogo já estiver em curso (entrada tardia) recebe também o estado do jogo;
+     * senão, o jogo começa se todos os jogadores já tiverem cartões. Depois do fim do jogo o pedido é recusado
+     * @param quantidade - Número de cartões a emitir (entre 1 e MAX_CARTOES_POR_JOGADOR)
+     */
+    public void emitirCartoes(ClientHandler cliente, int quantidade) {
+        submeter(() -> {
+            if (!clientes.contains(cliente)) {
+                return; // Saiu ou foi desligado antes de o pedido chegar ao escritor
+            }
+            if (fechada || jogoTerminado) {
+                // PRONTO atrasado: o jogo terminou antes de o pedido chegar ao escritor
+                cliente.cartoesRecusados("ERRO:O jogo já terminou.");
+                return;
+            }
+            GeradorCartoes gerador = servidor.obterGeradorCartoes();
+            String token = cliente.obterTokenSessao();
+            String[] ids = new String[quantidade];
+            int[] indices = new int[quantidade];
+            Cartao[] cartoes = new Cartao[quantidade];
+            for (int i = 0; i < quantidade; i++) {
+                ids[i] = gerador.gerarId();
+                do {
+                    // Repete no caso (raro) de a sala já ter um cartão com os mesmos números
+                    cartoes[i] = gerador.obterCartao();
+                } while (indiceCartoes.contemIgual(cartoes[i]));
+                indices[i] = indiceCartoes.registar(cartoes[i], numerosSorteados);
+                diario.registarCartaoEmitido(id, ids[i], token, cliente.obterNome(), cartoes[i]);
+            }
+            // Um token por jogador, partilhado por todos os seus cartões
+            tokensSessao.add(token);
+            servidor.registarSessao(token, this);
+            cliente.receberCartoes(ids, indices, cartoes);
+            Registo.depuracao(() -> "[" + id + "] Cliente " + cliente.obterNome() + " registado com " + quantidade
+                    + " cartões. Total de clientes: " + clientes.size());
+
+            // Antes de verificar os prontos: se for este jogador a começar o jogo, recebe só o JOGO_INICIADO
+            if (jogoIniciado && !jogoTerminado) {
+                cliente.enviarMensagem(Mensagem.estado(numerosSorteados.tamanho(), numerosSorteados, cliente.obterNumerosMarados()));
+                Registo.info("[" + id + "] " + cliente.obterNome() + " entrou com o jogo em curso ("
+                        + numerosSorteados.tamanho() + " números já sorteados)");
+            }
+            verificarProntos();
+        });
+    }
+
+    /**
+     * Devolve a um jogador, no escritor da sala, os cartões que tinha antes de perder a ligação
+     * Se a ligação antiga ainda não foi dada como perdida, é substituída pela nova.
+     * O jogador recebe os cartões e o estado atual do jogo numa única mensagem de tamanho fixo
+     * @param resposta - Recebe, no escritor, null se o jogador voltou ao jogo, ou a mensagem de erro a enviar ao cliente
+     */
+    public void reconectar(ClientHandler cliente, String token, Consumer<String> resposta) {
+        submeter(() -> resposta.accept(retomarLugar(cliente, token)));
+    }
+
+    private String retomarLugar(ClientHandler cliente, String token) {
+        if (fechada || jogoTerminado) {
+            return "ERRO:O jogo desta sessão já terminou.";
+        }
+        LugarReservado lugar = lugaresReservados.remove(token);
+        if (lugar == null) {
+            for (ClientHandler antigo : clientes) {
+                if (token.equals(antigo.obterTokenSessao())) {
+                    // Ligação meio aberta: o servidor ainda não reparou que o cliente caiu
+                    lugar = new LugarReservado(antigo);
+                    clientes.remove(antigo);
+                    antigo.fecharLigacaoDoServidor();
+                    break;
+                }
+            }
+        }
+        if (lugar == null) {
+            return "ERRO:Sessão inválida ou expirada.";
+        }
+        if (clientes.size() >= MAX_JOGADORES) {
+            lugaresReservados.put(token, lugar);
+            return ERRO_LOTADA;
+        }
+        clientes.add(cliente);
+        long numerosBaixo = 0;
+        long numerosAlto = 0;
+        for (int indice : lugar.indices) {
+            numerosBaixo |= indiceCartoes.obterNumerosBaixo(indice);
+            numerosAlto |= indiceCartoes.obterNumerosAlto(indice);
+        }
+        cliente.retomarLugar(lugar.nome, token, lugar.idsCartoes, lugar.indices, numerosBaixo, numerosAlto, lugar.marcas);
+        for (int i = 0; i < lugar.indices.length; i++) {
+            cliente.enviarMensagem(Mensagem.cartao(lugar.idsCartoes[i], indiceCartoes.obterCartao(lugar.indices[i])));
+        }
+        cliente.enviarMensagem(Mensagem.estado(numerosSorteados.tamanho(), numerosSorteados, lugar.marcas));
+        Registo.info("[" + id + "] " + lugar.nome + " voltou ao jogo. Total: " + clientes.size());
+        return null;
+    }
+
+    /**
+     * Obtém os tokens de sessão emitidos nesta sala (para os retirar do servidor quando a sala fecha)
+     */
+    public List<String> obterTokensSessao() {
+        bloquear();
+        try {
+            return new ArrayList<>(tokensSessao);
+        } finally {
+            trinco.unlock();
+        }
+    }
+
+    /**
+     * Obtém uma cópia dos números já sorteados (as duas palavras de bits da última sequência publicada, sem trinco)
+     */
+    public ConjuntoNumeros obterNumerosSorteados() {
+        int sequencia = sequenciaPublicada;
+        return new ConjuntoNumeros(sorteadosBaixoAte[sequencia], sorteadosAltoAte[sequencia]);
+    }
+
+    /**
+     * Regista no diário todas as marcações de um jogador, depois de uma marcação em lote
+     * @param token - Token de sessão do jogador (as marcações valem para todos os seus cartões)
+     */
+    public void registarMarcacoes(String token, ConjuntoNumeros marcas) {
+        diario.registarMarcacoes(id, token, marcas);
+    }
+
+    /**
+     * Regista no diário uma marcação ou desmarcação feita por um jogador
+     * Não usa o trinco da sala: as marcações só mudam o estado do próprio jogador
+     */
+    public void registarMarca(String token, int numero, boolean marcada) {
+        diario.registarMarca(id, token, numero, marcada);
+    }
+
+    /**
+     * Verifica se todos os jogadores estão prontos para iniciar o jogo
+     * Esta é uma das funções mais importantes da sala; corre no escritor da sala
+     */
+    private void verificarProntos() {
+        // Não faz nada se o jogo já iniciou ou terminou
+        if (jogoIniciado || jogoTerminado) {
+            return;
+        }
+
+        // Verifica se temos jogadores suficientes
+        if (clientes.size() < MIN_JOGADORES) {
+            Registo.info("[" + id + "] A aguardar mais jogadores. Atual: " + clientes.size() + "/" + MIN_JOGADORES);
+            return;
+        }
+
+        // Conta quantos jogadores estão prontos (já com os cartões emitidos por este escritor)
+        int jogadoresProntos = 0;
+        for (ClientHandler cliente : clientes) {
+            if (cliente.estaPronto()) {
+                jogadoresProntos++;
+            }
+        }
+
+        int prontos = jogadoresProntos;
+        Registo.depuracao(() -> "[" + id + "] Jogadores prontos: " + prontos + "/" + clientes.size());
+
+        // Inicia o jogo se todos estiverem prontos e temos o mínimo necessário
+        if (jogadoresProntos >= MIN_JOGADORES && jogadoresProntos == clientes.size()) {
+            iniciarJogo();
+        }
+    }
+
+    /**
+     * Inicia efetivamente o jogo de bingo
+     * Agenda o sorteio automático dos números na roda do servidor (numa sala instantânea joga-o logo)
+     */
+    private void iniciarJogo() {
+        jogoIniciado = true;
+        String idJogo = servidor.gerarIdJogo(id);
+        fonteSorteio = servidor.criarFonteSorteio(idJogo);
+        diario.registarJogoIniciado(id, idJogo, fonteSorteio.obterSemente());
+        if (tipo == Tipo.INSTANTANEA) {
+            jogarInstantaneo();
+            return;
+        }
+        Registo.info("[" + id + "] Todos os jogadores estão prontos! O jogo " + idJogo + " vai começar."
+                + (fonteSorteio.obterSemente() != null ? " (semente do sorteio: " + fonteSorteio.obterSemente() + ")" : "")
+                + " Padrões: LINHA=" + padroesLinha + ", BINGO=" + padroesBingo);
+        difundir(Mensagem.deTexto("JOGO_INICIADO:O jogo começou! Boa sorte!"));
+        agendarSorteios();
+    }
+
+    /**
+     * Joga o jogo inteiro de uma vez, com todos os cartões marcados automaticamente (com o trinco adquirido)
+     * Cada jogador recebe só o resultado: o ESTADO final com as suas marcações, as LINHAS dos primeiros
+     * cartões a completá-la e BINGO_VALIDO ou BINGO_OUTROS, como num jogo normal em que todos pedem sem demora.
+     * O diário só guarda o início (com a semente, que basta para repetir o sorteio) e o fim; sem semente
+     * (sorteio criptográfico) guarda também os números, para o jogo poder ser auditado
+     */
+    private void jogarInstantaneo() {
+        long inicio = System.nanoTime();
+        JogoInstantaneo jogo = new JogoInstantaneo(indiceCartoes);
+        int numSorteios = jogo.jogar(fonteSorteio);
+        boolean registarNumeros = fonteSorteio.obterSemente() == null;
+        for (int i = 0; i < numSorteios; i++) {
+            historicoPorNum[i] = jogo.obterSorteio(i);
+            numerosSorteados.adicionar(historicoPorNum[i]);
+            publicarSorteados();
+            if (registarNumeros) {
+                diario.registarNumeroSorteado(id, historicoPorNum[i]);
+            }
+        }
+
+        // Dono de cada cartão do índice
+        ClientHandler[] donos = new ClientHandler[indiceCartoes.obterNumCartoes()];
+        for (ClientHandler cliente : clientes) {
+            int[] cartoes = cliente.obterIndicesCartoes();
+            for (int i = 0; i < cliente.obterNumCartoes(); i++) {
+                donos[cartoes[i]] = cliente;
+            }
+        }
+        for (ClientHandler cliente : clientes) {
+            if (cliente.obterNumCartoes() > 0) {
+                cliente.enviarMensagem(Mensagem.estado(numSorteios, numerosSorteados, cliente.marcarSorteados(numerosSorteados)));
+            }
+        }
+        publicarParaEspectadores(Mensagem.estado(numSorteios, numerosSorteados, new ConjuntoNumeros()));
+        anunciarVencedores(donos, jogo, false);
+        String razao = anunciarVencedores(donos, jogo, true);
+        if (razao == null) {
+            enviarMensagemTodos("FIM_DE_JOGO:Todos os números foram sorteados. Ninguém fez BINGO.");
+            razao = "Todos os números sorteados";
+        }
+        terminarJogo(razao);
+        metricas.registarJogoInstantaneo(System.nanoTime() - inicio, numSorteios);
+    }
+
+    /**
+     * Anuncia os donos dos primeiros cartões com LINHA, ou os vencedores do BINGO, de um jogo instantâneo
+     * Um jogador com vários cartões vencedores só é anunciado uma vez
+     * @return razão do fim do jogo, se houve BINGO (null caso contrário)
+     */
+    private String anunciarVencedores(ClientHandler[] donos, JogoInstantaneo jogo, boolean bingo) {
+        int numCartoes = bingo ? jogo.obterNumCartoesBingo() : jogo.obterNumCartoesLinha();
+        List<ClientHandler> vencedores = new ArrayList<>();
+        for (int i = 0; i < numCartoes; i++) {
+            ClientHandler dono = donos[bingo ? jogo.obterCartaoBingo(i) : jogo.obterCartaoLinha(i)];
+            if (dono != null && !vencedores.contains(dono)) {
+                vencedores.add(dono);
+            }
+        }
+        if (vencedores.isEmpty()) {
+            return null;
+        }
+        StringJoiner nomes = new StringJoiner(", ");
+        for (ClientHandler vencedor : vencedores) {
+            nomes.add(vencedor.obterNome());
+            if (!bingo) {
+                difundir(Mensagem.deTexto("LINHA_VALIDA:" + vencedor.obterNome()));
+            }
+        }
+        if (!bingo) {
+            return null;
+        }
+        Mensagem bingoOutros = Mensagem.deTexto("BINGO_OUTROS:" + nomes);
+        Mensagem bingoValido = Mensagem.deTexto("BINGO_VALIDO");
+        for (ClientHandler cliente : clientes) {
+            cliente.enviarMensagem(vencedores.contains(cliente) ? bingoValido : bingoOutros);
+        }
+        publicarParaEspectadores(bingoOutros);
+        return "Bingo feito por " + nomes + " ao fim de " + jogo.obterSorteiosAteBingo() + " números";
+    }
+
+    /**
+     * Retoma um jogo que ficou por terminar, com o estado reconstruído a partir do diário
+     * O baralho é refeito com a semente original e avançado pelos números já sorteados,
+     * pelo que o sorteio continua pela mesma ordem; os cartões ficam reservados até os jogadores voltarem.
+     * Um jogo com um BINGO já validado está decidido: termina logo, sem mais sorteios
+     * @param jogo - Estado do jogo lido do diário
+     */
+    public void retomarJogo(DiarioJogos.JogoRecuperado jogo) {
+        bloquear();
+        try {
+            fonteSorteio = jogo.semente != null ? new BaralhoSorteio(jogo.semente) : BaralhoSorteio.criptografico();
+            for (int i = 0; i < jogo.numSorteados; i++) {
+                int numero = jogo.historico[i];
+                fonteSorteio.retomar(numero);
+                numerosSorteados.adicionar(numero);
+                historicoPorNum[i] = numero;
+                publicarSorteados();
+            }
+            // Os cartões de um jogador partilham o token, com o qual o diário também guarda as suas marcações
+            Map<String, List<DiarioJogos.CartaoRecuperado>> porJogador = new LinkedHashMap<>();
+            for (DiarioJogos.CartaoRecuperado cartao : jogo.cartoes.values()) {
+                porJogador.computeIfAbsent(cartao.token, t -> new ArrayList<>()).add(cartao);
+            }
+            for (Map.Entry<String, List<DiarioJogos.CartaoRecuperado>> jogador : porJogador.entrySet()) {
+                List<DiarioJogos.CartaoRecuperado> cartoes = jogador.getValue();
+                String[] ids = new String[cartoes.size()];
+                int[] indices = new int[cartoes.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    DiarioJogos.CartaoRecuperado cartao = cartoes.get(i);
+                    ids[i] = cartao.idCartao;
+                    indices[i] = indiceCartoes.registar(cartao.cartao, numerosSorteados);
+                }
+                ConjuntoNumeros marcas = jogo.marcas.getOrDefault(jogador.getKey(), new ConjuntoNumeros());
+                lugaresReservados.put(jogador.getKey(), new LugarReservado(cartoes.get(0).nome, ids, indices, marcas));
+                tokensSessao.add(jogador.getKey());
+                servidor.registarSessao(jogador.getKey(), this);
+            }
+            jogoIniciado = true; // O diário compactado já tem os cartões e o início deste jogo
+            if (!jogo.cartoesBingo.isEmpty()) {
+                Set<String> nomes = new LinkedHashSet<>();
+                for (String idCartao : jogo.cartoesBingo) {
+                    DiarioJogos.CartaoRecuperado cartao = jogo.cartoes.get(idCartao);
+                    nomes.add(cartao != null ? cartao.nome : idCartao);
+                }
+                terminarJogo("Bingo feito por " + String.join(", ", nomes) + " (validado antes da paragem do servidor)");
+                return;
+            }
+            Registo.info("[" + id + "] Jogo " + jogo.idJogo + " retomado do diário: " + numerosSorteados.tamanho() + " números sorteados, "
+                    + jogo.cartoes.size() + " cartões de " + lugaresReservados.size() + " jogadores à espera");
+            agendarSorteios();
+        } finally {
+            trinco.unlock();
+        }
+    }
+
+    /**
+     * Configura o sorteio automático da sala na roda de temporizadores do servidor
+     * Por omissão a primeira chamada é após 5 segundos, depois a cada 10 segundos
+     */
+    private void agendarSorteios() {
+        tarefaSorteio = servidor.obterRodaSorteios().agendar(comandoSorteio, atrasoPrimeiroSorteio, intervaloSorteio);
+    }
+
+    /**
+     * Suspende os sorteios do jogo em curso (os pedidos e as marcações continuam a ser aceites)
+     * @return true se havia sorteios ativos para pausar
+     */
+    public boolean pausarSorteios() {
+        bloquear();
+        try {
+            if (tarefaSorteio == null || tarefaSorteio.estaPausada()) {
+                return false;
+            }
+            tarefaSorteio.pausar();
+            Registo.info("[" + id + "] Sorteios pausados após " + numerosSorteados.tamanho() + " números");
+            return true;
+        } finally {
+            trinco.unlock();
+        }
+    }
+
+    /**
+     * Retoma os sorteios pausados; o número seguinte sai um intervalo depois
+     * @return true se os sorteios estavam pausados
+     */
+    public boolean retomarSorteios() {
+        bloquear();
+        try {
+            if (tarefaSorteio == null || !tarefaSorteio.estaPausada()) {
+                return false;
+            }
+            tarefaSorteio.retomar();
+            Registo.info("[" + id + "] Sorteios retomados");
+            return true;
+        } finally {
+            trinco.unlock();
+        }
+    }
+
+    /**
+     * Sorteia o próximo número da fonte de sorteio da sala (no escritor da sala)
+     * Envia o número para todos os clientes da sala
+     */
+    private void sortearNumero() {
+        // Depois de um BINGO válido não sai mais nenhum número: os pedidos seguintes são da mesma sequência
+        if (jogoTerminado || vencedoresBingo != null) return;
+
+        // Verifica se todos os números já foram sorteados
+        if (!fonteSorteio.temProximo()) {
+            enviarMensagemTodos("FIM_DE_JOGO:Todos os números foram sorteados. Ninguém fez BINGO.");
+            terminarJogo("Todos os números sorteados"); // Os espectadores recebem o FIM_DE_JOGO de terminarJogo
+            return;
+        }
+
+        // O baralho já está baralhado: cada sorteio custa o mesmo, do primeiro ao último número
+        int numeroSorteado = fonteSorteio.proximo();
+
+        // Regista o número sorteado e publica-o antes de o enviar: um pedido feito depois de o ver já o inclui
+        metricas.registarSorteio();
+        diario.registarNumeroSorteado(id, numeroSorteado);
+        numerosSorteados.adicionar(numeroSorteado);
+        historicoPorNum[numerosSorteados.tamanho() - 1] = numeroSorteado;
+        publicarSorteados();
+
+        Registo.depuracao(() -> "[" + id + "] Número sorteado: " + numeroSorteado + " (Total sorteados: " + numerosSorteados.tamanho() + ")");
+        difundir(Mensagem.numeroSorteado(numeroSorteado, numerosSorteados.tamanho()));
+
+        // O índice só percorre os cartões que têm este número
+        // e guarda o sorteio em que o primeiro cartão ficou com LINHA e com BINGO, para medir quanto
+        // os jogadores demoram a pedi-los
+        indiceCartoes.aplicarSorteio(numeroSorteado);
+        if (sorteioLinhaPossivel == 0 && indiceCartoes.obterNumCartoesComLinhaNova() > 0) {
+            sorteioLinhaPossivel = numerosSorteados.tamanho();
+            Registo.depuracao(() -> "[" + id + "] LINHA possível após o número " + numeroSorteado + " em "
+                    + indiceCartoes.obterNumCartoesComLinhaNova() + " cartões");
+        }
+        if (sorteioBingoPossivel == 0 && indiceCartoes.obterNumCartoesCompletos() > 0) {
+            sorteioBingoPossivel = numerosSorteados.tamanho();
+            Registo.depuracao(() -> "[" + id + "] BINGO possível após o número " + numeroSorteado + " em "
+                    + indiceCartoes.obterNumCartoesCompletos() + " cartões");
+        }
+    }
+
+    /**
+     * Guarda as máscaras dos números sorteados até agora e publica a sequência (com o trinco adquirido)
+     * Quem lê a sequência sem trinco vê as máscaras que foram escritas antes dela
+     */
+    private void publicarSorteados() {
+        int sequencia = numerosSorteados.tamanho();
+        sorteadosBaixoAte[sequencia] = numerosSorteados.obterBaixo();
+        sorteadosAltoAte[sequencia] = numerosSorteados.obterAlto();
+        sequenciaPublicada = sequencia;
+    }
+
+    /**
+     * Recebe um pedido de linha de um jogador: carimba-o e deixa-o na fila do escritor, sem esperar
+     * O escritor valida se o jogador completou uma linha no cartão indicado ou em algum dos seus cartões,
+     * com os números sorteados e as marcações do momento da chegada
+     * @param idCartao - Cartão indicado pelo jogador, ou null para procurar em todos
+     */
+    public void processarLinha(ClientHandler cliente, String idCartao) {
+        Pedido pedido = new Pedido(cliente, idCartao, sequenciaPublicada);
+        submeter(() -> validarLinha(pedido));
+    }
+
+    private void validarLinha(Pedido pedido) {
+        ClientHandler cliente = pedido.cliente;
+        // Verificações básicas de estado do jogo
+        if (jogoTerminado) {
+            cliente.enviarMensagem("ERRO:O jogo já terminou.");
+            return;
+        }
+
+        if (!jogoIniciado) {
+            cliente.enviarMensagem("ERRO:O jogo ainda não começou.");
+            return;
+        }
+
+        Registo.depuracao(() -> "[" + id + "] A processar pedido de LINHA de " + cliente.obterNome() + " (sequência " + pedido.sequencia + ")");
+
+        // Valida a linha do jogador
+        int posicao = posicaoPedida(cliente, pedido.idCartao);
+        if (posicao == POSICAO_DESCONHECIDA) {
+            return;
+        }
+        int cartao = procurarPadrao(pedido, posicao, padroesLinha, false);
+        if (cartao >= 0) {
+            Registo.info("[" + id + "] LINHA VÁLIDA para " + cliente.obterNome() + " (cartão " + cliente.obterIdCartao(cartao) + ")");
+            difundir(Mensagem.deTexto("LINHA_VALIDA:" + cliente.obterNome()));
+            diario.registarPedido(id, cliente.obterIdCartao(cartao), false, true);
+            metricas.registarPedidoLinha(System.nanoTime() - pedido.chegada, true);
+            if (!linhaValidada && sorteioLinhaPossivel > 0) {
+                metricas.registarAtrasoPedido(false, pedido.sequencia - sorteioLinhaPossivel);
+            }
+            linhaValidada = true;
+        } else {
+            Registo.depuracao(() -> "[" + id + "] LINHA INVÁLIDA para " + cliente.obterNome());
+            cliente.enviarMensagem("LINHA_INVALIDA");
+            diario.registarPedido(id, cliente.obterIdCartao(Math.max(posicao, 0)), false, false);
+            metricas.registarPedidoLinha(System.nanoTime() - pedido.chegada, false);
+        }
+    }
+
+    /**
+     * Recebe um pedido de bingo de um jogador: carimba-o e deixa-o na fila do escritor, sem esperar
+     * O escritor valida se o jogador completou um padrão de BINGO no cartão indicado ou em algum dos seus
+     * cartões, com os números sorteados e as marcações do momento da chegada
+     * @param idCartao - Cartão indicado pelo jogador, ou null para procurar em todos
+     */
+    public void processarBingo(ClientHandler cliente, String idCartao) {
+        Pedido pedido = new Pedido(cliente, idCartao, sequenciaPublicada);
+        submeter(() -> validarBingo(pedido));
+    }
+
+    /**
+     * Valida um pedido de BINGO, pela ordem de chegada
+     * O primeiro válido para os sorteios e abre uma janela de JANELA_BINGO_PARTILHADO ms; como já não sai
+     * nenhum número, todos os pedidos que chegam até ao fecho são da mesma sequência e os válidos
+     * partilham o BINGO. Cada vencedor recebe logo BINGO_VALIDO; os outros recebem BINGO_OUTROS no fecho
+     */
+    private void validarBingo(Pedido pedido) {
+        ClientHandler cliente = pedido.cliente;
+        // Verificações básicas de estado do jogo
+        if (jogoTerminado) {
+            cliente.enviarMensagem("ERRO:O jogo já terminou.");
+            return;
+        }
+
+        if (!jogoIniciado) {
+            cliente.enviarMensagem("ERRO:O jogo ainda não começou.");
+            return;
+        }
+
+        if (vencedoresBingo != null && vencedoresBingo.contains(cliente)) {
+            // Repetido dentro da janela: o BINGO já conta, não há segundo BINGO_VALIDO nem segundo registo
+            cliente.enviarMensagem("ERRO:O seu BINGO já foi validado.");
+            return;
+        }
+
+        Registo.depuracao(() -> "[" + id + "] A processar pedido de BINGO de " + cliente.obterNome() + " (sequência " + pedido.sequencia + ")");
+
+        // Valida o bingo do jogador
+        int posicao = posicaoPedida(cliente, pedido.idCartao);
+        if (posicao == POSICAO_DESCONHECIDA) {
+            return;
+        }
+        int cartao = procurarPadrao(pedido, posicao, padroesBingo, true);
+        if (cartao >= 0) {
+            Registo.info("[" + id + "] BINGO VÁLIDO para " + cliente.obterNome() + " (cartão " + cliente.obterIdCartao(cartao) + ")");
+            cliente.enviarMensagem("BINGO_VALIDO");
+            diario.registarPedido(id, cliente.obterIdCartao(cartao), true, true);
+            metricas.registarPedidoBingo(System.nanoTime() - pedido.chegada, true);
+            if (vencedoresBingo == null) {
+                if (sorteioBingoPossivel > 0) {
+                    metricas.registarAtrasoPedido(true, pedido.sequencia - sorteioBingoPossivel);
+                }
+                vencedoresBingo = new ArrayList<>();
+                cancelarSorteios();
+                tarefaFechoBingo = servidor.obterRodaSorteios().agendar(() -> submeter(this::fecharBingo),
+                        JANELA_BINGO_PARTILHADO, JANELA_BINGO_PARTILHADO);
+            }
+            vencedoresBingo.add(cliente);
+        } else {
+            Registo.depuracao(() -> "[" + id + "] BINGO INVÁLIDO para " + cliente.obterNome());
+            cliente.enviarMensagem("BINGO_INVALIDO");
+            diario.registarPedido(id, cliente.obterIdCartao(Math.max(posicao, 0)), true, false);
+            metricas.registarPedidoBingo(System.nanoTime() - pedido.chegada, false);
+        }
+    }
+
+    /**
+     * Fecha a janela do BINGO: anuncia os vencedores aos outros jogadores e aos espectadores e termina o jogo
+     */
+    private void fecharBingo() {
+        if (jogoTerminado || vencedoresBingo == null) return;
+        StringJoiner nomes = new StringJoiner(", ");
+        for (ClientHandler vencedor : vencedoresBingo) {
+            nomes.add(vencedor.obterNome());
+        }
+        Mensagem bingoOutros = Mensagem.deTexto("BINGO_OUTROS:" + nomes);
+        for (ClientHandler cliente : clientes) {
+            if (!vencedoresBingo.contains(cliente)) {
+                cliente.enviarMensagem(bingoOutros);
+            }
+        }
+        publicarParaEspectadores(bingoOutros);
+        if (vencedoresBingo.size() > 1) {
+            Registo.info("[" + id + "] BINGO partilhado por " + vencedoresBingo.size() + " jogadores: " + nomes);
+        }
+        terminarJogo("Bingo feito por " + nomes);
+    }
+
+    /**
+     * Acrescenta um comando à fila da sala e garante que há uma tarefa a executá-los
+     * Pode ser chamado de qualquer thread e nunca bloqueia
+     */
+    private void submeter(Runnable comando) {
+        comandos.add(comando);
+        agendarExecucao();
+    }
+
+    private void agendarExecucao() {
+        if (!comandos.isEmpty() && emExecucao.compareAndSet(false, true)) {
+            try {
+                servidor.executarTarefa(this::executarComandos);
+            } catch (RejectedExecutionException e) {
+                emExecucao.set(false); // O servidor está a parar
+            }
+        }
+    }
+
+    /**
+     * Escritor da sala: executa os comandos por ordem de chegada, no máximo COMANDOS_POR_VEZ de cada vez
+     * Só há uma tarefa destas por sala de cada vez; os comandos que chegam entretanto ficam para ela
+     */
+    private void executarComandos() {
+        bloquear();
+        try {
+            Runnable comando;
+            for (int i = 0; i < COMANDOS_POR_VEZ && (comando = comandos.poll()) != null; i++) {
+                try {
+                    comando.run();
+                } catch (RuntimeException e) {
+                    Registo.erro("[" + id + "] Erro num comando da sala: " + e);
+                }
+            }
+        } finally {
+            trinco.unlock();
+            emExecucao.set(false);
+        }
+        agendarExecucao();
+    }
+
+    /**
+     * Adquire o trinco da sala, medindo o tempo de espera só quando está ocupado
+     * (uma aquisição sem disputa não paga a leitura do relógio)
+     */
+    private void bloquear() {
+        metricas.registarAquisicaoTrinco();
+        if (trinco.tryLock()) return;
+        long inicio = System.nanoTime();
+        trinco.lock();
+        metricas.registarEsperaTrinco(System.nanoTime() - inicio);
+    }
+
+    /**
+     * Obtém a posição, entre os cartões do jogador, do cartão indicado num pedido
+     * Responde logo com ERRO se o jogador não tiver esse cartão
+     * @return posição do cartão, -1 se o pedido não indicar cartão (valem todos), ou POSICAO_DESCONHECIDA
+     */
+    private int posicaoPedida(ClientHandler cliente, String idCartao) {
+        if (idCartao == null || idCartao.isEmpty()) {
+            return -1;
+        }
+        int posicao = cliente.posicaoCartao(idCartao);
+        if (posicao < 0) {
+            cliente.enviarMensagem("ERRO:Cartão " + idCartao + " não é seu.");
+            return POSICAO_DESCONHECIDA;
+        }
+        return posicao;
+    }
+
+    /**
+     * Valida um pedido de LINHA ou de BINGO contra um conjunto de padrões de vitória
+     * Os números válidos (marcados pelo jogador E sorteados, à chegada do pedido) são comparados com as células dos cartões,
+     * guardadas em colunas no índice; os cartões sem nenhum padrão sorteado são rejeitados sem as ler
+     * @param posicao - Posição do cartão indicado, ou -1 para procurar em todos os cartões do jogador
+     * @return posição do cartão com um padrão completo, ou -1 se nenhum o tiver
+     */
+    private int procurarPadrao(Pedido pedido, int posicao, PadroesVitoria padroes, boolean bingo) {
+        long baixo = pedido.marcasBaixo & sorteadosBaixoAte[pedido.sequencia];
+        long alto = pedido.marcasAlto & sorteadosAltoAte[pedido.sequencia];
+        int[] cartoes = pedido.cliente.obterIndicesCartoes();
+        int cartao = posicao < 0
+                ? indiceCartoes.procurarPadrao(cartoes, 0, pedido.cliente.obterNumCartoes(), bingo, baixo, alto)
+                : indiceCartoes.procurarPadrao(cartoes, posicao, posicao + 1, bingo, baixo, alto);
+        if (cartao >= 0) {
+            Registo.depuracao(() -> "[" + id + "] Padrão " + padroes.obterNome(padroes.primeiroCompleto(
+                    indiceCartoes.mascaraCelulas(cartoes[cartao], baixo, alto))) + " completo!");
+        }
+        return cartao;
+    }
+
+    /**
+     * Envia uma mensagem para todos os clientes da sala
+     * Não precisa do trinco: cada envio apenas coloca a mensagem na fila de saída do cliente
+     */
+    public void enviarMensagemTodos(String mensagem) {
+        enviarMensagemTodos(Mensagem.deTexto(mensagem));
+    }
+
+    /**
+     * Envia a mesma mensagem para todos os clientes da sala
+     * A mensagem é codificada uma vez por protocolo e partilhada por todas as ligações
+     */
+    public void enviarMensagemTodos(Mensagem mensagem) {
+        long inicio = System.nanoTime();
+        for (ClientHandler cliente : clientes) {
+            try {
+                cliente.enviarMensagem(mensagem);
+            } catch (Exception e) {
+                Registo.erro("[" + id + "] Erro ao enviar mensagem para cliente: " + e.getMessage());
+            }
+        }
+        metricas.registarDifusao(System.nanoTime() - inicio);
+    }
+
+    /**
+     * Envia um acontecimento do jogo aos jogadores e publica-o para os espectadores (com o trinco adquirido)
+     */
+    private void difundir(Mensagem mensagem) {
+        enviarMensagemTodos(mensagem);
+        publicarParaEspectadores(mensagem);
+    }
+
+    /**
+     * Publica uma mensagem no grupo multicast da sala (com o trinco adquirido, que ordena as sequências)
+     * Custa um datagrama por acontecimento, seja qual for o número de espectadores
+     */
+    private void publicarParaEspectadores(Mensagem mensagem) {
+        if (canalEspectadores != null) {
+            canalEspectadores.publicar(mensagem);
+        }
+    }
+
+    /**
+     * Envia a um espectador, no escritor da sala, o grupo multicast, a última sequência publicada e o estado do jogo
+     * Formato: ESPECTADOR:idSala:grupo:porta:sequência, seguido de ESTADO (sem marcações);
+     * os datagramas com sequência maior já não estão refletidos no estado
+     */
+    public void receberEspectador(ClientHandler espectador) {
+        submeter(() -> {
+            espectador.enviarMensagem("ESPECTADOR:" + id + ":" + canalEspectadores.obterGrupo().getAddress().getHostAddress()
+                    + ":" + canalEspectadores.obterGrupo().getPort() + ":" + canalEspectadores.obterSequencia());
+            espectador.enviarMensagem(Mensagem.estado(numerosSorteados.tamanho(), numerosSorteados, new ConjuntoNumeros()));
+        });
+    }
+
+    /**
+     * Repete a um espectador, por TCP e no escritor da sala, as publicações a partir de uma sequência
+     * Formato: REPETIDO:sequência:mensagem, uma linha por publicação em falta, e REPETIDO_FIM:última sequência enviada
+     * Cada pedido repete no máximo MAX_REPETIDOS publicações; o espectador pede as restantes com outro REPETIR.
+     * Se a primeira já saiu do histórico, o espectador recebe um ERRO e deve recomeçar com ESPECTAR
+     */
+    public void repetirParaEspectador(ClientHandler espectador, int desde) {
+        submeter(() -> {
+            int primeira = Math.max(1, desde);
+            int ultima = canalEspectadores.obterSequencia();
+            if (primeira <= ultima && canalEspectadores.obter(primeira) == null) {
+                espectador.enviarMensagem("ERRO:A sequência " + primeira + " já não está disponível. Use ESPECTAR para recomeçar.");
+                return;
+            }
+            ultima = Math.min(ultima, primeira + MAX_REPETIDOS - 1);
+            for (int sequencia = primeira; sequencia <= ultima; sequencia++) {
+                espectador.enviarMensagem("REPETIDO:" + sequencia + ":" + canalEspectadores.obter(sequencia).texto());
+            }
+            espectador.enviarMensagem("REPETIDO_FIM:" + ultima);
+            metricas.registarRepeticaoEspectadores(Math.max(0, ultima - primeira + 1));
+        });
+    }
+
+    /**
+     * Obtém os clientes da sala (vista só de leitura, percorrível sem trinco)
+     */
+    public List<ClientHandler> obterClientes() {
+        return Collections.unmodifiableList(clientes);
+    }
+
+    /**
+     * Remove um cliente da sala quando se desliga ou muda de sala (no escritor da sala, depois dos
+     * comandos que o cliente já tinha submetido)
+     * Quando a sala fica vazia é fechada e retirada do servidor
+     */
+    public void removerCliente(ClientHandler cliente) {
+        submeter(() -> {
+            if (!clientes.remove(cliente)) {
+                return;
+            }
+            Registo.info("[" + id + "] Cliente " + cliente.obterNome() + " desligado. Total: " + clientes.size());
+
+            // A meio do jogo o cartão fica reservado para o jogador poder voltar com o seu token
+            if (jogoIniciado && !jogoTerminado && cliente.obterTokenSessao() != null && cliente.obterSala() == this) {
+                lugaresReservados.put(cliente.obterTokenSessao(), new LugarReservado(cliente));
+            }
+
+            // Se o jogo não começou e ficamos sem jogadores suficientes, aguarda mais ligações
+            if (!jogoIniciado && clientes.size() < MIN_JOGADORES) {
+                Registo.info("[" + id + "] Não há jogadores suficientes. A aguardar mais ligações...");
+            }
+
+            // Uma sala sem jogadores deixa de existir
+            if (clientes.isEmpty()) {
+                if (vencedoresBingo != null) {
+                    fecharBingo(); // Os vencedores saíram antes do fecho da janela
+                } else if (jogoIniciado && !jogoTerminado) {
+                    terminarJogo("Todos os jogadores saíram");
+                }
+                fechada = true;
+                servidor.removerSala(this);
+            }
+        });
+    }
+
+    /**
+     * Termina o jogo e limpa os recursos utilizados
+     * Um jogo retomado a que nenhum jogador voltou fecha a sala quando termina
+     */
+    private void terminarJogo(String razao) {
+        jogoTerminado = true;
+        cancelarSorteios();
+        cancelarFechoBingo();
+        diario.registarJogoTerminado(id, razao);
+        publicarParaEspectadores(Mensagem.deTexto("FIM_DE_JOGO:" + razao));
+        if (tipo == Tipo.INSTANTANEA) {
+            // Milhares de jogos por segundo não devem encher o registo
+            Registo.depuracao(() -> "[" + id + "] Jogo instantâneo terminado: " + razao);
+        } else {
+            Registo.info("[" + id + "] Jogo terminado: " + razao);
+        }
+        if (clientes.isEmpty() && !fechada) {
+            fechada = true;
+            servidor.removerSala(this);
+        }
+    }
+
+    /**
+     * Cancela o sorteio automático (a tarefa sai da roda quando a sua posição chegar)
+     */
+    private void cancelarSorteios() {
+        if (tarefaSorteio != null) {
+            tarefaSorteio.cancelar();
+            tarefaSorteio = null;
+        }
+    }
+
+    private void cancelarFechoBingo() {
+        if (tarefaFechoBingo != null) {
+            tarefaFechoBingo.cancelar();
+            tarefaFechoBingo = null;
+        }
+    }
+
+    /**
+     * Fecha uma sala ainda não começada que passou para outro nó do cluster
+     * Os jogadores recebem MIGRAR:idSala e são desligados; a porta de entrada leva-os à sala no novo dono
+     * @return false se o jogo já começou (os jogos em curso terminam onde estão)
+     */
+    public boolean drenar() {
+        List<ClientHandler> aMigrar;
+        bloquear();
+        try {
+            if (jogoIniciado || fechada) {
+                return false;
+            }
+            fechada = true;
+            aMigrar = new ArrayList<>(clientes);
+            clientes.clear();
+        } finally {
+            trinco.unlock();
+        }
+        servidor.removerSala(this);
+
+        Mensagem migrar = Mensagem.deTexto("MIGRAR:" + id);
+        for (ClientHandler cliente : aMigrar) {
+            cliente.enviarMensagem(migrar);
+            cliente.fecharLigacaoDoServidor();
+        }
+        return true;
+    }
+
+    /**
+     * Para a sala de forma controlada, desligando todos os seus clientes
+     * O fim do jogo não vai para o diário: um jogo interrompido pela paragem é retomado no arranque seguinte
+     */
+    public void parar() {
+        List<ClientHandler> clientesCopia;
+        bloquear();
+        try {
+            fechada = true;
+            jogoTerminado = true;
+            cancelarSorteios();
+            cancelarFechoBingo();
+            clientesCopia = new ArrayList<>(clientes);
+            clientes.clear();
+        } finally {
+            trinco.unlock();
+        }
+
+        // Informa todos os clientes que o servidor está a parar
+        for (ClientHandler cliente : clientesCopia) {
+            try {
+                cliente.enviarMensagem("ERRO:Servidor está a parar. A desligar...");
+                cliente.fecharLigacaoDoServidor();
+            } catch (Exception e) {
+                Registo.erro("[" + id + "] Erro ao desligar cliente: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Pedido de LINHA ou BINGO carimbado à chegada: a sequência de sorteios publicada, as marcações do
+     * jogador e o instante, lidos na thread do cliente antes de o pedido entrar na fila
+     */
+    private static final class Pedido {
+        final ClientHandler cliente;
+        final String idCartao;
+        final int sequencia;
+        final long marcasBaixo;
+        final long marcasAlto;
+        final long chegada;
+
+        Pedido(ClientHandler cliente, String idCartao, int sequencia) {
+            this.cliente = cliente;
+            this.idCartao = idCartao;
+            this.sequencia = sequencia;
+            this.marcasBaixo = cliente.obterMarcasBaixo();
+            this.marcasAlto = cliente.obterMarcasAlto();
+            this.chegada = System.nanoTime();
+        }
+    }
+
+    /**
+     * Cartões de um jogador que perdeu a ligação a meio do jogo, com as suas marcações
+     */
+    private static final class LugarReservado {
+        final String nome;
+        final String[] idsCartoes;
+        final int[] indices; // Posições dos cartões no índice da sala
+        final ConjuntoNumeros marcas;
+
+        LugarReservado(String nome, String[] idsCartoes, int[] indices, ConjuntoNumeros marcas) {
+            this.nome = nome;
+            this.idsCartoes = idsCartoes;
+            this.indices = indices;
+            this.marcas = marcas;
+        }
+
+        LugarReservado(ClientHandler cliente) {
+            this(cliente.obterNome(), cliente.obterIdsCartoes(),
+                    Arrays.copyOf(cliente.obterIndicesCartoes(), cliente.obterNumCartoes()), cliente.obterNumerosMarados());
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Simulador de Monte Carlo, sem interface gráfica: distribuição do número de sorteios até à primeira LINHA
+ * e até ao BINGO, e do número de jogadores que as partilham, para tabelas de probabilidades e prémios.
+ * Usa exatamente as regras do servidor: os cartões saem da regra de GeradorCartoes (sem cartões repetidos
+ * no mesmo jogo), o sorteio é o de BaralhoSorteio e o jogo é decidido pelo JogoInstantaneo sobre o
+ * IndiceCartoes, com os padrões de PadroesVitoria, como numa sala instantânea.
+ *
+ * Os jogos são repartidos em blocos fixos por uma stream paralela num ForkJoinPool; cada trabalhador tem
+ * o seu índice, baralho e histogramas, e cada bloco o seu gerador, derivado da semente e do número do bloco.
+ * Não há estado partilhado nem objetos criados por jogo, e o resultado só depende da semente (não do
+ * número de threads).
+ *
+ * Uso: java SimuladorMonteCarlo [--jogos n] [--jogadores k] [--cartoes c] [--linha padrões] [--bingo padrões]
+ *                               [--threads t] [--semente s] [--saida ficheiro.csv]
+ * O CSV tem uma linha por valor de cada métrica: metrica,valor,jogos,probabilidade,acumulada
+ */
+public class SimuladorMonteCarlo {
+    private static final int JOGOS_POR_BLOCO = 4096;
+
+    private long numJogos = 1_000_000;
+    private int jogadores = Sala.MAX_JOGADORES;
+    private int cartoesPorJogador = 1;
+    private PadroesVitoria padroesLinha = PadroesVitoria.LINHA_CLASSICA;
+    private PadroesVitoria padroesBingo = PadroesVitoria.BINGO_CLASSICO;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private long semente = new SecureRandom().nextLong();
+    private String saida = "simulacao.csv";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        SimuladorMonteCarlo simulador = new SimuladorMonteCarlo();
+        try {
+            simulador.lerArgumentos(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Uso: java SimuladorMonteCarlo [--jogos n] [--jogadores k] [--cartoes c] [--linha padrões] "
+                    + "[--bingo padrões] [--threads t] [--semente s] [--saida ficheiro.csv]");
+            return;
+        }
+        simulador.executar();
+    }
+
+    private void lerArgumentos(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Falta o valor de " + args[i]);
+            }
+            String valor = args[++i];
+            switch (args[i - 1]) {
+                case "--jogos": numJogos = Long.parseLong(valor); break;
+                case "--jogadores": jogadores = Integer.parseInt(valor); break;
+                case "--cartoes": cartoesPorJogador = Integer.parseInt(valor); break;
+                case "--linha": padroesLinha = PadroesVitoria.de(valor); break;
+                case "--bingo": padroesBingo = PadroesVitoria.de(valor); break;
+                case "--threads": numThreads = Integer.parseInt(valor); break;
+                case "--semente": semente = Long.parseLong(valor); break;
+                case "--saida": saida = valor; break;
+                default: throw new IllegalArgumentException("Opção desconhecida: " + args[i - 1]);
+            }
+        }
+        if (jogadores < 1 || jogadores > Sala.MAX_JOGADORES) {
+            throw new IllegalArgumentException("O número de jogadores deve estar entre 1 e " + Sala.MAX_JOGADORES);
+        }
+        if (cartoesPorJogador < 1 || cartoesPorJogador > Sala.MAX_CARTOES_POR_JOGADOR) {
+            throw new IllegalArgumentException("O número de cartões deve estar entre 1 e " + Sala.MAX_CARTOES_POR_JOGADOR);
+        }
+        if (numJogos < 1 || numThreads < 1) {
+            throw new IllegalArgumentException("O número de jogos e de threads deve ser positivo");
+        }
+    }
+
+    /**
+     * Corre todos os jogos em paralelo, junta os histogramas dos trabalhadores e escreve o CSV
+     */
+    private void executar() throws IOException, InterruptedException {
+        int numBlocos = (int) ((numJogos + JOGOS_POR_BLOCO - 1) / JOGOS_POR_BLOCO);
+        System.out.printf("A simular %d jogos (%d jogadores, %d cartões cada, LINHA=%s, BINGO=%s) em %d threads, semente %d%n",
+                numJogos, jogadores, cartoesPorJogador, padroesLinha, padroesBingo, numThreads, semente);
+
+        long inicio = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        Trabalhador total;
+        try {
+            // A stream paralela corre nas threads do pool que a submete
+            total = pool.submit(() -> IntStream.range(0, numBlocos).parallel()
+                    .collect(() -> new Trabalhador(this), Trabalhador::simularBloco, Trabalhador::juntar)).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Erro na simulação", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(Paths.get(saida), StandardCharsets.UTF_8))) {
+            csv.println("metrica,valor,jogos,probabilidade,acumulada");
+            escrever(csv, "sorteios_ate_linha", total.sorteiosAteLinha, total.jogos);
+            escrever(csv, "sorteios_ate_bingo", total.sorteiosAteBingo, total.jogos);
+            escrever(csv, "vencedores_linha", total.vencedoresLinha, total.jogos);
+            escrever(csv, "vencedores_bingo", total.vencedoresBingo, total.jogos);
+        }
+        System.out.printf(Locale.ROOT, "%d jogos em %.2f s (%.0f jogos/s). Média de sorteios: LINHA %.2f, BINGO %.2f. "
+                        + "BINGO partilhado em %.3f%% dos jogos. Histogramas em %s%n",
+                total.jogos, segundos, total.jogos / segundos, media(total.sorteiosAteLinha, total.jogos),
+                media(total.sorteiosAteBingo, total.jogos),
+                100.0 * (total.jogos - total.vencedoresBingo[1] - total.vencedoresBingo[0]) / total.jogos, saida);
+    }
+
+    private static void escrever(PrintWriter csv, String metrica, long[] histograma, long jogos) {
+        long acumulado = 0;
+        for (int valor = 0; valor < histograma.length; valor++) {
+            acumulado += histograma[valor];
+            if (histograma[valor] == 0) continue;
+            csv.printf(Locale.ROOT, "%s,%d,%d,%.9f,%.9f%n", metrica, valor, histograma[valor],
+                    (double) histograma[valor] / jogos, (double) acumulado / jogos);
+        }
+    }
+
+    private static double media(long[] histograma, long jogos) {
+        double soma = 0;
+        for (int valor = 0; valor < histograma.length; valor++) {
+            soma += (double) valor * histograma[valor];
+        }
+        return soma / jogos;
+    }
+
+    /**
+     * Estado de uma thread do simulador: tudo é alocado uma vez e reutilizado em todos os jogos
+     */
+    private static final class Trabalhador {
+        private final SimuladorMonteCarlo simulador;
+        private final IndiceCartoes indice;
+        private final JogoInstantaneo jogo;
+        private final BaralhoSorteio baralho = new BaralhoSorteio(0L);
+        private final int[] permutacao = GeradorCartoes.novaPermutacao();
+        private final int[] numeros = new int[Cartao.TAMANHO];
+        private final ConjuntoNumeros nenhum = new ConjuntoNumeros();
+
+        // Histogramas indexados pelo valor (0 = nunca aconteceu)
+        final long[] sorteiosAteLinha = new long[ConjuntoNumeros.MAXIMO + 1];
+        final long[] sorteiosAteBingo = new long[ConjuntoNumeros.MAXIMO + 1];
+        final long[] vencedoresLinha;
+        final long[] vencedoresBingo;
+        long jogos;
+
+        Trabalhador(SimuladorMonteCarlo simulador) {
+            this.simulador = simulador;
+            this.indice = new IndiceCartoes(simulador.padroesLinha, simulador.padroesBingo);
+            this.jogo = new JogoInstantaneo(indice);
+            this.vencedoresLinha = new long[simulador.jogadores + 1];
+            this.vencedoresBingo = new long[simulador.jogadores + 1];
+        }
+
+        /**
+         * Simula os jogos de um bloco, com um gerador que só depende da semente e do número do bloco
+         */
+        void simularBloco(int bloco) {
+            SplittableRandom gerador = new SplittableRandom(BaralhoSorteio.sementeJogo(simulador.semente, "bloco-" + bloco));
+            for (int i = 0; i < permutacao.length; i++) {
+                permutacao[i] = i + 1; // Os cartões do bloco não dependem dos blocos que esta thread já simulou
+            }
+            long restantes = simulador.numJogos - (long) bloco * JOGOS_POR_BLOCO;
+            for (int i = 0, n = (int) Math.min(JOGOS_POR_BLOCO, restantes); i < n; i++) {
+                simularJogo(gerador);
+            }
+        }
+
+        private void simularJogo(SplittableRandom gerador) {
+            indice.limpar();
+            int cartoes = simulador.jogadores * simulador.cartoesPorJogador;
+            for (int cartao = 0; cartao < cartoes; cartao++) {
+                do {
+                    // Como na sala: um cartão igual a outro do mesmo jogo é gerado de novo
+                    GeradorCartoes.sortearNumeros(permutacao, gerador, numeros);
+                } while (contemIgual());
+                indice.registar(numeros, nenhum);
+            }
+            baralho.rebaralhar(gerador);
+            jogo.reiniciar();
+            jogo.jogar(baralho);
+
+            jogos++;
+            sorteiosAteLinha[jogo.obterSorteiosAteLinha()]++;
+            sorteiosAteBingo[jogo.obterSorteiosAteBingo()]++;
+            int linha = 0;
+            for (int i = 0; i < jogo.obterNumCartoesLinha(); i++) {
+                linha |= 1 << (jogo.obterCartaoLinha(i) / simulador.cartoesPorJogador);
+            }
+            int bingo = 0;
+            for (int i = 0; i < jogo.obterNumCartoesBingo(); i++) {
+                bingo |= 1 << (jogo.obterCartaoBingo(i) / simulador.cartoesPorJogador);
+            }
+            vencedoresLinha[Integer.bitCount(linha)]++;
+            vencedoresBingo[Integer.bitCount(bingo)]++;
+        }
+
+        private boolean contemIgual() {
+            long baixo = 0;
+            long alto = 0;
+            for (int numero : numeros) {
+                if (numero < 64) {
+                    baixo |= 1L << numero;
+                } else {
+                    alto |= 1L << (numero - 64);
+                }
+            }
+            return indice.contemIgual(baixo, alto);
+        }
+
+        /**
+         * Junta os histogramas de outro trabalhador a este (no fim da stream paralela)
+         */
+        void juntar(Trabalhador outro) {
+            jogos += outro.jogos;
+            somar(sorteiosAteLinha, outro.sorteiosAteLinha);
+            somar(sorteiosAteBingo, outro.sorteiosAteBingo);
+            somar(vencedoresLinha, outro.vencedoresLinha);
+            somar(vencedoresBingo, outro.vencedoresBingo);
+        }
+
+        private static void somar(long[] destino, long[] origem) {
+            for (int i = 0; i < destino.length; i++) {
+                destino[i] += origem[i];
+            }
+        }
+    }
+}
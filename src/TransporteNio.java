@@ -0,0 +1,435 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transporte não bloqueante baseado em selectores NIO
+ * Um pequeno conjunto de ciclos de eventos serve todas as ligações, em vez de uma thread por cliente
+ * Fala exatamente o mesmo protocolo de linhas do modo bloqueante (PRONTO:, MARCAR:, LINHA, BINGO, ...)
+ * Cada ligação tem uma fila de saída limitada; um cliente que não a esvazia é desligado
+ */
+public class TransporteNio {
+    // Limites de cada ligação
+    private static final int TAMANHO_MAX_LINHA = 8192;
+    private static final int TAMANHO_BUFFER_LEITURA = 4096;
+    private static final int MAX_LOTE = 64;
+
+    private final BingoServer servidor;
+    private final int porta;
+    private final CicloEventos[] ciclos;
+    private ServerSocketChannel canalServidor;
+    private volatile boolean ativo;
+    private int proximoCiclo;
+
+    /**
+     * Construtor - Prepara os ciclos de eventos do transporte
+     * @param servidor - Servidor que distribui os clientes pelas salas
+     * @param porta - Porta TCP onde aceitar ligações
+     * @param numCiclos - Número de threads de ciclo de eventos
+     */
+    public TransporteNio(BingoServer servidor, int porta, int numCiclos) {
+        this.servidor = servidor;
+        this.porta = porta;
+        this.ciclos = new CicloEventos[Math.max(1, numCiclos)];
+    }
+
+    /**
+     * Aceita ligações e distribui-as pelos ciclos de eventos
+     * Bloqueia a thread que o chama até o transporte ser parado
+     */
+    public void executar() throws IOException {
+        canalServidor = ServerSocketChannel.open();
+        canalServidor.bind(new InetSocketAddress(porta));
+        ativo = true;
+
+        for (int i = 0; i < ciclos.length; i++) {
+            ciclos[i] = new CicloEventos();
+            Thread thread = new Thread(ciclos[i], "nio-ciclo-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Registo.info("Transporte NIO ativo com " + ciclos.length + " ciclos de eventos");
+
+        // A aceitação é bloqueante numa única thread; a leitura e escrita são feitas pelos ciclos
+        while (ativo) {
+            SocketChannel canalCliente;
+            try {
+                canalCliente = canalServidor.accept();
+            } catch (IOException e) {
+                if (ativo) {
+                    Registo.erro("Erro ao aceitar ligação: " + e.getMessage());
+                }
+                continue;
+            }
+            Registo.depuracao(() -> "Novo cliente ligado: " + canalCliente.socket().getInetAddress());
+            canalCliente.configureBlocking(false);
+            canalCliente.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            CicloEventos ciclo = ciclos[proximoCiclo];
+            proximoCiclo = (proximoCiclo + 1) % ciclos.length;
+
+            LigacaoNio ligacao = new LigacaoNio(canalCliente, ciclo);
+            ClientHandler gestorCliente = new ClientHandler(ligacao, servidor);
+            ligacao.gestor = gestorCliente;
+            ciclo.registar(ligacao);
+        }
+    }
+
+    /**
+     * Para o transporte, fechando o canal de aceitação e todos os ciclos de eventos
+     */
+    public void parar() {
+        ativo = false;
+        try {
+            if (canalServidor != null) canalServidor.close();
+        } catch (IOException e) {
+            Registo.erro("Erro ao fechar canal do servidor: " + e.getMessage());
+        }
+        for (CicloEventos ciclo : ciclos) {
+            if (ciclo != null) ciclo.seletor.wakeup();
+        }
+    }
+
+    /**
+     * Ciclo de eventos que serve um subconjunto das ligações com um único Selector
+     */
+    private class CicloEventos implements Runnable {
+        private final Selector seletor;
+        private final Queue<LigacaoNio> novasLigacoes = new ConcurrentLinkedQueue<>();
+        private final Queue<LigacaoNio> escritasPendentes = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer bufferLeitura = ByteBuffer.allocateDirect(TAMANHO_BUFFER_LEITURA);
+        private volatile Thread thread;
+
+        CicloEventos() {
+            try {
+                seletor = Selector.open();
+            } catch (IOException e) {
+                throw new IllegalStateException("Não foi possível abrir o selector: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Entrega uma nova ligação a este ciclo (chamado pela thread de aceitação)
+         */
+        void registar(LigacaoNio ligacao) {
+            novasLigacoes.add(ligacao);
+            seletor.wakeup();
+        }
+
+        /**
+         * Agenda a escrita das mensagens pendentes de uma ligação
+         * Pode ser chamado de qualquer thread; só acorda o selector quando necessário
+         */
+        void agendarEscrita(LigacaoNio ligacao) {
+            if (ligacao.escritaAgendada.compareAndSet(false, true)) {
+                escritasPendentes.add(ligacao);
+                if (Thread.currentThread() != thread) {
+                    seletor.wakeup();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            try {
+                while (ativo) {
+                    seletor.select();
+                    registarNovasLigacoes();
+
+                    Iterator<SelectionKey> chaves = seletor.selectedKeys().iterator();
+                    while (chaves.hasNext()) {
+                        SelectionKey chave = chaves.next();
+                        chaves.remove();
+                        LigacaoNio ligacao = (LigacaoNio) chave.attachment();
+                        if (!chave.isValid()) continue;
+                        if (chave.isReadable()) {
+                            ler(ligacao);
+                        }
+                        if (chave.isValid() && chave.isWritable()) {
+                            escrever(ligacao);
+                        }
+                    }
+
+                    // Escreve as mensagens produzidas por outras threads e durante a leitura
+                    LigacaoNio pendente;
+                    while ((pendente = escritasPendentes.poll()) != null) {
+                        escrever(pendente);
+                    }
+                }
+            } catch (IOException e) {
+                Registo.erro("Erro no ciclo de eventos: " + e.getMessage());
+            } finally {
+                for (SelectionKey chave : seletor.keys()) {
+                    terminar((LigacaoNio) chave.attachment());
+                }
+                try {
+                    seletor.close();
+                } catch (IOException e) {
+                    Registo.erro("Erro ao fechar selector: " + e.getMessage());
+                }
+            }
+        }
+
+        private void registarNovasLigacoes() {
+            LigacaoNio ligacao;
+            while ((ligacao = novasLigacoes.poll()) != null) {
+                try {
+                    ligacao.chave = ligacao.canal.register(seletor, SelectionKey.OP_READ, ligacao);
+                    if (ligacao.pendentes.get() > 0 || ligacao.fecharAposEscrita) {
+                        escrever(ligacao);
+                    }
+                } catch (ClosedChannelException e) {
+                    terminar(ligacao);
+                }
+            }
+        }
+
+        /**
+         * Lê os bytes disponíveis e entrega ao ClientHandler cada linha completa
+         */
+        private void ler(LigacaoNio ligacao) {
+            int lidos;
+            try {
+                bufferLeitura.clear();
+                lidos = ligacao.canal.read(bufferLeitura);
+            } catch (IOException e) {
+                Registo.erro("Erro na comunicação com cliente " + ligacao.gestor.obterNome() + ": " + e.getMessage());
+                terminar(ligacao);
+                return;
+            }
+            if (lidos < 0) {
+                terminar(ligacao);
+                return;
+            }
+
+            bufferLeitura.flip();
+            if (!ligacao.protocoloDecidido && bufferLeitura.hasRemaining()) {
+                // O primeiro byte da ligação escolhe o protocolo
+                ligacao.protocoloDecidido = true;
+                if ((bufferLeitura.get(bufferLeitura.position()) & 0xFF) == ProtocoloBinario.MAGIA) {
+                    bufferLeitura.get();
+                    ligacao.ativarProtocoloBinario();
+                }
+            }
+            if (ligacao.binario) {
+                lerTramas(ligacao);
+            } else {
+                lerLinhas(ligacao);
+            }
+        }
+
+        /**
+         * Separa as linhas completas do protocolo de texto e entrega-as ao gestor
+         */
+        private void lerLinhas(LigacaoNio ligacao) {
+            while (bufferLeitura.hasRemaining()) {
+                byte b = bufferLeitura.get();
+                if (b == '\n') {
+                    int tamanho = ligacao.tamanhoLinha;
+                    if (tamanho > 0 && ligacao.linha[tamanho - 1] == '\r') tamanho--;
+                    String mensagem = new String(ligacao.linha, 0, tamanho, StandardCharsets.UTF_8);
+                    ligacao.tamanhoLinha = 0;
+                    ligacao.gestor.receberMensagem(mensagem);
+                    if (!ligacao.canal.isOpen()) return;
+                } else if (!ligacao.acrescentar(b)) {
+                    Registo.aviso("Linha demasiado longa de " + ligacao.obterEndereco() + ". A desligar.");
+                    terminar(ligacao);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Separa as tramas completas do protocolo binário e entrega-as ao gestor
+         * A trama é acumulada no mesmo buffer das linhas, com os 2 bytes de tamanho à cabeça
+         */
+        private void lerTramas(LigacaoNio ligacao) {
+            while (bufferLeitura.hasRemaining()) {
+                if (!ligacao.acrescentar(bufferLeitura.get())) {
+                    Registo.aviso("Trama demasiado longa de " + ligacao.obterEndereco() + ". A desligar.");
+                    terminar(ligacao);
+                    return;
+                }
+                if (ligacao.tamanhoLinha < 2) continue;
+                int tamanho = ((ligacao.linha[0] & 0xFF) << 8) | (ligacao.linha[1] & 0xFF);
+                if (tamanho == 0) {
+                    Registo.aviso("Trama vazia de " + ligacao.obterEndereco() + ". A desligar.");
+                    terminar(ligacao);
+                    return;
+                }
+                if (ligacao.tamanhoLinha == 2 + tamanho) {
+                    byte[] trama = Arrays.copyOfRange(ligacao.linha, 2, 2 + tamanho);
+                    ligacao.tamanhoLinha = 0;
+                    ligacao.gestor.receberTrama(trama);
+                    if (!ligacao.canal.isOpen()) return;
+                }
+            }
+        }
+
+        /**
+         * Escreve o máximo possível da fila de saída de uma ligação
+         * Junta até MAX_LOTE mensagens numa única escrita com vários buffers;
+         * se o socket não aceitar tudo, passa a aguardar OP_WRITE
+         */
+        private void escrever(LigacaoNio ligacao) {
+            if (ligacao.abortada) {
+                terminar(ligacao);
+                return;
+            }
+            if (ligacao.chave == null || !ligacao.canal.isOpen()) {
+                return; // Ainda não registada ou já fechada
+            }
+            try {
+                while (true) {
+                    if (ligacao.inicioLote == ligacao.fimLote && !ligacao.prepararLote()) {
+                        break;
+                    }
+                    ligacao.canal.write(ligacao.lote, ligacao.inicioLote, ligacao.fimLote - ligacao.inicioLote);
+                    ligacao.libertarEscritos();
+                    if (ligacao.inicioLote < ligacao.fimLote) {
+                        ligacao.chave.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                ligacao.chave.interestOps(SelectionKey.OP_READ);
+                ligacao.escritaAgendada.set(false);
+
+                // Uma mensagem pode ter chegado entre o esvaziar da fila e a limpeza da marca
+                if (!ligacao.saida.isEmpty()) {
+                    agendarEscrita(ligacao);
+                } else if (ligacao.fecharAposEscrita) {
+                    terminar(ligacao);
+                }
+            } catch (IOException e) {
+                terminar(ligacao);
+            }
+        }
+
+        /**
+         * Fecha o canal de uma ligação e informa o ClientHandler
+         */
+        private void terminar(LigacaoNio ligacao) {
+            if (ligacao.chave != null) ligacao.chave.cancel();
+            try {
+                ligacao.canal.close();
+            } catch (IOException e) {
+                Registo.erro("Erro ao fechar ligação com " + ligacao.obterEndereco() + ": " + e.getMessage());
+            }
+            ligacao.saida.clear();
+            Arrays.fill(ligacao.lote, null);
+            ligacao.gestor.ligacaoTerminada();
+        }
+    }
+
+    /**
+     * Estado de uma ligação NIO: canal, protocolo, linha (ou trama) em construção e fila de saída
+     */
+    private static class LigacaoNio implements CanalCliente {
+        private final SocketChannel canal;
+        private final CicloEventos ciclo;
+        private final Queue<ByteBuffer> saida = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendentes = new AtomicInteger(); // Mensagens em fila ou no lote atual
+        private final AtomicBoolean escritaAgendada = new AtomicBoolean();
+        private volatile boolean fecharAposEscrita;
+        private volatile boolean abortada; // Cliente lento: fechar sem enviar o resto
+        private final ByteBuffer[] lote = new ByteBuffer[MAX_LOTE];
+        private int inicioLote;
+        private int fimLote;
+        private ClientHandler gestor;
+        private SelectionKey chave;
+        private byte[] linha = new byte[128];
+        private int tamanhoLinha;
+        private boolean protocoloDecidido; // Só acedido pelo ciclo de eventos
+        private volatile boolean binario;
+
+        LigacaoNio(SocketChannel canal, CicloEventos ciclo) {
+            this.canal = canal;
+            this.ciclo = ciclo;
+        }
+
+        /**
+         * Acrescenta um byte à linha em construção
+         * @return false se a linha ultrapassar o tamanho máximo
+         */
+        boolean acrescentar(byte b) {
+            if (tamanhoLinha == linha.length) {
+                if (linha.length >= TAMANHO_MAX_LINHA) return false;
+                linha = Arrays.copyOf(linha, Math.min(linha.length * 2, TAMANHO_MAX_LINHA));
+            }
+            linha[tamanhoLinha++] = b;
+            return true;
+        }
+
+        @Override
+        public void enviar(Mensagem mensagem) {
+            if (fecharAposEscrita || !canal.isOpen()) return;
+            if (pendentes.incrementAndGet() > CAPACIDADE_FILA) {
+                Registo.aviso("Cliente lento em " + obterEndereco() + ": fila de saída cheia. A desligar.");
+                abortada = true;
+                fecharAposEscrita = true;
+                ciclo.agendarEscrita(this);
+                return;
+            }
+            // O array é partilhado entre ligações; cada uma tem o seu ByteBuffer (posição própria)
+            saida.add(ByteBuffer.wrap(mensagem.bytes(binario)));
+            ciclo.agendarEscrita(this);
+        }
+
+        @Override
+        public void ativarProtocoloBinario() {
+            binario = true;
+        }
+
+        @Override
+        public int obterTamanhoFila() {
+            return Math.max(0, pendentes.get());
+        }
+
+        /**
+         * Move até MAX_LOTE mensagens da fila para o lote de escrita
+         * @return false se não havia nada para escrever
+         */
+        boolean prepararLote() {
+            inicioLote = 0;
+            fimLote = 0;
+            ByteBuffer buffer;
+            while (fimLote < MAX_LOTE && (buffer = saida.poll()) != null) {
+                lote[fimLote++] = buffer;
+            }
+            return fimLote > 0;
+        }
+
+        /**
+         * Liberta os buffers do lote que já foram totalmente escritos
+         */
+        void libertarEscritos() {
+            while (inicioLote < fimLote && !lote[inicioLote].hasRemaining()) {
+                lote[inicioLote++] = null;
+                pendentes.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void fechar() {
+            // O canal só é fechado pelo ciclo depois de enviar as mensagens pendentes
+            if (fecharAposEscrita) return;
+            fecharAposEscrita = true;
+            ciclo.agendarEscrita(this);
+        }
+
+        @Override
+        public String obterEndereco() {
+            return String.valueOf(canal.socket().getInetAddress());
+        }
+    }
+}